@@ -24,10 +24,12 @@ public class Main {
 
     public static void startHttpServer(Route route, ActorSystem system) throws IOException {
         final Http http = Http.get(system);
-        // 监听 Http,
+        // 监听 Http, 端口见 reference-market.conf
+        final int port = system.settings().config().getInt("http.port");
         final CompletionStage<ServerBinding> binding =
-                http.newServerAt("localhost", 8080).bind(route);
-        System.out.println("Server online at http://localhost:8080/\nPress RETURN to stop...");
+                http.newServerAt("localhost", port).bind(route);
+        System.out.println(
+                "Server online at http://localhost:" + port + "/\nPress RETURN to stop...");
         System.in.read(); // let it run until user presses return
         binding.thenCompose(ServerBinding::unbind) // trigger unbinding from the port
                 .thenAccept(unbound -> system.terminate()); // and shutdown when done
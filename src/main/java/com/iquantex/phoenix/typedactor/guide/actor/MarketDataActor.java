@@ -4,46 +4,55 @@ import com.iquantex.phoenix.typedactor.guide.protocol.CborSerializable;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
-import akka.actor.typed.Scheduler;
 import akka.actor.typed.javadsl.ActorContext;
-import akka.actor.typed.javadsl.AskPattern;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.RecoveryCompleted;
 import akka.persistence.typed.javadsl.*;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
+import lombok.NoArgsConstructor;
 
-import java.time.Duration;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.List;
 
 /** @author AndyChen */
 public class MarketDataActor
         extends EventSourcedBehavior<
-                MarketDataActor.Message, MarketDataActor.Event, MarketDataActor.State> {
+                MarketDataActor.Message, MarketDataActor.Event, MarketDataState> {
 
-    public MarketDataActor(PersistenceId persistenceId, ActorContext<Void> context) {
+    private final ActorContext<Message> context;
+    private final MarketDataReadModel readModel;
+
+    public MarketDataActor(
+            PersistenceId persistenceId,
+            ActorContext<Message> context,
+            MarketDataReadModel readModel) {
         super(persistenceId);
         this.context = context;
+        this.readModel = readModel;
     }
 
-    private final ActorContext<Void> context;
+    public static Behavior<MarketDataActor.Message> create(PersistenceId persistenceId) {
+        return create(persistenceId, null);
+    }
 
+    /** 每次持久化事件以及溯源完成后, 把状态推送到 readModel, 为 null 时不推送 */
     public static Behavior<MarketDataActor.Message> create(
-            PersistenceId persistenceId, ActorContext<Void> context) {
-        return Behaviors.setup(ctx -> new MarketDataActor(persistenceId, context));
+            PersistenceId persistenceId, MarketDataReadModel readModel) {
+        return Behaviors.setup(ctx -> new MarketDataActor(persistenceId, ctx, readModel));
     }
 
     @Override
-    public State emptyState() {
-        return new LiveState(persistenceId().id(), 0L);
+    public MarketDataState emptyState() {
+        return new MarketDataState(persistenceId().id(), 0L);
     }
 
+    /** 更新和试算都基于 Live 值计算, 查询只返回 Live 值. 回复时才复制状态, 状态本身不会泄露到 Actor 外部 */
     @Override
-    public CommandHandler<Message, Event, State> commandHandler() {
-        CommandHandlerBuilder<Message, Event, State> builder = newCommandHandlerBuilder();
-
-        builder.forStateType(LiveState.class)
+    public CommandHandler<Message, Event, MarketDataState> commandHandler() {
+        return newCommandHandlerBuilder()
+                .forAnyState()
                 .onCommand(
                         UpdateValue.class,
                         (state, message) ->
@@ -51,8 +60,10 @@ public class MarketDataActor
                                         .persist(
                                                 new UpdateEvent(
                                                         state.getId(),
-                                                        state.getValue() + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
+                                                        state.getLiveValue() + message.getValue()))
+                                        .thenRun(this::publish)
+                                        .thenReply(
+                                                message.getReplyRef(), MarketDataState::snapshot))
                 .onCommand(
                         TrialUpdateValue.class,
                         (state, message) ->
@@ -60,125 +71,119 @@ public class MarketDataActor
                                         .persist(
                                                 new TrialUpdateEvent(
                                                         state.getId(),
-                                                        state.getValue() + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
-                .onCommand(Query.class, (state, query) -> Effect().reply(query.getReply(), state));
-
-        // 需要取 Live
-        builder.forStateType(TrialState.class)
-                .onCommand(
-                        UpdateValue.class,
-                        (state, message) ->
-                                Effect()
-                                        .persist(
-                                                new UpdateEvent(
-                                                        state.liveState.getId(),
-                                                        state.liveState.getValue()
-                                                                + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
-                .onCommand(
-                        TrialUpdateValue.class,
-                        (state, message) ->
-                                Effect()
-                                        .persist(
-                                                new TrialUpdateEvent(
-                                                        state.liveState.getId(),
-                                                        state.liveState.getValue()
-                                                                + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
+                                                        state.getLiveValue() + message.getValue()))
+                                        .thenRun(this::publish)
+                                        .thenReply(
+                                                message.getReplyRef(), MarketDataState::snapshot))
+                .onCommand(BatchUpdateValue.class, this::onBatchUpdate)
+                .onCommand(BulkUpdateValue.class, this::onBulkUpdate)
                 .onCommand(
                         Query.class,
-                        (state, query) -> Effect().reply(query.getReply(), state.liveState));
+                        (state, query) -> Effect().reply(query.getReply(), state.liveSnapshot()))
+                .build();
+    }
 
-        builder.forAnyState()
-                .onCommand(
-                        UpdateValue.class,
-                        (state, message) ->
-                                Effect()
-                                        .persist(
-                                                new UpdateEvent(
-                                                        state.getId(),
-                                                        state.getValue() + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
-                .onCommand(
-                        TrialUpdateValue.class,
-                        (state, message) ->
-                                Effect()
-                                        .persist(
-                                                new TrialUpdateEvent(
-                                                        state.getId(),
-                                                        state.getValue() + message.getValue()))
-                                        .thenReply(message.getReplyRef(), temp -> temp))
-                .onCommand(Query.class, (state, query) -> Effect().reply(query.getReply(), state));
-        return builder.build();
+    /**
+     * 处理 {@link BatchUpdateValue}, 将一批 {@link UpdateValue} 合并为一个 {@link BatchUpdateEvent} 持久化.
+     *
+     * <p>每个更新的值与逐条处理 {@link UpdateValue} 时一致, 持久化完成后按顺序回复各自的 replyRef
+     */
+    private Effect<Event, MarketDataState> onBatchUpdate(
+            MarketDataState state, BatchUpdateValue batch) {
+        List<UpdateValue> updates = batch.getUpdates();
+        List<Long> deltas = new ArrayList<>(updates.size());
+        for (UpdateValue update : updates) {
+            deltas.add(update.getValue());
+        }
+        List<State> replies = new ArrayList<>(updates.size());
+        return Effect()
+                .persist(new BatchUpdateEvent(state.getId(), fold(state, deltas, replies)))
+                .thenRun(this::publish)
+                .thenRun(
+                        newState -> {
+                            for (int i = 0; i < replies.size(); i++) {
+                                updates.get(i).getReplyRef().tell(replies.get(i));
+                            }
+                        });
     }
 
-    public ActorRef<Message> getChild(ActorContext context) {
-        return context.spawn(
-                MarketDataActor.create(PersistenceId.ofUniqueId("asd"), context), "temp");
+    /** 处理 {@link BulkUpdateValue}, 与 {@link BatchUpdateValue} 一样合并为一个事件持久化, 只回复一次汇总的结果 */
+    private Effect<Event, MarketDataState> onBulkUpdate(
+            MarketDataState state, BulkUpdateValue bulk) {
+        if (bulk.getValues().isEmpty()) {
+            return Effect().reply(bulk.getReplyRef(), new BulkUpdateReply(new ArrayList<>()));
+        }
+        List<State> replies = new ArrayList<>(bulk.getValues().size());
+        return Effect()
+                .persist(
+                        new BatchUpdateEvent(state.getId(), fold(state, bulk.getValues(), replies)))
+                .thenRun(this::publish)
+                .thenReply(bulk.getReplyRef(), newState -> new BulkUpdateReply(replies));
     }
 
-    public State newState(
-            TrialUpdateValue message, State old, Scheduler scheduler, ActorRef<Message> child) {
-        CompletableFuture<State> future =
-                AskPattern.<MarketDataActor.Message, MarketDataActor.State>ask(
-                                child,
-                                reply -> new UpdateValue(message.value, message.getReplyRef()),
-                                Duration.ofSeconds(1),
-                                scheduler)
-                        .toCompletableFuture();
-        try {
-            return future.get(1, TimeUnit.SECONDS);
-
-        } catch (Exception e) {
-            return old;
+    /**
+     * 按顺序应用一批增量, 返回每个更新完成后的值, 并在 replies 中填充与逐条处理 {@link UpdateValue} 时一致的回复.
+     *
+     * <p>命令处理不能修改状态, 在局部变量上模拟 {@link MarketDataState#update}
+     */
+    private static List<Long> fold(MarketDataState state, List<Long> deltas, List<State> replies) {
+        List<Long> values = new ArrayList<>(deltas.size());
+        long live = state.getLiveValue();
+        boolean trial = state.isTrial();
+        for (Long delta : deltas) {
+            long value = live + delta;
+            values.add(value);
+            if (trial) {
+                trial = false;
+            } else {
+                live = value;
+            }
+            replies.add(new LiveState(state.getId(), live));
         }
+        return values;
     }
 
     @Override
-    public EventHandler<State, Event> eventHandler() {
-        EventHandlerBuilder<State, Event> builder = newEventHandlerBuilder();
+    public SignalHandler<MarketDataState> signalHandler() {
+        return newSignalHandlerBuilder()
+                .onSignal(RecoveryCompleted.class, (state, completed) -> publish(state))
+                .build();
+    }
 
-        builder.forStateType(LiveState.class)
-                .onEvent(
-                        UpdateEvent.class,
-                        (state, updateEvent) ->
-                                new LiveState(updateEvent.getId(), updateEvent.getValue())) // 更新
-                .onEvent(
-                        TrialUpdateEvent.class,
-                        (state, updateEvent) -> {
-                            System.out.println("我持久化了");
-                            return new TrialState(
-                                    updateEvent.getId(), updateEvent.getValue(), state);
-                        }); // 更新，暂存原来的
+    /** 推送状态到读模型, 版本号为最后一个事件的序号 */
+    private void publish(MarketDataState state) {
+        if (readModel != null) {
+            readModel.publish(lastSequenceNumber(context), state.snapshot());
+        }
+    }
 
-        builder.forStateType(TrialState.class)
+    /** 事件原地修改状态, 返回的仍是同一个 {@link MarketDataState} 对象 */
+    @Override
+    public EventHandler<MarketDataState, Event> eventHandler() {
+        return newEventHandlerBuilder()
+                .forAnyState()
                 .onEvent(
                         UpdateEvent.class,
-                        (state, updateEvent) ->
-                                new LiveState(
-                                        state.liveState.getId(), state.liveState.getValue())) // 还原
+                        (state, event) -> {
+                            state.update(event.getValue());
+                            return state;
+                        })
                 .onEvent(
                         TrialUpdateEvent.class,
-                        (state, updateEvent) ->
-                                new TrialState(
-                                        updateEvent.getId(),
-                                        updateEvent.getValue(),
-                                        state.liveState)); // 更新，保持原来的不变
-
-        builder.forAnyState()
-                .onEvent(
-                        UpdateEvent.class,
-                        (state, updateEvent) ->
-                                new LiveState(updateEvent.getId(), updateEvent.getValue()))
+                        (state, event) -> {
+                            state.trialUpdate(event.getValue());
+                            return state;
+                        })
                 .onEvent(
-                        TrialUpdateEvent.class,
-                        (state, updateEvent) ->
-                                new TrialState(
-                                        updateEvent.getId(),
-                                        updateEvent.getValue(),
-                                        state)); // 更新，暂存原来的
-        return builder.build();
+                        BatchUpdateEvent.class,
+                        (state, event) -> {
+                            // 按顺序重放, 与逐条持久化 UpdateEvent 的效果相同
+                            for (Long value : event.getValues()) {
+                                state.update(value);
+                            }
+                            return state;
+                        })
+                .build();
     }
 
     public interface Message extends CborSerializable {}
@@ -199,6 +204,31 @@ public class MarketDataActor
         private ActorRef<State> replyRef;
     }
 
+    /** 合并后的 {@link UpdateValue}, 由 {@link MarketDataBatcher} 发出 */
+    @AllArgsConstructor
+    @Getter
+    public static class BatchUpdateValue implements Message {
+
+        private List<UpdateValue> updates;
+    }
+
+    /** 一次提交多个更新, 持久化为一个事件, 回复一个汇总的 {@link BulkUpdateReply} */
+    @AllArgsConstructor
+    @Getter
+    public static class BulkUpdateValue implements Message {
+
+        private List<Long> values;
+        private ActorRef<BulkUpdateReply> replyRef;
+    }
+
+    /** {@link BulkUpdateValue} 的回复, states 与 values 一一对应 */
+    @AllArgsConstructor
+    @Getter
+    public static class BulkUpdateReply {
+
+        private final List<State> states;
+    }
+
     @AllArgsConstructor
     @Getter
     public static class Query implements Message {
@@ -210,48 +240,60 @@ public class MarketDataActor
         }
     }
 
-    interface Event {}
+    interface Event extends CborSerializable {}
 
     @AllArgsConstructor
+    @NoArgsConstructor
     @Getter
-    class UpdateEvent implements Event {
+    static class UpdateEvent implements Event {
 
         private String id;
         private Long value;
     }
 
     @AllArgsConstructor
+    @NoArgsConstructor
     @Getter
-    class TrialUpdateEvent implements Event {
+    static class TrialUpdateEvent implements Event {
 
         private String id;
         private Long value;
     }
 
+    /** 一次持久化多个更新, values 为每个更新完成后的值 */
     @AllArgsConstructor
+    @NoArgsConstructor
     @Getter
-    public abstract class State {
+    static class BatchUpdateEvent implements Event {
 
         private String id;
-        private Long value;
+        private List<Long> values;
     }
 
+    /** 回复给外部的不可变状态, 由 {@link MarketDataState} 复制而来 */
+    @AllArgsConstructor
     @Getter
-    public final class LiveState extends State {
+    public abstract static class State {
+
+        private final String id;
+        private final long value;
+    }
+
+    public static final class LiveState extends State {
 
-        public LiveState(String id, Long value) {
+        public LiveState(String id, long value) {
             super(id, value);
         }
     }
 
     @Getter
-    public final class TrialState extends State {
+    public static final class TrialState extends State {
 
-        private State liveState;
+        private final LiveState liveState;
 
-        public TrialState(String id, Long value, State state) {
+        public TrialState(String id, long value, LiveState liveState) {
             super(id, value);
-            this.liveState = state;
+            this.liveState = liveState;
         }
     }
 }
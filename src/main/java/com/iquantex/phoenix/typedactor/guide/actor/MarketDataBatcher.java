@@ -0,0 +1,108 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.BatchUpdateValue;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.UpdateValue;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link MarketDataActor} 的前置攒批 Actor.
+ *
+ * <p>在 window 时间内或累计到 maxSize 个 {@link UpdateValue} 后, 合并成一个 {@link BatchUpdateValue} 发送给 {@link
+ * MarketDataActor}, 这样一批更新只需要一次 Journal 写入. 其他消息会先把已攒的更新发出去, 再原样转发, 保证消息顺序不变.
+ */
+public class MarketDataBatcher extends AbstractBehavior<Message> {
+
+    private static final Object FLUSH_KEY = "flush";
+
+    private final ActorRef<Message> target;
+    private final int maxSize;
+    private final Duration window;
+    private final TimerScheduler<Message> timers;
+    private List<UpdateValue> buffer = new ArrayList<>();
+
+    private MarketDataBatcher(
+            ActorContext<Message> context,
+            TimerScheduler<Message> timers,
+            ActorRef<Message> target,
+            int maxSize,
+            Duration window) {
+        super(context);
+        this.timers = timers;
+        this.target = target;
+        this.maxSize = maxSize;
+        this.window = window;
+    }
+
+    public static Behavior<Message> create(ActorRef<Message> target, int maxSize, Duration window) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be >= 1, was " + maxSize);
+        }
+        return Behaviors.setup(
+                ctx ->
+                        Behaviors.withTimers(
+                                timers ->
+                                        new MarketDataBatcher(
+                                                ctx, timers, target, maxSize, window)));
+    }
+
+    @Override
+    public Receive<Message> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(UpdateValue.class, this::onUpdate)
+                .onMessageEquals(Flush.INSTANCE, this::onFlush)
+                .onAnyMessage(this::onOther)
+                .build();
+    }
+
+    private Behavior<Message> onUpdate(UpdateValue update) {
+        buffer.add(update);
+        if (buffer.size() >= maxSize) {
+            flush();
+        } else if (buffer.size() == 1) {
+            timers.startSingleTimer(FLUSH_KEY, Flush.INSTANCE, window);
+        }
+        return this;
+    }
+
+    private Behavior<Message> onFlush() {
+        flush();
+        return this;
+    }
+
+    private Behavior<Message> onOther(Message message) {
+        flush();
+        target.tell(message);
+        return this;
+    }
+
+    private void flush() {
+        timers.cancel(FLUSH_KEY);
+        if (buffer.isEmpty()) {
+            return;
+        }
+        if (buffer.size() == 1) {
+            target.tell(buffer.get(0));
+            buffer.clear();
+        } else {
+            target.tell(new BatchUpdateValue(buffer));
+            buffer = new ArrayList<>();
+        }
+    }
+
+    /** 攒批窗口到期 */
+    private enum Flush implements Message {
+        INSTANCE
+    }
+}
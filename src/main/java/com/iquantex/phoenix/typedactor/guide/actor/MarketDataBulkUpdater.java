@@ -0,0 +1,173 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.BulkUpdateReply;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.BulkUpdateValue;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 批量更新 {@link MarketDataActor}, 供行情源一次提交大量的更新.
+ *
+ * <p>1. 输入为 JSON 数组或者每行一个值的文本流, 每 batchSize 个值合并为一个 {@link BulkUpdateValue}, 只 ask 一次. 目标可以是 {@link
+ * MarketDataActor} 或者 {@link MarketDataEntity} 的 EntityRef
+ *
+ * <p>2. 同时在途的批次不超过 maxInFlight, 超出时反压请求体的读取. 批次按顺序发送, 结果按输入的顺序返回
+ *
+ * <p>3. 无法解析的值不会发送给 Actor, 在对应的结果中返回错误信息
+ */
+public final class MarketDataBulkUpdater {
+
+    private static final ByteString NEW_LINE = ByteString.fromString("\n");
+
+    private final ActorSystem<?> system;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int maxLineLength;
+    private final Duration timeout;
+
+    public MarketDataBulkUpdater(
+            ActorSystem<?> system,
+            int batchSize,
+            int maxInFlight,
+            int maxLineLength,
+            Duration timeout) {
+        this.system = system;
+        this.batchSize = batchSize;
+        this.maxInFlight = maxInFlight;
+        this.maxLineLength = maxLineLength;
+        this.timeout = timeout;
+    }
+
+    /** 每行一个值, 忽略空行. 超过 maxLineLength 的行会使整个请求失败 */
+    public CompletionStage<BulkResult> updateLines(
+            RecipientRef<Message> target, Source<ByteString, ?> bytes) {
+        return update(
+                target,
+                bytes.via(Framing.delimiter(NEW_LINE, maxLineLength, FramingTruncation.ALLOW))
+                        .map(line -> line.utf8String().trim())
+                        .filter(line -> !line.isEmpty()));
+    }
+
+    /** JSON 数组, 需要读取完整的请求体后才能解析. 不是合法的 JSON 数组时抛出 {@link IllegalArgumentException} */
+    public CompletionStage<BulkResult> updateArray(
+            RecipientRef<Message> target, Source<ByteString, ?> bytes) {
+        return bytes.runFold(ByteString.emptyByteString(), ByteString::concat, system)
+                .thenCompose(
+                        json -> {
+                            List<String> values;
+                            try {
+                                values = JSON.parseArray(json.utf8String(), String.class);
+                            } catch (JSONException e) {
+                                throw new IllegalArgumentException(
+                                        "invalid JSON array: " + e.getMessage(), e);
+                            }
+                            if (values == null) {
+                                throw new IllegalArgumentException("empty request body");
+                            }
+                            return update(target, Source.from(values));
+                        });
+    }
+
+    private CompletionStage<BulkResult> update(
+            RecipientRef<Message> target, Source<String, ?> values) {
+        return values.zipWithIndex()
+                .map(pair -> parse(pair.first(), pair.second()))
+                .grouped(batchSize)
+                .mapAsync(maxInFlight, batch -> send(target, batch))
+                .mapConcat(results -> results)
+                .runWith(Sink.seq(), system)
+                .thenApply(BulkResult::new);
+    }
+
+    /** 只发送解析成功的值, 回复按顺序填回对应的结果 */
+    private CompletionStage<List<ItemResult>> send(
+            RecipientRef<Message> target, List<ItemResult> batch) {
+        List<Long> deltas = new ArrayList<>(batch.size());
+        for (ItemResult item : batch) {
+            if (item.getError() == null) {
+                deltas.add(item.getValue());
+            }
+        }
+        if (deltas.isEmpty()) {
+            return CompletableFuture.completedFuture(batch);
+        }
+        return AskPattern.<Message, BulkUpdateReply>ask(
+                        target,
+                        replyTo -> new BulkUpdateValue(deltas, replyTo),
+                        timeout,
+                        system.scheduler())
+                .thenApply(
+                        reply -> {
+                            List<ItemResult> results = new ArrayList<>(batch.size());
+                            int next = 0;
+                            for (ItemResult item : batch) {
+                                results.add(
+                                        item.getError() == null
+                                                ? new ItemResult(
+                                                        item.getIndex(),
+                                                        reply.getStates().get(next++).getValue(),
+                                                        null)
+                                                : item);
+                            }
+                            return results;
+                        });
+    }
+
+    /** 解析成功时 value 暂存增量, 发送后替换为更新完成后的值 */
+    private static ItemResult parse(String value, long index) {
+        try {
+            return new ItemResult(index, Long.parseLong(value), null);
+        } catch (NumberFormatException e) {
+            return new ItemResult(index, null, "invalid value: " + value);
+        }
+    }
+
+    /** 批量更新的汇总结果 */
+    @Getter
+    public static final class BulkResult {
+
+        private final int updated;
+        private final int failed;
+        private final List<ItemResult> results;
+
+        BulkResult(List<ItemResult> results) {
+            int failed = 0;
+            for (ItemResult result : results) {
+                if (result.getError() != null) {
+                    failed++;
+                }
+            }
+            this.updated = results.size() - failed;
+            this.failed = failed;
+            this.results = results;
+        }
+    }
+
+    /** 单个值的结果, 成功时 value 为更新完成后的 Live 值, 失败时 error 为原因 */
+    @AllArgsConstructor
+    @Getter
+    public static final class ItemResult {
+
+        private final long index;
+        private final Long value;
+        private final String error;
+    }
+}
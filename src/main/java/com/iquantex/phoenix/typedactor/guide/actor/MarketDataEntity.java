@@ -0,0 +1,117 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+
+import com.typesafe.config.Config;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.PostStop;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.persistence.typed.PersistenceId;
+
+/**
+ * 以品种为实体 ID 的 {@link MarketDataActor} 集群分片, 每个品种一个实体, 分布在集群的各个节点和各个核心上.
+ *
+ * <p>每个实体依次由: 攒批 {@link MarketDataBatcher}(可选) -> 试算管道 {@link TrialUpdatePipeline} -> {@link
+ * MarketDataActor} 组成, 配置见 market-data. 实体停止后清空当前节点上该品种的读模型
+ */
+public final class MarketDataEntity {
+
+    public static final EntityTypeKey<Message> TYPE_KEY =
+            EntityTypeKey.create(Message.class, "MarketData");
+
+    /** 默认品种, 对应分片之前的单个 MarketDataActor, 沿用其 PersistenceId 以保留已有的事件 */
+    public static final String DEFAULT_INSTRUMENT = "marketData";
+
+    private final ClusterSharding sharding;
+
+    private MarketDataEntity(ClusterSharding sharding) {
+        this.sharding = sharding;
+    }
+
+    /** 在当前节点初始化分片, 每个节点都需要调用一次 */
+    public static MarketDataEntity init(ActorSystem<?> system, MarketDataReadModels readModels) {
+        Config config = system.settings().config().getConfig("market-data");
+        ClusterSharding sharding = ClusterSharding.get(system);
+        sharding.init(
+                Entity.of(
+                        TYPE_KEY,
+                        ctx ->
+                                create(
+                                        ctx.getEntityId(),
+                                        readModels.get(ctx.getEntityId()),
+                                        config)));
+        return new MarketDataEntity(sharding);
+    }
+
+    public EntityRef<Message> refFor(String instrument) {
+        return sharding.entityRefFor(TYPE_KEY, instrument);
+    }
+
+    static PersistenceId persistenceId(String instrument) {
+        return DEFAULT_INSTRUMENT.equals(instrument)
+                ? PersistenceId.ofUniqueId(DEFAULT_INSTRUMENT)
+                : PersistenceId.of(TYPE_KEY.name(), instrument);
+    }
+
+    /** 创建实体的 Actor 以及前置 Actor, 把收到的消息转发给入口 */
+    static Behavior<Message> create(
+            String instrument, MarketDataReadModel readModel, Config config) {
+        return Behaviors.setup(
+                ctx -> {
+                    ActorRef<Message> entry = spawnMarketData(ctx, instrument, readModel, config);
+                    return Behaviors.receive(Message.class)
+                            .onMessage(
+                                    Message.class,
+                                    message -> {
+                                        entry.tell(message);
+                                        return Behaviors.same();
+                                    })
+                            .onSignal(
+                                    PostStop.class,
+                                    signal -> {
+                                        readModel.clear();
+                                        return Behaviors.same();
+                                    })
+                            .build();
+                });
+    }
+
+    private static ActorRef<Message> spawnMarketData(
+            ActorContext<Message> ctx,
+            String instrument,
+            MarketDataReadModel readModel,
+            Config config) {
+        ActorRef<Message> marketDataActor =
+                ctx.spawn(
+                        MarketDataActor.create(persistenceId(instrument), readModel), "marketData");
+        // MarketDataActor 停止时实体一起停止, 由分片在下一条消息到来时重新创建
+        ctx.watch(marketDataActor);
+
+        Config trial = config.getConfig("trial");
+        ActorRef<Message> entry =
+                ctx.spawn(
+                        TrialUpdatePipeline.create(
+                                marketDataActor,
+                                trial.getInt("max-in-flight"),
+                                trial.getInt("max-queued"),
+                                trial.getDuration("timeout")),
+                        "marketDataTrial");
+
+        Config batch = config.getConfig("batch");
+        if (batch.getBoolean("enabled")) {
+            entry =
+                    ctx.spawn(
+                            MarketDataBatcher.create(
+                                    entry, batch.getInt("max-size"), batch.getDuration("window")),
+                            "marketDataBatcher");
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,98 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+
+import com.alibaba.fastjson.JSON;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link MarketDataActor} 的读模型, 查询不再需要 ask 持久化 Actor.
+ *
+ * <p>{@link MarketDataActor} 每次持久化事件以及溯源完成后, 把状态的快照连同版本号(事件序号)推送到这里. 只有 Actor 一个写入方, 读取方通过 volatile
+ * 读到最新的快照, 不需要加锁.
+ *
+ * <p>快照序列化后的 JSON 在同一个版本内复用, 直到下一个版本到来
+ *
+ * <p>监听器在 Actor 的线程上同步回调, 不能阻塞
+ */
+public final class MarketDataReadModel {
+
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot current;
+
+    /** 推送新的快照, 版本号不大于当前版本的快照会被忽略 */
+    public void publish(long version, State state) {
+        Snapshot snapshot = current;
+        if (snapshot == null || version > snapshot.getVersion()) {
+            Snapshot next = new Snapshot(version, state);
+            current = next;
+            for (Consumer<Snapshot> listener : listeners) {
+                listener.accept(next);
+            }
+        }
+    }
+
+    /** 注册监听器, 每个被接受的新快照都会回调一次 */
+    public void addListener(Consumer<Snapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Snapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    /** 清空快照, 用于 Actor 停止后(例如分片迁移到其他节点), 之后的查询不再读到过期的状态 */
+    public void clear() {
+        current = null;
+    }
+
+    /** 当前的快照, Actor 溯源完成前为空 */
+    public Optional<Snapshot> current() {
+        return Optional.ofNullable(current);
+    }
+
+    /** 某个版本的不可变快照 */
+    public static final class Snapshot {
+
+        private final long version;
+        private final State state;
+        private volatile byte[] json;
+
+        private Snapshot(long version, State state) {
+            this.version = version;
+            this.state = state;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /** 完整的状态, Trial 状态下为 {@link TrialState} */
+        public State getState() {
+            return state;
+        }
+
+        /** Live 状态, 与 {@link MarketDataActor.Query} 的回复一致 */
+        public LiveState getLiveState() {
+            return state instanceof TrialState
+                    ? ((TrialState) state).getLiveState()
+                    : (LiveState) state;
+        }
+
+        /** Live 状态的 JSON, 第一次读取时序列化, 之后复用. 并发读取时可能重复序列化, 但结果相同 */
+        public byte[] getJson() {
+            byte[] bytes = json;
+            if (bytes == null) {
+                bytes = JSON.toJSONBytes(getLiveState());
+                json = bytes;
+            }
+            return bytes;
+        }
+    }
+}
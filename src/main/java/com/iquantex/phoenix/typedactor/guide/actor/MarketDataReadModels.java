@@ -0,0 +1,42 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * 按品种划分的 {@link MarketDataReadModel} 和 {@link MarketDataStream}.
+ *
+ * <p>只包含当前节点上的 {@link MarketDataEntity} 推送的快照, 实体在其他节点上时读模型为空, 查询退回到 ask 实体. 同一个品种的读模型在实体重启后复用,
+ * 已经建立的推送流不会失效. 推送流意外结束时从缓存中移除, 之后的订阅重新创建
+ *
+ * <p>推送流没有这样的退回: 实体在其他节点上时 {@link #stream(String)} 只有心跳, 实体迁移到当前节点后才开始推送
+ */
+public final class MarketDataReadModels {
+
+    private final ConcurrentMap<String, MarketDataReadModel> readModels = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, MarketDataStream> streams = new ConcurrentHashMap<>();
+    private final Function<MarketDataReadModel, MarketDataStream> streamFactory;
+
+    /** @param streamFactory 第一次订阅某个品种时创建推送流 */
+    public MarketDataReadModels(Function<MarketDataReadModel, MarketDataStream> streamFactory) {
+        this.streamFactory = streamFactory;
+    }
+
+    public MarketDataReadModel get(String instrument) {
+        return readModels.computeIfAbsent(instrument, id -> new MarketDataReadModel());
+    }
+
+    /** 推送流结束后从缓存中移除, 下一次订阅时重新创建 */
+    public MarketDataStream stream(String instrument) {
+        return streams.computeIfAbsent(
+                instrument,
+                id -> {
+                    MarketDataStream stream = streamFactory.apply(get(id));
+                    // 异步移除, 不能在 computeIfAbsent 中修改 streams
+                    stream.watchCompletion()
+                            .whenCompleteAsync((done, exc) -> streams.remove(id, stream));
+                    return stream;
+                });
+    }
+}
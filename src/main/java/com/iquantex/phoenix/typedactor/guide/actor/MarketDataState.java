@@ -0,0 +1,61 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+
+/**
+ * {@link MarketDataActor} 内部的可变状态, 用原始类型 long 保存 Live/Trial 两个值.
+ *
+ * <p>事件直接原地修改该对象, 不再为每个事件创建新的状态对象. 该对象只在 Actor 内部使用, 不能泄露出去, 需要回复给外部时通过 {@link #snapshot()} 复制出不可变的
+ * {@link State}.
+ */
+public final class MarketDataState {
+
+    private final String id;
+    private long liveValue;
+    private long trialValue;
+    private boolean trial;
+
+    public MarketDataState(String id, long liveValue) {
+        this.id = id;
+        this.liveValue = liveValue;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public long getLiveValue() {
+        return liveValue;
+    }
+
+    public boolean isTrial() {
+        return trial;
+    }
+
+    /** 正式更新: Live 状态下更新为新值; Trial 状态下放弃试算的值, 还原为 Live */
+    public void update(long value) {
+        if (trial) {
+            trial = false;
+        } else {
+            liveValue = value;
+        }
+    }
+
+    /** 试算更新: 保留 Live 值不变, 记录试算的值 */
+    public void trialUpdate(long value) {
+        trialValue = value;
+        trial = true;
+    }
+
+    /** 复制当前状态, Trial 状态下返回包含原 Live 值的 {@link TrialState} */
+    public State snapshot() {
+        return trial ? new TrialState(id, trialValue, liveSnapshot()) : liveSnapshot();
+    }
+
+    /** 复制 Live 值 */
+    public LiveState liveSnapshot() {
+        return new LiveState(id, liveValue);
+    }
+}
@@ -0,0 +1,125 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModel.Snapshot;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.typed.ActorSystem;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.japi.Pair;
+import akka.japi.function.Function;
+import akka.stream.BoundedSourceQueue;
+import akka.stream.javadsl.BroadcastHub;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import com.alibaba.fastjson.JSON;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@link MarketDataActor} 状态变化的推送流, 替代客户端轮询 GET /market.
+ *
+ * <p>1. {@link MarketDataReadModel} 接受新快照时通过 {@link BoundedSourceQueue} 通知到流中, 推送不会阻塞 Actor.
+ * 流中读取最新的快照, 编码一次后进入 {@link BroadcastHub}, 丢弃通知不会丢失最新的版本
+ *
+ * <p>2. 每个订阅者在 Hub 之后 conflate, 慢的客户端只会跳过中间的版本, 不会反压 Hub 和其他订阅者
+ *
+ * <p>3. 订阅时先收到当前的快照, 之后只接收版本号更大的事件
+ */
+public final class MarketDataStream {
+
+    /** 事件类型, Live 状态 */
+    public static final String LIVE = "live";
+    /** 事件类型, Trial 状态 */
+    public static final String TRIAL = "trial";
+
+    private final MarketDataReadModel readModel;
+    private final BoundedSourceQueue<Snapshot> queue;
+    private final Source<ServerSentEvent, NotUsed> hub;
+    private final Duration keepAlive;
+    private final Consumer<Snapshot> listener = this::offer;
+    private final CompletionStage<Done> completion;
+
+    /**
+     * @param bufferSize 入口队列和 Hub 的缓冲大小, 必须是 2 的幂
+     * @param keepAlive 没有事件时发送心跳的间隔, 防止连接被代理断开
+     */
+    public MarketDataStream(
+            ActorSystem<?> system,
+            MarketDataReadModel readModel,
+            int bufferSize,
+            Duration keepAlive) {
+        this.readModel = readModel;
+        this.keepAlive = keepAlive;
+        Pair<BoundedSourceQueue<Snapshot>, Source<ServerSentEvent, NotUsed>> pair =
+                Source.<Snapshot>queue(bufferSize)
+                        // 队列中的元素只作为通知, 总是读取读模型中最新的快照, 实体停止后读模型已经清空时跳过
+                        .map(ignored -> readModel.current())
+                        .filter(Optional::isPresent)
+                        .map(Optional::get)
+                        .statefulMapConcat(() -> increasingVersions(Snapshot::getVersion))
+                        // Hub 暂时反压时只保留最新的快照, 只有真正推送的快照才编码
+                        .conflate((older, newer) -> newer)
+                        .map(MarketDataStream::encode)
+                        .toMat(BroadcastHub.of(ServerSentEvent.class, bufferSize), Keep.both())
+                        .run(system);
+        this.queue = pair.first();
+        this.hub = pair.second();
+        // 没有订阅者时 BroadcastHub 会反压上游, 挂一个常驻的消费者
+        this.completion = hub.runWith(Sink.ignore(), system);
+        readModel.addListener(listener);
+        completion.whenComplete((done, exc) -> readModel.removeListener(listener));
+    }
+
+    /** 推送流结束或者失败时完成, 之后需要重新创建 */
+    public CompletionStage<Done> watchCompletion() {
+        return completion;
+    }
+
+    /** 订阅状态变化, 每个 HTTP 客户端物化一次 */
+    public Source<ServerSentEvent, NotUsed> subscribe() {
+        Source<ServerSentEvent, NotUsed> initial =
+                readModel.current().map(s -> Source.single(encode(s))).orElse(Source.empty());
+        return hub.prepend(initial)
+                .statefulMapConcat(() -> increasingVersions(MarketDataStream::version))
+                .conflate((older, newer) -> newer)
+                .keepAlive(keepAlive, ServerSentEvent::heartbeat);
+    }
+
+    /** 队列满时队列中已经有待处理的通知, 它们会读到这个快照, 因此可以直接丢弃 */
+    private void offer(Snapshot snapshot) {
+        queue.offer(snapshot);
+    }
+
+    /** 只放行版本号递增的元素 */
+    private static <T> Function<T, Iterable<T>> increasingVersions(ToLongFunction<T> version) {
+        long[] lastVersion = {-1L};
+        return element -> {
+            long current = version.applyAsLong(element);
+            if (current <= lastVersion[0]) {
+                return Collections.emptyList();
+            }
+            lastVersion[0] = current;
+            return Collections.singletonList(element);
+        };
+    }
+
+    /** 事件的 id 为版本号, 类型为 live 或 trial, 数据为完整状态的 JSON */
+    static ServerSentEvent encode(Snapshot snapshot) {
+        return ServerSentEvent.create(
+                JSON.toJSONString(snapshot.getState()),
+                snapshot.getState() instanceof TrialState ? TRIAL : LIVE,
+                Long.toString(snapshot.getVersion()));
+    }
+
+    static long version(ServerSentEvent event) {
+        return Long.parseLong(event.getId().get());
+    }
+}
@@ -0,0 +1,189 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Query;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialUpdateValue;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link MarketDataActor} 的前置试算管道, 替代原来在 Actor 内部 ask 并阻塞等待结果的写法.
+ *
+ * <p>1. 试算请求通过 {@link ActorContext#ask} 异步发给 {@link MarketDataActor}, 结果以消息的形式回到本 Actor, 任何线程都不会阻塞
+ *
+ * <p>2. 同时在途的试算不超过 maxInFlight, 超出的请求在队列中等待, 队列满时直接回复最近一次的状态
+ *
+ * <p>3. 超时的请求同样回复最近一次的状态, 并计入超时次数. 还没有任何试算成功时, 查询 {@link MarketDataActor} 回复 Live 状态
+ *
+ * <p>4. 其他消息原样转发. 有试算在队列中等待时, 其他消息排在它们后面, 不会超过之前的试算
+ */
+public class TrialUpdatePipeline extends AbstractBehavior<Message> {
+
+    private final ActorRef<Message> target;
+    private final int maxInFlight;
+    private final int maxQueued;
+    private final Duration timeout;
+    /** 等待的试算, 以及排在它们之后的其他消息 */
+    private final Deque<Message> queue = new ArrayDeque<>();
+    /** 队列中的试算数量 */
+    private int queued;
+
+    private int inFlight;
+    private long completed;
+    private long timedOut;
+    private long rejected;
+    private State lastState;
+
+    private TrialUpdatePipeline(
+            ActorContext<Message> context,
+            ActorRef<Message> target,
+            int maxInFlight,
+            int maxQueued,
+            Duration timeout) {
+        super(context);
+        this.target = target;
+        this.maxInFlight = maxInFlight;
+        this.maxQueued = maxQueued;
+        this.timeout = timeout;
+    }
+
+    public static Behavior<Message> create(
+            ActorRef<Message> target, int maxInFlight, int maxQueued, Duration timeout) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be >= 1, was " + maxInFlight);
+        }
+        return Behaviors.setup(
+                ctx -> new TrialUpdatePipeline(ctx, target, maxInFlight, maxQueued, timeout));
+    }
+
+    @Override
+    public Receive<Message> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(TrialUpdateValue.class, this::onTrialUpdate)
+                .onMessage(TrialResult.class, this::onTrialResult)
+                .onMessage(GetStats.class, this::onGetStats)
+                .onAnyMessage(this::onOther)
+                .build();
+    }
+
+    private Behavior<Message> onTrialUpdate(TrialUpdateValue message) {
+        if (inFlight < maxInFlight && queue.isEmpty()) {
+            send(message);
+        } else if (queued < maxQueued) {
+            queued++;
+            queue.addLast(message);
+        } else {
+            rejected++;
+            replyLastState(message);
+        }
+        return this;
+    }
+
+    private Behavior<Message> onTrialResult(TrialResult result) {
+        inFlight--;
+        if (result.getState() != null) {
+            completed++;
+            lastState = result.getState();
+            result.getRequest().getReplyRef().tell(lastState);
+        } else {
+            timedOut++;
+            getContext().getLog().warn("试算超时, 回复最近一次的状态: {}", result.getCause().getMessage());
+            replyLastState(result.getRequest());
+        }
+        drain();
+        return this;
+    }
+
+    /** 按顺序发送队列中的消息, 直到下一个试算没有空闲的名额 */
+    private void drain() {
+        while (!queue.isEmpty()) {
+            Message next = queue.peekFirst();
+            if (next instanceof TrialUpdateValue) {
+                if (inFlight >= maxInFlight) {
+                    return;
+                }
+                queued--;
+                send((TrialUpdateValue) queue.pollFirst());
+            } else {
+                target.tell(queue.pollFirst());
+            }
+        }
+    }
+
+    private Behavior<Message> onGetStats(GetStats get) {
+        get.getReplyTo().tell(new Stats(inFlight, queued, completed, timedOut, rejected));
+        return this;
+    }
+
+    private Behavior<Message> onOther(Message message) {
+        if (queue.isEmpty()) {
+            target.tell(message);
+        } else {
+            queue.addLast(message);
+        }
+        return this;
+    }
+
+    private void send(TrialUpdateValue request) {
+        inFlight++;
+        getContext()
+                .ask(
+                        State.class,
+                        target,
+                        timeout,
+                        replyTo -> new TrialUpdateValue(request.getValue(), replyTo),
+                        (state, ex) -> new TrialResult(request, state, ex));
+    }
+
+    /** 还没有最近一次的状态时由 MarketDataActor 回复当前的状态 */
+    private void replyLastState(TrialUpdateValue request) {
+        if (lastState != null) {
+            request.getReplyRef().tell(lastState);
+        } else {
+            target.tell(new Query(request.getReplyRef()));
+        }
+    }
+
+    /** 查询管道的统计信息 */
+    @AllArgsConstructor
+    @Getter
+    public static class GetStats implements Message {
+
+        private final ActorRef<Stats> replyTo;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    @ToString
+    public static class Stats {
+
+        private final int inFlight;
+        private final int queued;
+        private final long completed;
+        private final long timedOut;
+        private final long rejected;
+    }
+
+    /** 试算结果, state 为 null 表示超时或失败 */
+    @AllArgsConstructor
+    @Getter
+    private static class TrialResult implements Message {
+
+        private final TrialUpdateValue request;
+        private final State state;
+        private final Throwable cause;
+    }
+}
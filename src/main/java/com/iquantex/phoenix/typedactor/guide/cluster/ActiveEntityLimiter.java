@@ -0,0 +1,181 @@
+package com.iquantex.phoenix.typedactor.guide.cluster;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.BehaviorInterceptor;
+import akka.actor.typed.TypedActorContext;
+import akka.actor.typed.javadsl.AbstractBehavior;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.actor.typed.javadsl.Receive;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding.ShardCommand;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 限制一个节点上活跃的分片实体数量, 超过上限时钝化最久没有收到消息的实体 (LRU).
+ *
+ * <p>Akka 2.6.17 的分片只支持按空闲时间钝化, 所以由该 Actor 记录实体的访问顺序: 实体通过 {@link #track} 通知该 Actor,
+ * 超过上限时向实体所在的分片发送 {@link ClusterSharding.Passivate}. 钝化后的实体在下一条消息到达时重新溯源
+ *
+ * <p>每个节点只有一个 limiter, 为了不在每条命令上增加一次消息传递, 实体只在收到第一条消息时通知, 之后每个 touchInterval 最多通知一次, 实体停止通过 watch
+ * 得知. 因此访问顺序的精度是 touchInterval, 在同一个 touchInterval 内活跃的实体之间的顺序是近似的
+ *
+ * <p>只记录本节点上的实体, 消息不需要序列化
+ */
+public class ActiveEntityLimiter extends AbstractBehavior<ActiveEntityLimiter.Command> {
+
+    /** 实体两次通知 limiter 的最小间隔 */
+    public static final Duration DEFAULT_TOUCH_INTERVAL = Duration.ofSeconds(1);
+
+    public interface Command {}
+
+    /** 实体启动, 或者在一个 touchInterval 之后再次收到了消息 */
+    @AllArgsConstructor
+    private static final class Touch implements Command {
+
+        private final ActorRef<?> entity;
+        private final ActorRef<ShardCommand> shard;
+    }
+
+    @AllArgsConstructor
+    private static final class EntityStopped implements Command {
+
+        private final ActorRef<?> entity;
+    }
+
+    /** 查询当前活跃的实体数量和已经钝化的实体数量 */
+    @AllArgsConstructor
+    public static final class GetStats implements Command {
+
+        private final ActorRef<Stats> replyTo;
+    }
+
+    @AllArgsConstructor
+    @Getter
+    public static final class Stats {
+
+        private final int activeEntities;
+        private final long passivatedEntities;
+    }
+
+    private final int maxActiveEntities;
+    /** 按访问顺序排列, 第一个是最久没有收到消息的实体 */
+    private final LinkedHashMap<ActorRef<?>, ActorRef<ShardCommand>> active =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    private long passivated;
+
+    private ActiveEntityLimiter(ActorContext<Command> context, int maxActiveEntities) {
+        super(context);
+        this.maxActiveEntities = maxActiveEntities;
+    }
+
+    public static Behavior<Command> create(int maxActiveEntities) {
+        return Behaviors.setup(ctx -> new ActiveEntityLimiter(ctx, maxActiveEntities));
+    }
+
+    /** 使用 {@link #DEFAULT_TOUCH_INTERVAL} */
+    public static <M> Behavior<M> track(
+            ActorRef<Command> limiter,
+            EntityContext<M> entityContext,
+            Class<M> messageClass,
+            M stopMessage,
+            Behavior<M> behavior) {
+        return track(
+                limiter,
+                entityContext,
+                messageClass,
+                stopMessage,
+                DEFAULT_TOUCH_INTERVAL,
+                behavior);
+    }
+
+    /**
+     * 包装实体的行为, 收到第一条消息时通知 limiter, 之后每个 touchInterval 最多通知一次. stopMessage 是实体的 stopMessage,
+     * 钝化时收到该消息不算访问, 不会把正在停止的实体重新加入记录
+     */
+    public static <M> Behavior<M> track(
+            ActorRef<Command> limiter,
+            EntityContext<M> entityContext,
+            Class<M> messageClass,
+            M stopMessage,
+            Duration touchInterval,
+            Behavior<M> behavior) {
+        long intervalNanos = touchInterval.toNanos();
+        return Behaviors.intercept(
+                () ->
+                        new BehaviorInterceptor<M, M>(messageClass) {
+                            /** 每个实体一个拦截器, 记录上一次通知的时间 */
+                            private boolean touched;
+
+                            private long lastTouch;
+
+                            @Override
+                            public Behavior<M> aroundReceive(
+                                    TypedActorContext<M> ctx, M msg, ReceiveTarget<M> target) {
+                                if (!stopMessage.equals(msg)) {
+                                    long now = System.nanoTime();
+                                    if (!touched || now - lastTouch >= intervalNanos) {
+                                        touched = true;
+                                        lastTouch = now;
+                                        limiter.tell(
+                                                new Touch(
+                                                        ctx.asJava().getSelf(),
+                                                        entityContext.getShard()));
+                                    }
+                                }
+                                return target.apply(ctx, msg);
+                            }
+                        },
+                behavior);
+    }
+
+    @Override
+    public Receive<Command> createReceive() {
+        return newReceiveBuilder()
+                .onMessage(Touch.class, this::onTouch)
+                .onMessage(EntityStopped.class, this::onEntityStopped)
+                .onMessage(GetStats.class, this::onGetStats)
+                .build();
+    }
+
+    private Behavior<Command> onTouch(Touch touch) {
+        if (active.put(touch.entity, touch.shard) == null) {
+            getContext().watchWith(touch.entity, new EntityStopped(touch.entity));
+        }
+        Iterator<Map.Entry<ActorRef<?>, ActorRef<ShardCommand>>> eldest =
+                active.entrySet().iterator();
+        while (active.size() > maxActiveEntities) {
+            Map.Entry<ActorRef<?>, ActorRef<ShardCommand>> entry = eldest.next();
+            eldest.remove();
+            getContext().unwatch(entry.getKey());
+            passivate(entry.getKey(), entry.getValue());
+        }
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void passivate(ActorRef<?> entity, ActorRef<ShardCommand> shard) {
+        shard.tell(new ClusterSharding.Passivate<>((ActorRef<Object>) entity));
+        passivated++;
+    }
+
+    /** 实体被空闲钝化或者停止后不再记录 */
+    private Behavior<Command> onEntityStopped(EntityStopped stopped) {
+        active.remove(stopped.entity);
+        return this;
+    }
+
+    private Behavior<Command> onGetStats(GetStats get) {
+        get.replyTo.tell(new Stats(active.size(), passivated));
+        return this;
+    }
+}
@@ -0,0 +1,102 @@
+package com.iquantex.phoenix.typedactor.guide.cluster;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookBehavior;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.Passivate;
+
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.Props;
+import akka.cluster.sharding.typed.ClusterShardingSettings;
+import akka.cluster.sharding.typed.HashCodeMessageExtractor;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.persistence.typed.PersistenceId;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 在集群分片中初始化 "Book" 实体 {@link BookBehavior}, 每个书店一个实体, 配置见 {@link BookShardingSettings}.
+ *
+ * <p>实体的 PersistenceId 为 Book|书店 ID, 消息通过 {@link #entityRefFor(String)} 或者 {@link #getRegion()} 发送
+ *
+ * <p>钝化 (空闲钝化, {@link ActiveEntityLimiter} 以及分片迁移) 时向实体发送 {@link Passivate}, 实体处理完已经收到的命令后停止
+ *
+ * <p>每个 ActorSystem 只能初始化一次
+ */
+@Slf4j
+public final class BookShardingService {
+
+    public static final EntityTypeKey<BookCommand> TYPE_KEY =
+            EntityTypeKey.create(BookCommand.class, "Book");
+
+    private final ClusterSharding sharding;
+    private final ActorRef<ShardingEnvelope<BookCommand>> region;
+    /** 没有限制活跃实体数量时为 null */
+    private final ActorRef<ActiveEntityLimiter.Command> limiter;
+
+    private BookShardingService(
+            ClusterSharding sharding,
+            ActorRef<ShardingEnvelope<BookCommand>> region,
+            ActorRef<ActiveEntityLimiter.Command> limiter) {
+        this.sharding = sharding;
+        this.region = region;
+        this.limiter = limiter;
+    }
+
+    /** 分片配置读取 book.sharding 配置 */
+    public static BookShardingService init(ActorSystem<?> system) {
+        return init(system, BookShardingSettings.fromConfig(system.settings().config()));
+    }
+
+    public static BookShardingService init(ActorSystem<?> system, BookShardingSettings settings) {
+        log.info("初始化 Book 分片: {}", settings);
+        ActorRef<ActiveEntityLimiter.Command> limiter =
+                settings.getMaxActiveEntities() > 0
+                        ? system.systemActorOf(
+                                ActiveEntityLimiter.create(settings.getMaxActiveEntities()),
+                                "book-entity-limiter",
+                                Props.empty())
+                        : null;
+        ClusterShardingSettings shardingSettings =
+                ClusterShardingSettings.create(system)
+                        .withPassivateIdleEntityAfter(settings.getPassivateIdleAfter())
+                        .withRememberEntities(settings.isRememberEntities());
+        Entity<BookCommand, ShardingEnvelope<BookCommand>> entity =
+                Entity.of(TYPE_KEY, ctx -> createEntity(ctx, limiter))
+                        .withSettings(shardingSettings)
+                        .withStopMessage(Passivate.INSTANCE)
+                        .withMessageExtractor(
+                                new HashCodeMessageExtractor<>(settings.getNumberOfShards()));
+        ClusterSharding sharding = ClusterSharding.get(system);
+        return new BookShardingService(sharding, sharding.init(entity), limiter);
+    }
+
+    private static Behavior<BookCommand> createEntity(
+            EntityContext<BookCommand> ctx, ActorRef<ActiveEntityLimiter.Command> limiter) {
+        Behavior<BookCommand> behavior =
+                BookBehavior.create(
+                        PersistenceId.of(ctx.getEntityTypeKey().name(), ctx.getEntityId()));
+        return limiter == null
+                ? behavior
+                : ActiveEntityLimiter.track(
+                        limiter, ctx, BookCommand.class, Passivate.INSTANCE, behavior);
+    }
+
+    public EntityRef<BookCommand> entityRefFor(String bookStoreId) {
+        return sharding.entityRefFor(TYPE_KEY, bookStoreId);
+    }
+
+    public ActorRef<ShardingEnvelope<BookCommand>> getRegion() {
+        return region;
+    }
+
+    /** 没有限制活跃实体数量时为 null */
+    public ActorRef<ActiveEntityLimiter.Command> getLimiter() {
+        return limiter;
+    }
+}
@@ -0,0 +1,51 @@
+package com.iquantex.phoenix.typedactor.guide.cluster;
+
+import com.typesafe.config.Config;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * {@link BookShardingService} 的分片配置, 配置见 reference-cluster.conf 中的 book.sharding.
+ *
+ * <p>1. numberOfShards: 分片数量, 集群运行后不能修改, 一般为最大节点数的 10 倍
+ *
+ * <p>2. passivateIdleAfter: 实体超过该时间没有收到消息后钝化, 开启 rememberEntities 时不生效
+ *
+ * <p>3. maxActiveEntities: 每个节点上活跃实体的上限, 超过后钝化最久没有收到消息的实体, 见 {@link ActiveEntityLimiter}
+ *
+ * <p>4. rememberEntities: 节点重启或分片迁移后重新启动之前活跃的实体, 被钝化的实体不会被记住
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public final class BookShardingSettings {
+
+    public static final String CONFIG_PATH = "book.sharding";
+
+    public static final BookShardingSettings DEFAULT =
+            new BookShardingSettings(100, Duration.ofMinutes(2), 0, false);
+
+    private final int numberOfShards;
+    /** {@link Duration#ZERO} 表示关闭 */
+    private final Duration passivateIdleAfter;
+    /** 0 表示不限制 */
+    private final int maxActiveEntities;
+
+    private final boolean rememberEntities;
+
+    /** 没有配置 book.sharding 时使用 {@link #DEFAULT} */
+    public static BookShardingSettings fromConfig(Config config) {
+        if (!config.hasPath(CONFIG_PATH)) {
+            return DEFAULT;
+        }
+        Config sharding = config.getConfig(CONFIG_PATH);
+        return new BookShardingSettings(
+                sharding.getInt("number-of-shards"),
+                sharding.getDuration("passivate-idle-after"),
+                sharding.getInt("max-active-entities"),
+                sharding.getBoolean("remember-entities"));
+    }
+}
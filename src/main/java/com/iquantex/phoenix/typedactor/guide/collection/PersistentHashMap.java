@@ -0,0 +1,408 @@
+package com.iquantex.phoenix.typedactor.guide.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 不可变的持久化 Map, 基于 HAMT(Hash Array Mapped Trie) 实现.
+ *
+ * <p>1. 每层取哈希值的 5 位作为下标, 节点用 32 位的 bitmap 记录存在的下标, 数组只保存存在的子节点. 哈希值完全相同的键保存在冲突节点中
+ *
+ * <p>2. {@link #plus(Object, Object)} 和 {@link #minus(Object)} 返回新的 Map, 只复制从根节点到被修改节点路径上的节点,
+ * 其余节点与旧的 Map 共享, 旧的 Map 不受影响
+ *
+ * <p>3. 作为 {@link Map} 只读, 修改方法抛出 {@link UnsupportedOperationException}. 可以安全的交给其他线程读取, 不需要复制
+ *
+ * <p>键和值都不能为 null
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY =
+            new PersistentHashMap<>(new BitmapNode<>(0, new Object[0]), 0);
+
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentHashMap(Node<K, V> root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    /** 复制普通的 Map, 参数本身已经是 {@link PersistentHashMap} 时直接返回 */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> from(Map<? extends K, ? extends V> map) {
+        if (map instanceof PersistentHashMap) {
+            return (PersistentHashMap<K, V>) map;
+        }
+        PersistentHashMap<K, V> result = empty();
+        for (Map.Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            result = result.plus(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /** 添加或者替换, 值没有变化时返回自身 */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        int hash = hash(key);
+        Leaf<K, V> existing = root.find(key, hash, 0);
+        if (existing != null && existing.getValue().equals(value)) {
+            return this;
+        }
+        Node<K, V> newRoot = root.plus(new Leaf<>(hash, key, value), 0);
+        return new PersistentHashMap<>(newRoot, existing == null ? size + 1 : size);
+    }
+
+    /** 移除, 不存在时返回自身 */
+    public PersistentHashMap<K, V> minus(Object key) {
+        if (key == null) {
+            return this;
+        }
+        Node<K, V> newRoot = root.minus(key, hash(key), 0);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @Override
+    public V get(Object key) {
+        if (key == null) {
+            return null;
+        }
+        Leaf<K, V> leaf = root.find(key, hash(key), 0);
+        return leaf == null ? null : leaf.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && root.find(key, hash(key), 0) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** 与 {@link java.util.HashMap} 相同, 把高位混合到低位 */
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private interface Node<K, V> {
+
+        Leaf<K, V> find(Object key, int hash, int shift);
+
+        Node<K, V> plus(Leaf<K, V> leaf, int shift);
+
+        /** 没有变化时返回自身, 节点为空时返回 null */
+        Node<K, V> minus(Object key, int hash, int shift);
+
+        /** 子节点和键值对, 用于遍历 */
+        Object[] children();
+    }
+
+    /** 键值对, 同时作为 {@link Map.Entry} 返回 */
+    private static final class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int hash;
+
+        Leaf(int hash, K key, V value) {
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean matches(Object key, int hash) {
+            return this.hash == hash && getKey().equals(key);
+        }
+    }
+
+    /** 数组中的元素为 {@link Leaf} 或者子节点, 按 bitmap 中的位从低到高排列 */
+    private static final class BitmapNode<K, V> implements Node<K, V> {
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> find(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object child = array[index(bit)];
+            if (child instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) child;
+                return leaf.matches(key, hash) ? leaf : null;
+            }
+            return ((Node<K, V>) child).find(key, hash, shift + BITS);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> plus(Leaf<K, V> leaf, int shift) {
+            int bit = bit(leaf.hash, shift);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 1];
+                System.arraycopy(array, 0, newArray, 0, index);
+                newArray[index] = leaf;
+                System.arraycopy(array, index, newArray, index + 1, array.length - index);
+                return new BitmapNode<>(bitmap | bit, newArray);
+            }
+            Object child = array[index];
+            Object newChild;
+            if (child instanceof Leaf) {
+                Leaf<K, V> existing = (Leaf<K, V>) child;
+                newChild =
+                        existing.matches(leaf.getKey(), leaf.hash)
+                                ? leaf
+                                : merge(existing, leaf, shift + BITS);
+            } else {
+                newChild = ((Node<K, V>) child).plus(leaf, shift + BITS);
+            }
+            return replace(index, newChild);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Node<K, V> minus(Object key, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object child = array[index];
+            Object newChild;
+            if (child instanceof Leaf) {
+                if (!((Leaf<K, V>) child).matches(key, hash)) {
+                    return this;
+                }
+                newChild = null;
+            } else {
+                Node<K, V> node = (Node<K, V>) child;
+                Node<K, V> newNode = node.minus(key, hash, shift + BITS);
+                if (newNode == node) {
+                    return this;
+                }
+                // 只剩一个键值对的子节点收缩到当前节点
+                newChild = newNode == null ? null : single(newNode);
+            }
+            if (newChild != null) {
+                return replace(index, newChild);
+            }
+            if (array.length == 1) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+            return new BitmapNode<>(bitmap & ~bit, newArray);
+        }
+
+        @Override
+        public Object[] children() {
+            return array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private BitmapNode<K, V> replace(int index, Object child) {
+            Object[] newArray = array.clone();
+            newArray[index] = child;
+            return new BitmapNode<>(bitmap, newArray);
+        }
+
+        /** 子节点只有一个键值对时返回该键值对, 否则返回子节点 */
+        private static Object single(Node<?, ?> node) {
+            Object[] children = node.children();
+            return children.length == 1 && children[0] instanceof Leaf ? children[0] : node;
+        }
+
+        /** 两个键在当前层的下标相同, 创建新的子节点, 直到下标不同或者哈希值相同 */
+        private static <K, V> Node<K, V> merge(Leaf<K, V> a, Leaf<K, V> b, int shift) {
+            if (a.hash == b.hash) {
+                return new CollisionNode<>(a.hash, new Object[] {a, b});
+            }
+            int bitA = bit(a.hash, shift);
+            int bitB = bit(b.hash, shift);
+            if (bitA == bitB) {
+                return new BitmapNode<>(bitA, new Object[] {merge(a, b, shift + BITS)});
+            }
+            return new BitmapNode<>(
+                    bitA | bitB,
+                    Integer.compareUnsigned(bitA, bitB) < 0
+                            ? new Object[] {a, b}
+                            : new Object[] {b, a});
+        }
+    }
+
+    /** 哈希值相同的键值对, 线性查找 */
+    private static final class CollisionNode<K, V> implements Node<K, V> {
+
+        private final int hash;
+        private final Object[] leaves;
+
+        CollisionNode(int hash, Object[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Leaf<K, V> find(Object key, int hash, int shift) {
+            int index = indexOf(key, hash);
+            return index < 0 ? null : (Leaf<K, V>) leaves[index];
+        }
+
+        @Override
+        public Node<K, V> plus(Leaf<K, V> leaf, int shift) {
+            if (leaf.hash != hash) {
+                // 哈希值不同, 在当前层拆分为普通节点
+                return new BitmapNode<K, V>(bit(hash, shift), new Object[] {this})
+                        .plus(leaf, shift);
+            }
+            int index = indexOf(leaf.getKey(), leaf.hash);
+            Object[] newLeaves;
+            if (index < 0) {
+                newLeaves = new Object[leaves.length + 1];
+                System.arraycopy(leaves, 0, newLeaves, 0, leaves.length);
+                newLeaves[leaves.length] = leaf;
+            } else {
+                newLeaves = leaves.clone();
+                newLeaves[index] = leaf;
+            }
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        public Node<K, V> minus(Object key, int hash, int shift) {
+            int index = indexOf(key, hash);
+            if (index < 0) {
+                return this;
+            }
+            if (leaves.length == 1) {
+                return null;
+            }
+            Object[] newLeaves = new Object[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, index);
+            System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+            return new CollisionNode<>(hash, newLeaves);
+        }
+
+        @Override
+        public Object[] children() {
+            return leaves;
+        }
+
+        private int indexOf(Object key, int hash) {
+            if (this.hash != hash) {
+                return -1;
+            }
+            for (int i = 0; i < leaves.length; i++) {
+                if (((Leaf<?, ?>) leaves[i]).getKey().equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /** 深度优先遍历, 每层记录当前节点的数组和下标 */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        /** 32 位哈希最多 7 层普通节点, 加上冲突节点 */
+        private static final int MAX_DEPTH = 8;
+
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Leaf<K, V> next;
+
+        EntryIterator(Node<K, V> root) {
+            arrays[0] = root.children();
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf<K, V> result = next;
+            advance();
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            while (depth >= 0) {
+                if (positions[depth] == arrays[depth].length) {
+                    depth--;
+                    continue;
+                }
+                Object child = arrays[depth][positions[depth]++];
+                if (child instanceof Leaf) {
+                    next = (Leaf<K, V>) child;
+                    return;
+                }
+                depth++;
+                arrays[depth] = ((Node<K, V>) child).children();
+                positions[depth] = 0;
+            }
+            next = null;
+        }
+    }
+}
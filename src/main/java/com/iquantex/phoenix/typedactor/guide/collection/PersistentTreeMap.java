@@ -0,0 +1,263 @@
+package com.iquantex.phoenix.typedactor.guide.collection;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * 不可变的有序持久化 Map, 基于 AVL 树实现.
+ *
+ * <p>1. {@link #plus(Object, Object)} 和 {@link #minus(Object)} 只复制从根节点到被修改节点路径上的 O(log n) 个节点,
+ * 其余节点与旧的 Map 共享
+ *
+ * <p>2. {@link #iterator(Object, boolean)} 从指定的键开始按顺序遍历, 用于范围查询和分页
+ *
+ * <p>3. 作为 {@link Map} 只读, 修改方法抛出 {@link UnsupportedOperationException}
+ *
+ * <p>键和值都不能为 null
+ *
+ * @param <K> 键
+ * @param <V> 值
+ */
+public final class PersistentTreeMap<K, V> extends AbstractMap<K, V> {
+
+    private final Comparator<? super K> comparator;
+    private final Node<K, V> root;
+    private final int size;
+
+    private PersistentTreeMap(Comparator<? super K> comparator, Node<K, V> root, int size) {
+        this.comparator = comparator;
+        this.root = root;
+        this.size = size;
+    }
+
+    public static <K extends Comparable<? super K>, V> PersistentTreeMap<K, V> empty() {
+        return new PersistentTreeMap<>(Comparator.naturalOrder(), null, 0);
+    }
+
+    public static <K, V> PersistentTreeMap<K, V> empty(Comparator<? super K> comparator) {
+        return new PersistentTreeMap<>(comparator, null, 0);
+    }
+
+    /** 添加或者替换, 值没有变化时返回自身 */
+    public PersistentTreeMap<K, V> plus(K key, V value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        Node<K, V> existing = find(key);
+        if (existing != null && existing.getValue().equals(value)) {
+            return this;
+        }
+        return new PersistentTreeMap<>(
+                comparator, insert(root, key, value), existing == null ? size + 1 : size);
+    }
+
+    /** 移除, 不存在时返回自身 */
+    @SuppressWarnings("unchecked")
+    public PersistentTreeMap<K, V> minus(Object key) {
+        if (key == null || find(key) == null) {
+            return this;
+        }
+        return new PersistentTreeMap<>(comparator, delete(root, (K) key), size - 1);
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = key == null ? null : find(key);
+        return node == null ? null : node.getValue();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key != null && find(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /** 从 from 开始升序遍历, inclusive 为 false 时不包含 from 本身 */
+    public Iterator<Map.Entry<K, V>> iterator(K from, boolean inclusive) {
+        return new EntryIterator<>(
+                root,
+                node -> {
+                    int cmp = comparator.compare(node.getKey(), from);
+                    return cmp > 0 || (cmp == 0 && inclusive);
+                });
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator() {
+                return new EntryIterator<>(root, node -> true);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V> find(Object key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = comparator.compare((K) key, node.getKey());
+            if (cmp == 0) {
+                return node;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    private Node<K, V> insert(Node<K, V> node, K key, V value) {
+        if (node == null) {
+            return new Node<>(key, value, null, null);
+        }
+        int cmp = comparator.compare(key, node.getKey());
+        if (cmp < 0) {
+            return balance(
+                    node.getKey(), node.getValue(), insert(node.left, key, value), node.right);
+        }
+        if (cmp > 0) {
+            return balance(
+                    node.getKey(), node.getValue(), node.left, insert(node.right, key, value));
+        }
+        return new Node<>(key, value, node.left, node.right);
+    }
+
+    /** 调用前已经确认键存在 */
+    private Node<K, V> delete(Node<K, V> node, K key) {
+        int cmp = comparator.compare(key, node.getKey());
+        if (cmp < 0) {
+            return balance(node.getKey(), node.getValue(), delete(node.left, key), node.right);
+        }
+        if (cmp > 0) {
+            return balance(node.getKey(), node.getValue(), node.left, delete(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.getKey(), min.getValue(), node.left, deleteMin(node.right));
+    }
+
+    private static <K, V> Node<K, V> deleteMin(Node<K, V> node) {
+        if (node.left == null) {
+            return node.right;
+        }
+        return balance(node.getKey(), node.getValue(), deleteMin(node.left), node.right);
+    }
+
+    /** 左右子树高度差超过 1 时旋转 */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right) {
+        int hl = height(left);
+        int hr = height(right);
+        if (hl > hr + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(
+                        left.getKey(),
+                        left.getValue(),
+                        left.left,
+                        new Node<>(key, value, left.right, right));
+            }
+            Node<K, V> lr = left.right;
+            return new Node<>(
+                    lr.getKey(),
+                    lr.getValue(),
+                    new Node<>(left.getKey(), left.getValue(), left.left, lr.left),
+                    new Node<>(key, value, lr.right, right));
+        }
+        if (hr > hl + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(
+                        right.getKey(),
+                        right.getValue(),
+                        new Node<>(key, value, left, right.left),
+                        right.right);
+            }
+            Node<K, V> rl = right.left;
+            return new Node<>(
+                    rl.getKey(),
+                    rl.getValue(),
+                    new Node<>(key, value, left, rl.left),
+                    new Node<>(right.getKey(), right.getValue(), rl.right, right.right));
+        }
+        return new Node<>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    /** 节点, 同时作为 {@link Map.Entry} 返回 */
+    private static final class Node<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right) {
+            super(key, value);
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    /** 中序遍历, 栈中保存还没有访问的祖先节点 */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        private final Deque<Node<K, V>> stack = new ArrayDeque<>();
+
+        /** @param after 节点是否在起点之后, 只下降到满足条件的节点的左子树 */
+        EntryIterator(Node<K, V> root, Predicate<Node<K, V>> after) {
+            Node<K, V> node = root;
+            while (node != null) {
+                if (after.test(node)) {
+                    stack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> result = stack.pop();
+            for (Node<K, V> node = result.right; node != null; node = node.left) {
+                stack.push(node);
+            }
+            return result;
+        }
+    }
+}
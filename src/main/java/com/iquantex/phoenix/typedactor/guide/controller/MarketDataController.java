@@ -5,19 +5,37 @@ import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Query;
 import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
 import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialUpdateValue;
 import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.UpdateValue;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataBulkUpdater;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataBulkUpdater.BulkResult;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataEntity;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModel.Snapshot;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModels;
 
 import akka.actor.typed.*;
 import akka.actor.typed.javadsl.AskPattern;
+import akka.http.javadsl.marshalling.sse.EventStreamMarshalling;
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntities;
 import akka.http.javadsl.model.HttpResponse;
+import akka.http.javadsl.model.MediaTypes;
+import akka.http.javadsl.model.RequestEntity;
+import akka.http.javadsl.model.StatusCodes;
 import akka.http.javadsl.server.AllDirectives;
 import akka.http.javadsl.server.Route;
+import akka.stream.scaladsl.Framing.FramingException;
+import akka.util.ByteString;
 import com.alibaba.fastjson.JSON;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.name.Named;
+import lombok.AllArgsConstructor;
 
 import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import static akka.http.javadsl.server.PathMatchers.*;
 import static java.util.regex.Pattern.compile;
@@ -25,56 +43,160 @@ import static java.util.regex.Pattern.compile;
 /** @author AndyChen */
 @Singleton
 public class MarketDataController extends AllDirectives {
-    private ActorRef<Message> ref;
+    private MarketDataEntity entity;
     private Scheduler scheduler;
+    private MarketDataReadModels readModels;
+    private MarketDataBulkUpdater bulkUpdater;
+    /** 每个品种最近一个版本编码好的响应, HttpResponse 不可变, 同一版本的所有请求共用 */
+    private final ConcurrentMap<String, CachedResponse> cached = new ConcurrentHashMap<>();
 
     @Inject
     public MarketDataController(
-            @Named("marketDataActor") ActorRef<Message> ref, Scheduler scheduler) {
-        this.ref = ref;
+            MarketDataEntity entity,
+            Scheduler scheduler,
+            MarketDataReadModels readModels,
+            MarketDataBulkUpdater bulkUpdater) {
+        this.entity = entity;
         this.scheduler = scheduler;
+        this.readModels = readModels;
+        this.bulkUpdater = bulkUpdater;
     }
 
-    public CompletionStage<HttpResponse> getJsonState() {
+    /** 优先从读模型中读取, 复用已经编码好的响应. 读模型还没有数据时(实体不在当前节点或者溯源未完成), 退回到 ask */
+    public CompletionStage<HttpResponse> getJsonState(String instrument) {
+        Optional<Snapshot> snapshot = readModels.get(instrument).current();
+        if (snapshot.isPresent()) {
+            return CompletableFuture.completedFuture(cachedResponse(instrument, snapshot.get()));
+        }
         return AskPattern.<Message, State>ask(
-                        ref, replyTo -> new Query(replyTo), Duration.ofSeconds(3), scheduler)
-                .thenApply(state -> JSON.toJSONString(state))
-                .thenApply(json -> HttpResponse.create().withEntity(json));
+                        entity.refFor(instrument),
+                        replyTo -> new Query(replyTo),
+                        Duration.ofSeconds(3),
+                        scheduler)
+                .thenApply(MarketDataController::jsonResponse);
     }
 
-    public CompletionStage<HttpResponse> updateState(String value) {
+    public CompletionStage<HttpResponse> updateState(String instrument, String value) {
         return AskPattern.<Message, State>ask(
-                        ref,
+                        entity.refFor(instrument),
                         replyTo -> new UpdateValue(Long.parseLong(value), replyTo),
                         Duration.ofSeconds(3),
                         scheduler)
-                .thenApply(state -> JSON.toJSONString(state))
-                .thenApply(json -> HttpResponse.create().withEntity(json));
+                .thenApply(MarketDataController::jsonResponse);
     }
 
-    public CompletionStage<HttpResponse> trialUpdateState(String value) {
+    public CompletionStage<HttpResponse> trialUpdateState(String instrument, String value) {
         return AskPattern.<Message, State>ask(
-                        ref,
+                        entity.refFor(instrument),
                         replyTo -> new TrialUpdateValue(Long.parseLong(value), replyTo),
                         Duration.ofSeconds(3),
                         scheduler)
-                .thenApply(state -> JSON.toJSONString(state))
-                .thenApply(json -> HttpResponse.create().withEntity(json));
+                .thenApply(MarketDataController::jsonResponse);
     }
 
+    /**
+     * 批量更新, Content-Type 为 application/json 时请求体为 JSON 数组, 否则为每行一个值的文本流.
+     *
+     * <p>请求体格式错误时返回 400, 其他失败(例如 ask 超时)由 akka-http 返回 500
+     */
+    public CompletionStage<HttpResponse> bulkUpdateState(String instrument, RequestEntity request) {
+        CompletionStage<BulkResult> result =
+                MediaTypes.APPLICATION_JSON.equals(request.getContentType().mediaType())
+                        ? bulkUpdater.updateArray(entity.refFor(instrument), request.getDataBytes())
+                        : bulkUpdater.updateLines(
+                                entity.refFor(instrument), request.getDataBytes());
+        return result.<HttpResponse>thenApply(MarketDataController::jsonResponse)
+                .exceptionally(
+                        ex -> {
+                            Throwable cause =
+                                    ex instanceof CompletionException ? ex.getCause() : ex;
+                            if (cause instanceof IllegalArgumentException
+                                    || cause instanceof FramingException) {
+                                return HttpResponse.create()
+                                        .withStatus(StatusCodes.BAD_REQUEST)
+                                        .withEntity(String.valueOf(cause.getMessage()));
+                            }
+                            throw new CompletionException(cause);
+                        });
+    }
+
+    /** 按版本缓存响应, 只有更新的版本才会替换缓存 */
+    private HttpResponse cachedResponse(String instrument, Snapshot snapshot) {
+        CachedResponse current = cached.get(instrument);
+        if (current != null && current.version == snapshot.getVersion()) {
+            return current.response;
+        }
+        HttpResponse response = jsonResponse(snapshot.getJson());
+        if (current == null || current.version < snapshot.getVersion()) {
+            cached.put(instrument, new CachedResponse(snapshot.getVersion(), response));
+        }
+        return response;
+    }
+
+    /** 直接序列化为字节, 不经过 String 和字符集编码 */
+    static HttpResponse jsonResponse(Object value) {
+        return jsonResponse(JSON.toJSONBytes(value));
+    }
+
+    /** 包装已经序列化好的字节, 不复制. 调用方不能再修改 json */
+    static HttpResponse jsonResponse(byte[] json) {
+        return HttpResponse.create()
+                .withEntity(
+                        HttpEntities.create(
+                                ContentTypes.APPLICATION_JSON, ByteString.fromArrayUnsafe(json)));
+    }
+
+    /**
+     * /market/{instrument}/... 对应某个品种, 不带品种的 /market/... 对应默认品种 {@link
+     * MarketDataEntity#DEFAULT_INSTRUMENT}, 与分片之前的路由兼容.
+     *
+     * <p>不带品种的路由优先匹配, 因此 update, trial, bulk, stream 不能作为品种
+     */
     public Route route() {
+        return pathPrefix(
+                "market",
+                () ->
+                        concat(
+                                instrumentRoute(MarketDataEntity.DEFAULT_INSTRUMENT),
+                                pathPrefix(segment(), this::instrumentRoute)));
+    }
+
+    private Route instrumentRoute(String instrument) {
         return concat(
-                path("market", () -> get(() -> completeWithFuture(getJsonState()))),
+                pathEnd(() -> get(() -> completeWithFuture(getJsonState(instrument)))),
+                path(
+                        segment("update").slash(segment(compile("\\d+"))),
+                        (value) -> get(() -> completeWithFuture(updateState(instrument, value)))),
                 path(
-                        segment("market").slash(segment("update").slash(segment(compile("\\d+")))),
-                        (value) -> get(() -> completeWithFuture(updateState(value)))),
+                        segment("trial").slash(segment("update").slash(segment(compile("\\d+")))),
+                        (value) ->
+                                get(() -> completeWithFuture(trialUpdateState(instrument, value)))),
                 path(
-                        segment("market")
-                                .slash(
-                                        segment("trial")
-                                                .slash(
-                                                        segment("update")
-                                                                .slash(segment(compile("\\d+"))))),
-                        (value) -> get(() -> completeWithFuture(trialUpdateState(value)))));
+                        "bulk",
+                        () ->
+                                post(
+                                        () ->
+                                                extractRequestEntity(
+                                                        request ->
+                                                                completeWithFuture(
+                                                                        bulkUpdateState(
+                                                                                instrument,
+                                                                                request))))),
+                // 以 SSE 推送状态变化, 替代轮询. 只包含实体在当前节点上时的状态变化, 实体在其他节点上时只有心跳
+                path(
+                        "stream",
+                        () ->
+                                get(
+                                        () ->
+                                                completeOK(
+                                                        readModels.stream(instrument).subscribe(),
+                                                        EventStreamMarshalling.toEventStream()))));
+    }
+
+    @AllArgsConstructor
+    private static final class CachedResponse {
+
+        private final long version;
+        private final HttpResponse response;
     }
 }
@@ -2,13 +2,19 @@ package com.iquantex.phoenix.typedactor.guide.persistence;
 
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.ClearAll;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.FindBooksByAuthor;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.FindBooksByTitle;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetAllBook;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBooksPage;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.Passivate;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.RemoveBook;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.UpdateBook;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.AllBookClear;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookAdded;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookRemoved;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookUpdated;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookUpdated.Field;
 import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
 
 import akka.actor.typed.ActorRef;
@@ -17,18 +23,25 @@ import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.japi.function.Function;
 import akka.pattern.StatusReply;
+import akka.persistence.typed.DeleteEventsFailed;
 import akka.persistence.typed.PersistenceId;
 import akka.persistence.typed.RecoveryCompleted;
+import akka.persistence.typed.SnapshotCompleted;
+import akka.persistence.typed.SnapshotFailed;
 import akka.persistence.typed.javadsl.CommandHandler;
 import akka.persistence.typed.javadsl.Effect;
 import akka.persistence.typed.javadsl.EffectFactories;
 import akka.persistence.typed.javadsl.EventHandler;
 import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.persistence.typed.javadsl.RetentionCriteria;
 import akka.persistence.typed.javadsl.SignalHandler;
+import akka.persistence.typed.javadsl.SnapshotCountRetentionCriteria;
 
 import java.time.Instant;
-import java.util.Arrays;
-import java.util.Map;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
 
 /**
  * 持久化 Actor 演示类, 持久化的 Actor 需要继承 {@link EventSourcedBehavior} 该抽象类包含了三个泛型.分别是：
@@ -39,19 +52,51 @@ import java.util.Map;
  *
  * <p>state: 表示程序当前的状态，用于存储快照，在事件溯源时加快速度。因为 Behavior 本身只是表达行为，所以需要单独的类来存放状态
  *
+ * <p>快照策略见 {@link BookSnapshotPolicy}, 事件按 {@link BookTags} 打标签, 由 {@link BookProjection} 投影到读模型
+ *
  * @author AndyChen
  */
 public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, BookState> {
 
+    /** 分页查询每页的最大数量, 避免单条回复过大 */
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private static final String INVALID_LIMIT = "limit must be between 1 and " + MAX_PAGE_SIZE;
+
     private ActorContext<BookCommand> context;
+    private final BookSnapshotPolicy snapshotPolicy;
+    private final Set<String> tags;
+    /** 上一次保存快照的时间, 用于 {@link BookSnapshotPolicy#getMaxInterval()} */
+    private long lastSnapshotNanos = System.nanoTime();
 
-    public BookBehavior(PersistenceId persistenceId, ActorContext<BookCommand> context) {
+    public BookBehavior(
+            PersistenceId persistenceId,
+            ActorContext<BookCommand> context,
+            BookSnapshotPolicy snapshotPolicy) {
         super(persistenceId);
         this.context = context;
+        this.snapshotPolicy = snapshotPolicy;
+        this.tags =
+                Collections.singleton(
+                        BookTags.tag(
+                                persistenceId,
+                                BookTags.partitions(context.getSystem().settings().config())));
     }
 
+    /** 快照策略读取 book.snapshot 配置 */
     public static Behavior<BookCommand> create(PersistenceId persistenceId) {
-        return Behaviors.setup(ctx -> new BookBehavior(persistenceId, ctx));
+        return Behaviors.setup(
+                ctx ->
+                        new BookBehavior(
+                                persistenceId,
+                                ctx,
+                                BookSnapshotPolicy.fromConfig(
+                                        ctx.getSystem().settings().config())));
+    }
+
+    public static Behavior<BookCommand> create(
+            PersistenceId persistenceId, BookSnapshotPolicy snapshotPolicy) {
+        return Behaviors.setup(ctx -> new BookBehavior(persistenceId, ctx, snapshotPolicy));
     }
 
     @Override
@@ -68,7 +113,11 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
                 .onCommand(RemoveBook.class, this::onRemoveBook)
                 .onCommand(GetBook.class, this::onGetBook)
                 .onCommand(GetAllBook.class, this::onGetAllBook)
+                .onCommand(GetBooksPage.class, this::onGetBooksPage)
+                .onCommand(FindBooksByAuthor.class, this::onFindBooksByAuthor)
+                .onCommand(FindBooksByTitle.class, this::onFindBooksByTitle)
                 .onCommand(ClearAll.class, this::onClearAll)
+                .onCommand(Passivate.class, cmd -> Effect().stop())
                 .build();
     }
 
@@ -78,14 +127,52 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
                 .forAnyState()
                 .onEvent(BookAdded.class, this::effectBookAdded)
                 .onEvent(BookRemoved.class, this::effectBookRemoved)
+                .onEvent(BookUpdated.class, this::effectBookUpdated)
                 .onEvent(AllBookClear.class, this::emptyState)
                 .build();
     }
 
+    /** 同一个 PersistenceId 的事件使用同一个分区标签 */
+    @Override
+    public Set<String> tagsFor(BookEvent event) {
+        return tags;
+    }
+
+    /**
+     * 每 N 个事件保存一次快照, 只保留最近的几个快照. 开启 deleteEvents 后, 最早保留的快照之前的事件会被删除, 还没有被 {@link BookProjection}
+     * 读取的事件也会被删除.
+     *
+     * <p>{@link #shouldSnapshot} 触发的快照不会删除事件, 但之后按数量触发的快照会一并删除
+     */
+    @Override
+    public RetentionCriteria retentionCriteria() {
+        if (snapshotPolicy.getEveryNEvents() <= 0) {
+            return RetentionCriteria.disabled();
+        }
+        SnapshotCountRetentionCriteria criteria =
+                RetentionCriteria.snapshotEvery(
+                        snapshotPolicy.getEveryNEvents(), snapshotPolicy.getKeepNSnapshots());
+        return snapshotPolicy.isDeleteEvents() ? criteria.withDeleteEventsOnSnapshot() : criteria;
+    }
+
+    /** 在 {@link AllBookClear} 之后, 或者距离上次快照超过时间预算后保存快照 */
+    @Override
+    public boolean shouldSnapshot(BookState state, BookEvent event, long sequenceNr) {
+        boolean snapshot =
+                (snapshotPolicy.isSnapshotOnClear() && event instanceof AllBookClear)
+                        || (!snapshotPolicy.getMaxInterval().isZero()
+                                && System.nanoTime() - lastSnapshotNanos
+                                        >= snapshotPolicy.getMaxInterval().toNanos());
+        if (snapshot) {
+            lastSnapshotNanos = System.nanoTime();
+        }
+        return snapshot;
+    }
+
     /**
      * 此方法定义了 Actor 如何响应 Actor 的信号消息.
      *
-     * <p>在这里定义了对 {@link RecoveryCompleted} 信号的处理方法
+     * <p>在这里定义了对 {@link RecoveryCompleted} 信号的处理方法, 以及快照相关的信号
      */
     @Override
     public SignalHandler<BookState> signalHandler() {
@@ -93,8 +180,24 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
                 .onSignal(
                         RecoveryCompleted.class,
                         (state, recoveryCompleted) -> {
-                            context.getLog().info("恢复完成={}", state.getBookStore());
+                            context.getLog().info("恢复完成={}", state.getBookStore().size());
+                            lastSnapshotNanos = System.nanoTime();
+                        })
+                .onSignal(
+                        SnapshotCompleted.class,
+                        (state, completed) -> {
+                            context.getLog()
+                                    .debug(
+                                            "快照完成, sequenceNr={}",
+                                            completed.metadata().sequenceNr());
+                            lastSnapshotNanos = System.nanoTime();
                         })
+                .onSignal(
+                        SnapshotFailed.class,
+                        (state, failed) -> context.getLog().warn("快照失败", failed.getFailure()))
+                .onSignal(
+                        DeleteEventsFailed.class,
+                        (state, failed) -> context.getLog().warn("删除事件失败", failed.getFailure()))
                 .build();
     }
     /**
@@ -150,6 +253,48 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
         return Effect().reply(cmd.getActorRef(), StatusReply.success(state.getBookStore()));
     }
 
+    /** 处理 {@link GetBooksPage}, 按 uuid 顺序分页返回所有的书 */
+    private Effect<BookEvent, BookState> onGetBooksPage(BookState state, GetBooksPage cmd) {
+        if (invalidLimit(cmd.getLimit())) {
+            return Effect().reply(cmd.getActorRef(), StatusReply.error(INVALID_LIMIT));
+        }
+        return Effect()
+                .reply(
+                        cmd.getActorRef(),
+                        StatusReply.success(state.findAll(cmd.getCursor(), cmd.getLimit())));
+    }
+
+    /** 处理 {@link FindBooksByAuthor}, 通过作者索引分页查询 */
+    private Effect<BookEvent, BookState> onFindBooksByAuthor(
+            BookState state, FindBooksByAuthor cmd) {
+        if (invalidLimit(cmd.getLimit())) {
+            return Effect().reply(cmd.getActorRef(), StatusReply.error(INVALID_LIMIT));
+        }
+        return Effect()
+                .reply(
+                        cmd.getActorRef(),
+                        StatusReply.success(
+                                state.findByAuthor(
+                                        cmd.getAuthor(), cmd.getCursor(), cmd.getLimit())));
+    }
+
+    /** 处理 {@link FindBooksByTitle}, 通过标题索引分页查询 */
+    private Effect<BookEvent, BookState> onFindBooksByTitle(BookState state, FindBooksByTitle cmd) {
+        if (invalidLimit(cmd.getLimit())) {
+            return Effect().reply(cmd.getActorRef(), StatusReply.error(INVALID_LIMIT));
+        }
+        return Effect()
+                .reply(
+                        cmd.getActorRef(),
+                        StatusReply.success(
+                                state.findByTitlePrefix(
+                                        cmd.getTitlePrefix(), cmd.getCursor(), cmd.getLimit())));
+    }
+
+    private static boolean invalidLimit(int limit) {
+        return limit <= 0 || limit > MAX_PAGE_SIZE;
+    }
+
     /**
      * 处理 {@link RemoveBook} ,移除 {@link BookState} 中的 一本 {@link
      * com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book}
@@ -159,25 +304,51 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
     }
 
     /**
-     * 处理 {@link UpdateBook} 发出两个事件, {@link BookRemoved} {@link BookAdded},实现更新效果.
+     * 处理 {@link UpdateBook}, 只持久化一个 {@link BookUpdated} 事件, 事件中只包含变化的字段.
      *
-     * <p>1. 该效果会原子的持久化事件集合, 直到所有事件持久化后，才会执行下一个 {@link CommandHandler} 的命令
+     * <p>1. 书不存在时持久化完整的 {@link BookAdded}, 与之前的 移除 + 添加 效果相同
      *
-     * <p>2. 在持久化期间的 Command 会被暂存到 {@link EffectFactories#stash()} 中，被暂存起来
+     * <p>2. 没有字段变化时不持久化事件. 字段更新为 null 时记录在 {@link BookUpdated#getCleared()} 中, 与之前一样清空该字段
      *
-     * <p>3. 暂存的 Command 可以通过 {@link EffectFactories#unstashAll()} 取消暂存，直接执行
+     * <p>3. 在持久化期间的 Command 会被暂存到 {@link EffectFactories#stash()} 中，被暂存起来, 持久化完成后再处理
+     *
+     * <p>旧版本的 {@link BookRemoved} + {@link BookAdded} 事件仍然由原来的 EventHandler 处理, 溯源结果不变
      */
     private Effect<BookEvent, BookState> onUpdateBook(BookState state, UpdateBook cmd) {
-        return Effect()
-                .persist(
-                        Arrays.asList(
-                                new BookRemoved(cmd.getUuid()), // 移除
-                                BookAdded.builder() // 添加
-                                        .uuid(cmd.getUuid())
-                                        .title(cmd.getTitle())
-                                        .author(cmd.getAuthor())
-                                        .price(cmd.getPrice())
-                                        .build()));
+        Book book = state.getBookStore().get(cmd.getUuid());
+        if (book == null) {
+            return Effect()
+                    .persist(
+                            BookAdded.builder()
+                                    .uuid(cmd.getUuid())
+                                    .title(cmd.getTitle())
+                                    .author(cmd.getAuthor())
+                                    .price(cmd.getPrice())
+                                    .build());
+        }
+        Set<Field> cleared = EnumSet.noneOf(Field.class);
+        BookUpdated event =
+                new BookUpdated(
+                        cmd.getUuid(),
+                        changed(book.getTitle(), cmd.getTitle(), Field.TITLE, cleared),
+                        changed(book.getAuthor(), cmd.getAuthor(), Field.AUTHOR, cleared),
+                        changed(book.getPrice(), cmd.getPrice(), Field.PRICE, cleared),
+                        cleared.isEmpty() ? null : cleared);
+        if (event.isEmpty()) {
+            return Effect().none();
+        }
+        return Effect().persist(event);
+    }
+
+    /** 值没有变化时返回 null, 不写入事件. 清空为 null 时记录到 cleared 中 */
+    private static <T> T changed(T current, T value, Field field, Set<Field> cleared) {
+        if (Objects.equals(current, value)) {
+            return null;
+        }
+        if (value == null) {
+            cleared.add(field);
+        }
+        return value;
     }
 
     /** 处理 {@link ClearAll} 命令, 产生 {@link AllBookClear} 事件, 该事件会清除当前状态 */
@@ -193,17 +364,34 @@ public class BookBehavior extends EventSourcedBehavior<BookCommand, BookEvent, B
      * #onRemoveBook(RemoveBook)} 已经做了判断操作
      */
     private BookState effectBookRemoved(BookState state, BookRemoved event) {
-        Map<String, Book> bookStore = state.getBookStore();
-        bookStore.remove(event.getUuid());
-        return new BookState(bookStore); // 新状态
+        return state.minus(event.getUuid()); // 新状态
     }
 
     /** 处理 {@link BookAdded} 添加{@link Book}到 {@link BookState} */
     private BookState effectBookAdded(BookState state, BookAdded event) {
-        Map<String, Book> bookStore = state.getBookStore();
-        bookStore.put(
-                event.getUuid(),
-                new Book(event.getUuid(), event.getTitle(), event.getAuthor(), event.getPrice()));
-        return new BookState(bookStore); // 新状态
+        Book book =
+                new Book(event.getUuid(), event.getTitle(), event.getAuthor(), event.getPrice());
+        return state.plus(book); // 新状态
+    }
+
+    /** 处理 {@link BookUpdated}, 只替换事件中不为 null 的字段, 清空 cleared 中的字段 */
+    private BookState effectBookUpdated(BookState state, BookUpdated event) {
+        Book book = state.getBookStore().get(event.getUuid());
+        if (book == null) {
+            return state;
+        }
+        return state.plus(
+                new Book(
+                        book.getUuid(),
+                        updated(book.getTitle(), event.getTitle(), event.isCleared(Field.TITLE)),
+                        updated(book.getAuthor(), event.getAuthor(), event.isCleared(Field.AUTHOR)),
+                        updated(book.getPrice(), event.getPrice(), event.isCleared(Field.PRICE))));
+    }
+
+    private static <T> T updated(T current, T value, boolean cleared) {
+        if (cleared) {
+            return null;
+        }
+        return value != null ? value : current;
     }
 }
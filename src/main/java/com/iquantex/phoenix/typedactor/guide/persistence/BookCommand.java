@@ -65,6 +65,7 @@ public interface BookCommand extends Message {
         private String uuid;
     }
 
+    /** 一次回复所有的书, 只适用于数量较少的情况, 否则使用 {@link GetBooksPage} 或者 {@link BookSource#allBooks} */
     @AllArgsConstructor
     @Getter
     class GetAllBook implements BookCommand {
@@ -72,10 +73,50 @@ public interface BookCommand extends Message {
         private ActorRef<StatusReply> actorRef;
     }
 
+    /** 按 uuid 顺序分页查询所有的书, 回复 {@link BookPage}. 第一页 cursor 为 null, 之后传入上一页的 nextCursor */
+    @AllArgsConstructor
+    @Getter
+    class GetBooksPage implements BookCommand {
+
+        private ActorRef<StatusReply<BookPage>> actorRef;
+        private String cursor;
+        private int limit;
+    }
+
+    /** 按作者分页查询, 回复 {@link BookPage}. 第一页 cursor 为 null, 之后传入上一页的 nextCursor */
+    @AllArgsConstructor
+    @Getter
+    class FindBooksByAuthor implements BookCommand {
+
+        private ActorRef<StatusReply<BookPage>> actorRef;
+        private String author;
+        private String cursor;
+        private int limit;
+    }
+
+    /** 按标题前缀分页查询, 不区分大小写, 回复 {@link BookPage} */
+    @AllArgsConstructor
+    @Getter
+    class FindBooksByTitle implements BookCommand {
+
+        private ActorRef<StatusReply<BookPage>> actorRef;
+        private String titlePrefix;
+        private String cursor;
+        private int limit;
+    }
+
     @AllArgsConstructor
     @Getter
     class ClearAll implements BookCommand {
 
         private ActorRef<StatusReply> actorRef;
     }
+
+    /**
+     * 停止实体, 作为集群分片的 stopMessage. 分片钝化实体时发送该消息, 实体先处理完之前收到的命令 (包括持久化期间暂存的命令) 再停止, 而不是直接被 PoisonPill
+     * 停止
+     */
+    enum Passivate implements BookCommand {
+        INSTANCE
+    }
 }
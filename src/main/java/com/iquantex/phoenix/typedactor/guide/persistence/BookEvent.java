@@ -2,11 +2,16 @@ package com.iquantex.phoenix.typedactor.guide.persistence;
 
 import com.iquantex.phoenix.typedactor.guide.protocol.Message;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
+import java.util.Set;
+
 /**
  * Event 表示命令的效果. Event 会被持久化
  *
@@ -35,6 +40,56 @@ public interface BookEvent extends Message {
         private String uuid;
     }
 
+    /**
+     * 更新 {@link BookState.Book} 的部分字段, 为 null 的字段没有变化, 不写入日志.
+     *
+     * <p>清空为 null 的字段记录在 cleared 中, 没有清空的字段时 cleared 为 null, 旧版本的事件中也没有 cleared
+     */
+    @Getter
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    class BookUpdated implements BookEvent {
+
+        private final String uuid;
+        private final String title;
+        private final String author;
+        private final Long price;
+        private final Set<Field> cleared;
+
+        public BookUpdated(String uuid, String title, String author, Long price) {
+            this(uuid, title, author, price, null);
+        }
+
+        @JsonCreator
+        public BookUpdated(
+                String uuid, String title, String author, Long price, Set<Field> cleared) {
+            this.uuid = uuid;
+            this.title = title;
+            this.author = author;
+            this.price = price;
+            this.cleared = cleared;
+        }
+
+        @JsonIgnore
+        public boolean isEmpty() {
+            return title == null
+                    && author == null
+                    && price == null
+                    && (cleared == null || cleared.isEmpty());
+        }
+
+        @JsonIgnore
+        public boolean isCleared(Field field) {
+            return cleared != null && cleared.contains(field);
+        }
+
+        /** {@link BookState.Book} 中可以更新的字段 */
+        public enum Field {
+            TITLE,
+            AUTHOR,
+            PRICE
+        }
+    }
+
     @AllArgsConstructor
     @Getter
     @NoArgsConstructor
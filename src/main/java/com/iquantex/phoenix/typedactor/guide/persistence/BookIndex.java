@@ -0,0 +1,139 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.collection.PersistentTreeMap;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link BookState} 的二级索引, 随事件增量维护, 不保存到快照, 从快照恢复时重建.
+ *
+ * <p>1. 作者索引: 键为 作者 + 标题 + uuid, 同一作者的书按标题排序
+ *
+ * <p>2. 标题索引: 键为 小写标题 + uuid, 标题前缀查询为有序的范围查询
+ *
+ * <p>3. uuid 索引: {@link BookState#getBookStore()} 没有顺序, 按 uuid 排序用于遍历所有的书
+ *
+ * <p>索引的值为 uuid, 查询结果再从 {@link BookState#getBookStore()} 中取出. 游标为上一页最后一个索引键, 下一页从游标之后开始,
+ * 翻页期间的增删不会导致重复或者遗漏
+ */
+public final class BookIndex {
+
+    /** 索引键中各部分的分隔符, 小于所有可见字符 */
+    private static final char SEPARATOR = '\u0000';
+
+    public static final BookIndex EMPTY =
+            new BookIndex(
+                    PersistentTreeMap.empty(),
+                    PersistentTreeMap.empty(),
+                    PersistentTreeMap.empty());
+
+    private final PersistentTreeMap<String, String> byAuthor;
+    private final PersistentTreeMap<String, String> byTitle;
+    private final PersistentTreeMap<String, String> byUuid;
+
+    private BookIndex(
+            PersistentTreeMap<String, String> byAuthor,
+            PersistentTreeMap<String, String> byTitle,
+            PersistentTreeMap<String, String> byUuid) {
+        this.byAuthor = byAuthor;
+        this.byTitle = byTitle;
+        this.byUuid = byUuid;
+    }
+
+    public static BookIndex of(Iterable<Book> books) {
+        BookIndex index = EMPTY;
+        for (Book book : books) {
+            index = index.plus(book);
+        }
+        return index;
+    }
+
+    public BookIndex plus(Book book) {
+        return new BookIndex(
+                byAuthor.plus(authorKey(book), book.getUuid()),
+                byTitle.plus(titleKey(book), book.getUuid()),
+                byUuid.plus(book.getUuid(), book.getUuid()));
+    }
+
+    public BookIndex minus(Book book) {
+        return new BookIndex(
+                byAuthor.minus(authorKey(book)),
+                byTitle.minus(titleKey(book)),
+                byUuid.minus(book.getUuid()));
+    }
+
+    /** 所有的书, 按 uuid 排序 */
+    public Page findAll(String cursor, int limit) {
+        return find(byUuid, "", cursor, limit);
+    }
+
+    /** 作者完全匹配 */
+    public Page findByAuthor(String author, String cursor, int limit) {
+        return find(byAuthor, nullToEmpty(author) + SEPARATOR, cursor, limit);
+    }
+
+    /** 标题前缀匹配, 不区分大小写 */
+    public Page findByTitlePrefix(String prefix, String cursor, int limit) {
+        return find(byTitle, normalize(prefix), cursor, limit);
+    }
+
+    /** 键以 prefix 开头的范围内, 从游标之后取 limit 个 */
+    private static Page find(
+            PersistentTreeMap<String, String> index, String prefix, String cursor, int limit) {
+        Iterator<Map.Entry<String, String>> iterator =
+                cursor == null || cursor.compareTo(prefix) < 0
+                        ? index.iterator(prefix, true)
+                        : index.iterator(cursor, false);
+        List<String> uuids = new ArrayList<>(Math.min(limit, 64));
+        String last = null;
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (!entry.getKey().startsWith(prefix)) {
+                return new Page(uuids, null);
+            }
+            if (uuids.size() == limit) {
+                return new Page(uuids, last);
+            }
+            uuids.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new Page(uuids, null);
+    }
+
+    private static String authorKey(Book book) {
+        return nullToEmpty(book.getAuthor())
+                + SEPARATOR
+                + normalize(book.getTitle())
+                + SEPARATOR
+                + book.getUuid();
+    }
+
+    private static String titleKey(Book book) {
+        return normalize(book.getTitle()) + SEPARATOR + book.getUuid();
+    }
+
+    private static String normalize(String title) {
+        return nullToEmpty(title).toLowerCase(Locale.ROOT);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /** 一页的 uuid, nextCursor 为 null 表示没有下一页 */
+    static final class Page {
+
+        final List<String> uuids;
+        final String nextCursor;
+
+        Page(List<String> uuids, String nextCursor) {
+            this.uuids = uuids;
+            this.nextCursor = nextCursor;
+        }
+    }
+}
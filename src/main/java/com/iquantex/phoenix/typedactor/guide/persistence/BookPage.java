@@ -0,0 +1,22 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+import com.iquantex.phoenix.typedactor.guide.protocol.CborSerializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/** 分页查询的结果, nextCursor 作为下一次查询的游标, 为 null 表示没有下一页 */
+@AllArgsConstructor
+@Getter
+public final class BookPage implements CborSerializable {
+
+    private final List<Book> books;
+    private final String nextCursor;
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
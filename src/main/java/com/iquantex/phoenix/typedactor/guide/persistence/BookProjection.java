@@ -0,0 +1,132 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.typesafe.config.Config;
+import akka.Done;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.DispatcherSelector;
+import akka.actor.typed.javadsl.Adapter;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Offset;
+import akka.persistence.query.PersistenceQuery;
+import akka.stream.KillSwitches;
+import akka.stream.RestartSettings;
+import akka.stream.SharedKillSwitch;
+import akka.stream.javadsl.RestartSource;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * 把 {@link BookBehavior} 的事件投影到 {@link BookReadModel}, 配置见 book.projection.
+ *
+ * <p>1. 每个标签 {@link BookTags} 一个 eventsByTag 流, 多个分区并行写入
+ *
+ * <p>2. 事件按 batch-size 或者 batch-window 攒批, 每批在一个事务中写入读模型并保存偏移量
+ *
+ * <p>3. 流启动时从保存的偏移量之后继续, 失败后按退避时间重启, 重新读取偏移量
+ */
+@Slf4j
+public final class BookProjection {
+
+    private final SharedKillSwitch killSwitch;
+    private final List<CompletionStage<Done>> streams;
+
+    private BookProjection(SharedKillSwitch killSwitch, List<CompletionStage<Done>> streams) {
+        this.killSwitch = killSwitch;
+        this.streams = streams;
+    }
+
+    /** 为每个标签启动一个流, 读模型的表需要已经创建 */
+    public static BookProjection start(ActorSystem<?> system, BookReadModel readModel) {
+        Config config = system.settings().config().getConfig("book.projection");
+        JdbcReadJournal readJournal =
+                PersistenceQuery.get(Adapter.toClassic(system))
+                        .getReadJournalFor(JdbcReadJournal.class, JdbcReadJournal.Identifier());
+        Executor blocking = system.dispatchers().lookup(DispatcherSelector.blocking());
+        RestartSettings restart =
+                RestartSettings.create(
+                        config.getDuration("restart.min-backoff"),
+                        config.getDuration("restart.max-backoff"),
+                        0.2);
+        int batchSize = config.getInt("batch-size");
+        Duration batchWindow = config.getDuration("batch-window");
+
+        SharedKillSwitch killSwitch = KillSwitches.shared("book-projection");
+        List<CompletionStage<Done>> streams = new ArrayList<>();
+        for (String tag : BookTags.all(BookTags.partitions(system.settings().config()))) {
+            streams.add(
+                    RestartSource.withBackoff(
+                                    restart,
+                                    () ->
+                                            events(readJournal, readModel, tag, blocking)
+                                                    .groupedWithin(batchSize, batchWindow)
+                                                    .mapAsync(
+                                                            1,
+                                                            batch ->
+                                                                    write(
+                                                                            readModel, tag, batch,
+                                                                            blocking)))
+                            .via(killSwitch.flow())
+                            .runWith(Sink.ignore(), system));
+        }
+        return new BookProjection(killSwitch, streams);
+    }
+
+    /** 从保存的偏移量之后读取标签的事件, 偏移量不包含本身 */
+    private static Source<EventEnvelope, ?> events(
+            JdbcReadJournal readJournal, BookReadModel readModel, String tag, Executor blocking) {
+        return Source.completionStageSource(
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            long offset = unchecked(() -> readModel.loadOffset(tag));
+                            log.info("投影 {} 从偏移量 {} 开始", tag, offset);
+                            return readJournal.eventsByTag(tag, Offset.sequence(offset));
+                        },
+                        blocking));
+    }
+
+    private static CompletionStage<Integer> write(
+            BookReadModel readModel, String tag, List<EventEnvelope> batch, Executor blocking) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    unchecked(
+                            () -> {
+                                readModel.apply(tag, batch);
+                                return null;
+                            });
+                    return batch.size();
+                },
+                blocking);
+    }
+
+    /** 停止所有的流, 已经开始的批次会写完 */
+    public CompletionStage<Void> stop() {
+        killSwitch.shutdown();
+        return CompletableFuture.allOf(
+                streams.stream()
+                        .map(CompletionStage::toCompletableFuture)
+                        .toArray(CompletableFuture[]::new));
+    }
+
+    private static <T> T unchecked(SqlCall<T> call) {
+        try {
+            return call.call();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private interface SqlCall<T> {
+
+        T call() throws Exception;
+    }
+}
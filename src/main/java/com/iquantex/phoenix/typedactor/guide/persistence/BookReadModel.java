@@ -0,0 +1,224 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.AllBookClear;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookAdded;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookRemoved;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookUpdated;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookUpdated.Field;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.Config;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import akka.persistence.query.EventEnvelope;
+import akka.persistence.query.Sequence;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * {@link BookProjection} 写入的读模型, 每本书一行, 查询不经过 {@link BookBehavior}.
+ *
+ * <p>1. book_read_model: 按 (persistence_id, uuid) 保存书的最新状态
+ *
+ * <p>2. book_projection_offset: 每个标签已经处理到的偏移量, 与读模型在同一个事务中更新, 重启后从偏移量之后继续, 不会重复处理
+ *
+ * <p>JDBC 是阻塞的, 调用方需要在阻塞的线程池中执行
+ */
+public final class BookReadModel implements AutoCloseable {
+
+    private static final String CREATE_BOOK_TABLE =
+            "CREATE TABLE IF NOT EXISTS book_read_model ("
+                    + "persistence_id VARCHAR(255) NOT NULL, "
+                    + "uuid VARCHAR(255) NOT NULL, "
+                    + "title VARCHAR(255), "
+                    + "author VARCHAR(255), "
+                    + "price BIGINT, "
+                    + "PRIMARY KEY (persistence_id, uuid))";
+    private static final String CREATE_AUTHOR_INDEX =
+            "CREATE INDEX IF NOT EXISTS book_read_model_author ON book_read_model (author, title)";
+    private static final String CREATE_OFFSET_TABLE =
+            "CREATE TABLE IF NOT EXISTS book_projection_offset ("
+                    + "tag VARCHAR(255) NOT NULL PRIMARY KEY, "
+                    + "seq_offset BIGINT NOT NULL)";
+
+    private static final String UPSERT_BOOK =
+            "MERGE INTO book_read_model (persistence_id, uuid, title, author, price) "
+                    + "KEY (persistence_id, uuid) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_BOOK =
+            "UPDATE book_read_model SET title = CASE WHEN ? THEN NULL ELSE COALESCE(?, title) END, "
+                    + "author = CASE WHEN ? THEN NULL ELSE COALESCE(?, author) END, "
+                    + "price = CASE WHEN ? THEN NULL ELSE COALESCE(?, price) END "
+                    + "WHERE persistence_id = ? AND uuid = ?";
+    private static final String DELETE_BOOK =
+            "DELETE FROM book_read_model WHERE persistence_id = ? AND uuid = ?";
+    private static final String DELETE_ALL = "DELETE FROM book_read_model WHERE persistence_id = ?";
+    private static final String UPSERT_OFFSET =
+            "MERGE INTO book_projection_offset (tag, seq_offset) KEY (tag) VALUES (?, ?)";
+    private static final String SELECT_OFFSET =
+            "SELECT seq_offset FROM book_projection_offset WHERE tag = ?";
+    private static final String SELECT_BOOK =
+            "SELECT uuid, title, author, price FROM book_read_model "
+                    + "WHERE persistence_id = ? AND uuid = ?";
+    private static final String SELECT_BY_AUTHOR =
+            "SELECT uuid, title, author, price FROM book_read_model "
+                    + "WHERE author = ? ORDER BY title, uuid LIMIT ?";
+
+    private final HikariDataSource dataSource;
+
+    public BookReadModel(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /** 使用 slick.db 的数据库连接配置, 与日志在同一个数据库中 */
+    public static BookReadModel fromConfig(Config config, int maxConnections) {
+        Config db = config.getConfig("slick.db");
+        HikariConfig hikari = new HikariConfig();
+        hikari.setDriverClassName(db.getString("driver"));
+        hikari.setJdbcUrl(db.getString("url"));
+        hikari.setUsername(db.getString("user"));
+        hikari.setPassword(db.getString("password"));
+        hikari.setMaximumPoolSize(maxConnections);
+        hikari.setPoolName("book-read-model");
+        return new BookReadModel(new HikariDataSource(hikari));
+    }
+
+    public void createTablesIfNotExists() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_BOOK_TABLE);
+            statement.execute(CREATE_AUTHOR_INDEX);
+            statement.execute(CREATE_OFFSET_TABLE);
+        }
+    }
+
+    /** 标签已经处理到的偏移量, 没有处理过时为 0 */
+    public long loadOffset(String tag) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT_OFFSET)) {
+            statement.setString(1, tag);
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0L;
+            }
+        }
+    }
+
+    /** 在一个事务中应用一批事件, 并保存最后一个事件的偏移量 */
+    public void apply(String tag, List<EventEnvelope> envelopes) throws SQLException {
+        if (envelopes.isEmpty()) {
+            return;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement upsert = connection.prepareStatement(UPSERT_BOOK);
+                    PreparedStatement update = connection.prepareStatement(UPDATE_BOOK);
+                    PreparedStatement delete = connection.prepareStatement(DELETE_BOOK);
+                    PreparedStatement deleteAll = connection.prepareStatement(DELETE_ALL);
+                    PreparedStatement offset = connection.prepareStatement(UPSERT_OFFSET)) {
+                for (EventEnvelope envelope : envelopes) {
+                    apply(envelope, upsert, update, delete, deleteAll);
+                }
+                offset.setString(1, tag);
+                offset.setLong(
+                        2, ((Sequence) envelopes.get(envelopes.size() - 1).offset()).value());
+                offset.executeUpdate();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private static void apply(
+            EventEnvelope envelope,
+            PreparedStatement upsert,
+            PreparedStatement update,
+            PreparedStatement delete,
+            PreparedStatement deleteAll)
+            throws SQLException {
+        String persistenceId = envelope.persistenceId();
+        Object event = envelope.event();
+        if (event instanceof BookAdded) {
+            BookAdded added = (BookAdded) event;
+            upsert.setString(1, persistenceId);
+            upsert.setString(2, added.getUuid());
+            upsert.setString(3, added.getTitle());
+            upsert.setString(4, added.getAuthor());
+            setLong(upsert, 5, added.getPrice());
+            upsert.executeUpdate();
+        } else if (event instanceof BookUpdated) {
+            BookUpdated updated = (BookUpdated) event;
+            update.setBoolean(1, updated.isCleared(Field.TITLE));
+            update.setString(2, updated.getTitle());
+            update.setBoolean(3, updated.isCleared(Field.AUTHOR));
+            update.setString(4, updated.getAuthor());
+            update.setBoolean(5, updated.isCleared(Field.PRICE));
+            setLong(update, 6, updated.getPrice());
+            update.setString(7, persistenceId);
+            update.setString(8, updated.getUuid());
+            update.executeUpdate();
+        } else if (event instanceof BookRemoved) {
+            delete.setString(1, persistenceId);
+            delete.setString(2, ((BookRemoved) event).getUuid());
+            delete.executeUpdate();
+        } else if (event instanceof AllBookClear) {
+            deleteAll.setString(1, persistenceId);
+            deleteAll.executeUpdate();
+        }
+    }
+
+    public Optional<Book> get(String persistenceId, String uuid) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT_BOOK)) {
+            statement.setString(1, persistenceId);
+            statement.setString(2, uuid);
+            List<Book> books = query(statement);
+            return books.isEmpty() ? Optional.empty() : Optional.of(books.get(0));
+        }
+    }
+
+    /** 所有 PersistenceId 中该作者的书, 按标题排序 */
+    public List<Book> findByAuthor(String author, int limit) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement statement = connection.prepareStatement(SELECT_BY_AUTHOR)) {
+            statement.setString(1, author);
+            statement.setInt(2, limit);
+            return query(statement);
+        }
+    }
+
+    private static List<Book> query(PreparedStatement statement) throws SQLException {
+        List<Book> books = new ArrayList<>();
+        try (ResultSet rs = statement.executeQuery()) {
+            while (rs.next()) {
+                long price = rs.getLong(4);
+                Long nullablePrice = rs.wasNull() ? null : price;
+                books.add(
+                        new Book(rs.getString(1), rs.getString(2), rs.getString(3), nullablePrice));
+            }
+        }
+        return books;
+    }
+
+    private static void setLong(PreparedStatement statement, int index, Long value)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.BIGINT);
+        } else {
+            statement.setLong(index, value);
+        }
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
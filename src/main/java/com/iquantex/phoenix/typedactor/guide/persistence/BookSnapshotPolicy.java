@@ -0,0 +1,53 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.typesafe.config.Config;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+
+/**
+ * {@link BookBehavior} 的快照策略, 配置见 reference-persistence.conf 中的 book.snapshot.
+ *
+ * <p>1. 每 everyNEvents 个事件保存一次快照, 保留最近 keepNSnapshots 个, 可选删除最早保留的快照之前的事件. 删除不会等待 {@link
+ * BookProjection}, 运行投影时不能开启
+ *
+ * <p>2. {@link BookEvent.AllBookClear} 之后保存快照, 溯源时不需要重放清空之前的事件
+ *
+ * <p>3. 距离上次快照超过 maxInterval 后, 下一个事件保存快照, 限制溯源时需要重放的事件数量
+ */
+@AllArgsConstructor
+@Getter
+@ToString
+public final class BookSnapshotPolicy {
+
+    public static final String CONFIG_PATH = "book.snapshot";
+
+    /** 不保存快照, 溯源时重放所有事件 */
+    public static final BookSnapshotPolicy DISABLED =
+            new BookSnapshotPolicy(0, 1, false, false, Duration.ZERO);
+
+    /** 0 表示关闭 */
+    private final int everyNEvents;
+
+    private final int keepNSnapshots;
+    private final boolean deleteEvents;
+    private final boolean snapshotOnClear;
+    /** {@link Duration#ZERO} 表示关闭 */
+    private final Duration maxInterval;
+
+    /** 没有配置 book.snapshot 时不保存快照 */
+    public static BookSnapshotPolicy fromConfig(Config config) {
+        if (!config.hasPath(CONFIG_PATH)) {
+            return DISABLED;
+        }
+        Config snapshot = config.getConfig(CONFIG_PATH);
+        return new BookSnapshotPolicy(
+                snapshot.getInt("every-n-events"),
+                snapshot.getInt("keep-n-snapshots"),
+                snapshot.getBoolean("delete-events"),
+                snapshot.getBoolean("on-clear"),
+                snapshot.getDuration("max-interval"));
+    }
+}
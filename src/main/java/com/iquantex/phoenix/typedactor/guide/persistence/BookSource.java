@@ -0,0 +1,93 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBooksPage;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import akka.NotUsed;
+import akka.actor.typed.RecipientRef;
+import akka.actor.typed.Scheduler;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.japi.Pair;
+import akka.pattern.StatusReply;
+import akka.stream.javadsl.Source;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 以流的方式读取 {@link BookBehavior} 中所有的书.
+ *
+ * <p>每次通过 {@link GetBooksPage} 读取一页, 下游有需求时才请求下一页, 内存中最多只有一页. 下游取消后不再请求
+ */
+public final class BookSource {
+
+    private BookSource() {}
+
+    /** 按 uuid 顺序发出所有的书, 查询失败时流以失败结束 */
+    public static Source<Book, NotUsed> allBooks(
+            RecipientRef<BookCommand> bookActor,
+            int pageSize,
+            Duration timeout,
+            Scheduler scheduler) {
+        return Source.unfoldAsync(
+                        Cursor.FIRST,
+                        cursor -> next(bookActor, cursor, pageSize, timeout, scheduler))
+                .mapConcat(books -> books);
+    }
+
+    /** 读取游标对应的一页, 已经读取完最后一页时结束 */
+    private static CompletionStage<Optional<Pair<Cursor, List<Book>>>> next(
+            RecipientRef<BookCommand> bookActor,
+            Cursor cursor,
+            int pageSize,
+            Duration timeout,
+            Scheduler scheduler) {
+        if (cursor.done) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return page(bookActor, cursor.value, pageSize, timeout, scheduler)
+                .thenApply(page -> Optional.of(Pair.create(Cursor.next(page), page.getBooks())));
+    }
+
+    private static CompletionStage<BookPage> page(
+            RecipientRef<BookCommand> bookActor,
+            String cursor,
+            int pageSize,
+            Duration timeout,
+            Scheduler scheduler) {
+        return AskPattern.<BookCommand, StatusReply<BookPage>>ask(
+                        bookActor,
+                        replyTo -> new GetBooksPage(replyTo, cursor, pageSize),
+                        timeout,
+                        scheduler)
+                .thenApply(
+                        reply -> {
+                            if (reply.isError()) {
+                                throw new CompletionException(reply.getError());
+                            }
+                            return reply.getValue();
+                        });
+    }
+
+    /** 下一页的游标, done 表示已经读取完最后一页 */
+    private static final class Cursor {
+
+        static final Cursor FIRST = new Cursor(null, false);
+
+        final String value;
+        final boolean done;
+
+        Cursor(String value, boolean done) {
+            this.value = value;
+            this.done = done;
+        }
+
+        static Cursor next(BookPage page) {
+            return new Cursor(page.getNextCursor(), !page.hasNext());
+        }
+    }
+}
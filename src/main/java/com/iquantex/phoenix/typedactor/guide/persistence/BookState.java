@@ -1,28 +1,84 @@
 package com.iquantex.phoenix.typedactor.guide.persistence;
 
+import com.iquantex.phoenix.typedactor.guide.collection.PersistentHashMap;
+import com.iquantex.phoenix.typedactor.guide.protocol.CborSerializable;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
  * State 用于表示 Actor 的状态，这样做的原因之一是Behavior作为行为，只是函数集合，因此使用单独的类来表示Actor的状态。
  *
- * <p>Akka文档中阐述State通常是不可变,EventHandler每次产生新的State
+ * <p>Akka文档中阐述State通常是不可变,EventHandler每次产生新的State. bookStore 为 {@link PersistentHashMap}, 新的 State
+ * 与旧的 State 共享未修改的部分, 可以直接回复给其他 Actor 或者用于快照, 不需要复制
  *
- * <p>State会用于快照保存
+ * <p>State会用于快照保存, 通过 Jackson CBOR 序列化. 二级索引 {@link BookIndex} 不保存到快照, 从快照恢复时重建
  *
  * @author AndyChen
  */
-@AllArgsConstructor
 @Getter
-public final class BookState {
+public final class BookState implements CborSerializable {
 
-    private final Map<String, Book> bookStore;
+    private final PersistentHashMap<String, Book> bookStore;
+    @JsonIgnore private final BookIndex index;
 
     public BookState() {
-        this.bookStore = new HashMap<>();
+        this(PersistentHashMap.empty(), BookIndex.EMPTY);
+    }
+
+    private BookState(PersistentHashMap<String, Book> bookStore, BookIndex index) {
+        this.bookStore = bookStore;
+        this.index = index;
+    }
+
+    /** 从快照恢复, 重建索引 */
+    @JsonCreator
+    public BookState(@JsonProperty("bookStore") Map<String, Book> bookStore) {
+        this.bookStore = PersistentHashMap.from(bookStore);
+        this.index = BookIndex.of(this.bookStore.values());
+    }
+
+    /** 添加或者替换一本书, 同时更新索引 */
+    public BookState plus(Book book) {
+        Book previous = bookStore.get(book.getUuid());
+        BookIndex newIndex = previous == null ? index : index.minus(previous);
+        return new BookState(bookStore.plus(book.getUuid(), book), newIndex.plus(book));
+    }
+
+    /** 移除一本书, 同时更新索引 */
+    public BookState minus(String uuid) {
+        Book previous = bookStore.get(uuid);
+        if (previous == null) {
+            return this;
+        }
+        return new BookState(bookStore.minus(uuid), index.minus(previous));
+    }
+
+    public BookPage findAll(String cursor, int limit) {
+        return toPage(index.findAll(cursor, limit));
+    }
+
+    public BookPage findByAuthor(String author, String cursor, int limit) {
+        return toPage(index.findByAuthor(author, cursor, limit));
+    }
+
+    public BookPage findByTitlePrefix(String prefix, String cursor, int limit) {
+        return toPage(index.findByTitlePrefix(prefix, cursor, limit));
+    }
+
+    private BookPage toPage(BookIndex.Page page) {
+        List<Book> books = new ArrayList<>(page.uuids.size());
+        for (String uuid : page.uuids) {
+            books.add(bookStore.get(uuid));
+        }
+        return new BookPage(books, page.nextCursor);
     }
 
     @AllArgsConstructor
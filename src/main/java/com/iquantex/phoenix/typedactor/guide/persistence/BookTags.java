@@ -0,0 +1,39 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.typesafe.config.Config;
+import akka.persistence.typed.PersistenceId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link BookEvent} 的标签. 按 PersistenceId 把事件分到固定数量的分区, 每个分区一个标签, {@link BookProjection}
+ * 每个标签一个流并行处理. 同一个 PersistenceId 的事件总是在同一个分区内, 保持顺序
+ *
+ * <p>分区数量见 book.projection.partitions, 修改后已经写入的事件不会重新打标签
+ */
+public final class BookTags {
+
+    public static final String PREFIX = "book-";
+    public static final int DEFAULT_PARTITIONS = 4;
+
+    private BookTags() {}
+
+    public static int partitions(Config config) {
+        return config.hasPath("book.projection.partitions")
+                ? config.getInt("book.projection.partitions")
+                : DEFAULT_PARTITIONS;
+    }
+
+    public static String tag(PersistenceId persistenceId, int partitions) {
+        return PREFIX + Math.abs(persistenceId.id().hashCode() % partitions);
+    }
+
+    public static List<String> all(int partitions) {
+        List<String> tags = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            tags.add(PREFIX + i);
+        }
+        return tags;
+    }
+}
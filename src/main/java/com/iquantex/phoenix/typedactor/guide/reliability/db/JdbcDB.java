@@ -0,0 +1,103 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.db;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+
+import com.typesafe.config.Config;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import akka.Done;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * 基于 JDBC 的 {@link DB}, 每个 TodoList 一行, 状态以 {@link TodoStateCodec} 的格式保存.
+ *
+ * <p>使用 slick.db 的数据库连接配置, 与持久化日志在同一个数据库中. JDBC 是阻塞的, 所有操作在 executor 中执行, 一般为阻塞的线程池
+ */
+public class JdbcDB implements DB, AutoCloseable {
+
+    private static final String CREATE_TABLE =
+            "CREATE TABLE IF NOT EXISTS todo_list ("
+                    + "id VARCHAR(255) NOT NULL PRIMARY KEY, "
+                    + "state VARBINARY NOT NULL)";
+    private static final String UPSERT = "MERGE INTO todo_list (id, state) KEY (id) VALUES (?, ?)";
+    private static final String SELECT = "SELECT state FROM todo_list WHERE id = ?";
+
+    private final HikariDataSource dataSource;
+    private final Executor executor;
+
+    public JdbcDB(HikariDataSource dataSource, Executor executor) {
+        this.dataSource = dataSource;
+        this.executor = executor;
+    }
+
+    public static JdbcDB fromConfig(Config config, int maxConnections, Executor executor) {
+        Config db = config.getConfig("slick.db");
+        HikariConfig hikari = new HikariConfig();
+        hikari.setDriverClassName(db.getString("driver"));
+        hikari.setJdbcUrl(db.getString("url"));
+        hikari.setUsername(db.getString("user"));
+        hikari.setPassword(db.getString("password"));
+        hikari.setMaximumPoolSize(maxConnections);
+        hikari.setPoolName("todo-db");
+        return new JdbcDB(new HikariDataSource(hikari), executor);
+    }
+
+    public void createTableIfNotExists() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+                Statement statement = connection.createStatement()) {
+            statement.execute(CREATE_TABLE);
+        }
+    }
+
+    @Override
+    public CompletionStage<Done> save(String id, TodoState state) {
+        // 编码也在 executor 上进行, 失败时返回失败的 CompletionStage, 不会从 save 中抛出
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    byte[] bytes = TodoStateCodec.encode(state);
+                    try (Connection connection = dataSource.getConnection();
+                            PreparedStatement statement = connection.prepareStatement(UPSERT)) {
+                        statement.setString(1, id);
+                        statement.setBytes(2, bytes);
+                        statement.executeUpdate();
+                        return Done.done();
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                },
+                executor);
+    }
+
+    /** 不存在时为 null */
+    @Override
+    public CompletionStage<TodoState> load(String id) {
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try (Connection connection = dataSource.getConnection();
+                            PreparedStatement statement = connection.prepareStatement(SELECT)) {
+                        statement.setString(1, id);
+                        try (ResultSet rs = statement.executeQuery()) {
+                            return rs.next() ? TodoStateCodec.decode(rs.getBytes(1)) : null;
+                        }
+                    } catch (SQLException e) {
+                        throw new CompletionException(e);
+                    }
+                },
+                executor);
+    }
+
+    @Override
+    public void close() {
+        dataSource.close();
+    }
+}
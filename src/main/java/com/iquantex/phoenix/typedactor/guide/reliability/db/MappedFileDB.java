@@ -0,0 +1,149 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.db;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+
+import akka.Done;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 基于内存映射文件的只追加 {@link DB}, 每次保存在文件末尾追加一条记录, 内存中的索引指向每个 TodoList 最新的记录.
+ *
+ * <p>1. 记录格式: id 长度, 状态长度, id, 状态. id 长度最后写入, 文件其余部分为 0, 打开时从头扫描到 id 长度为 0 的位置重建索引
+ *
+ * <p>2. 保存只是内存复制, 由操作系统写回磁盘, 进程崩溃不会丢失, 掉电可能丢失最近的保存. 需要时调用 {@link #force()}
+ *
+ * <p>3. 空间不足时映射区域扩大一倍, 文件最大 2GB. 旧的记录不会回收
+ */
+public class MappedFileDB implements DB, AutoCloseable {
+
+    private static final int HEADER = 8;
+
+    private final FileChannel channel;
+    private MappedByteBuffer buffer;
+    /** 每个 TodoList 最新记录中状态的位置 */
+    private final Map<String, Integer> index = new HashMap<>();
+    /** 下一条记录的位置 */
+    private int position;
+
+    private MappedFileDB(FileChannel channel, int capacity) throws IOException {
+        this.channel = channel;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        recover();
+    }
+
+    /** 打开或者创建文件, 映射区域至少为 initialCapacity 字节 */
+    public static MappedFileDB open(Path path, int initialCapacity) throws IOException {
+        FileChannel channel =
+                FileChannel.open(
+                        path,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+        return new MappedFileDB(channel, (int) Math.max(initialCapacity, channel.size()));
+    }
+
+    private void recover() {
+        while (position + HEADER <= buffer.capacity()) {
+            int idLength = buffer.getInt(position);
+            if (idLength == 0) {
+                break;
+            }
+            int stateLength = buffer.getInt(position + 4);
+            String id = new String(read(position + HEADER, idLength), StandardCharsets.UTF_8);
+            index.put(id, position + HEADER + idLength);
+            position += HEADER + idLength + stateLength;
+        }
+    }
+
+    @Override
+    public CompletionStage<Done> save(String id, TodoState state) {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] stateBytes;
+        try {
+            stateBytes = TodoStateCodec.encode(state);
+        } catch (RuntimeException e) {
+            return failed(e);
+        }
+        synchronized (this) {
+            try {
+                ensureCapacity(HEADER + idBytes.length + stateBytes.length);
+            } catch (IOException e) {
+                return failed(e);
+            }
+            ByteBuffer record = buffer.duplicate();
+            record.position(position + 4);
+            record.putInt(stateBytes.length).put(idBytes).put(stateBytes);
+            buffer.putInt(position, idBytes.length);
+            index.put(id, position + HEADER + idBytes.length);
+            position += HEADER + idBytes.length + stateBytes.length;
+        }
+        return CompletableFuture.completedFuture(Done.done());
+    }
+
+    /** 不存在时为 null */
+    @Override
+    public CompletionStage<TodoState> load(String id) {
+        byte[] stateBytes;
+        synchronized (this) {
+            Integer statePosition = index.get(id);
+            if (statePosition == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            int idLength = id.getBytes(StandardCharsets.UTF_8).length;
+            int stateLength = buffer.getInt(statePosition - idLength - 4);
+            stateBytes = read(statePosition, stateLength);
+        }
+        return CompletableFuture.completedFuture(TodoStateCodec.decode(stateBytes));
+    }
+
+    private static CompletionStage<Done> failed(Throwable e) {
+        CompletableFuture<Done> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+    }
+
+    private byte[] read(int from, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(from);
+        view.get(bytes);
+        return bytes;
+    }
+
+    /** 剩余空间不足时扩大映射区域, 保留一个记录头的空间作为结束标记 */
+    private void ensureCapacity(int length) throws IOException {
+        long required = (long) position + length + HEADER;
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        long capacity = Math.min(Math.max(buffer.capacity() * 2L, required), Integer.MAX_VALUE);
+        if (required > capacity) {
+            throw new IOException("mapped file is full, required " + required + " bytes");
+        }
+        buffer.force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /** 把映射区域写回磁盘 */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
@@ -0,0 +1,55 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.db;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link TodoState} 的二进制格式: 任务数量, 然后按顺序是每个任务的字节数和 UTF-8 字节.
+ *
+ * <p>不使用 writeUTF, 它限制每个任务最多 64KB, 而 {@link
+ * com.iquantex.phoenix.typedactor.guide.reliability.mock.DB} 没有这个限制
+ */
+final class TodoStateCodec {
+
+    private TodoStateCodec() {}
+
+    static byte[] encode(TodoState state) {
+        List<String> tasks = state.getTasks();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + tasks.size() * 16);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(tasks.size());
+            for (String task : tasks) {
+                byte[] utf8 = task.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static TodoState decode(byte[] bytes) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int size = in.readInt();
+            List<String> tasks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                byte[] utf8 = new byte[in.readInt()];
+                in.readFully(utf8);
+                tasks.add(new String(utf8, StandardCharsets.UTF_8));
+            }
+            return new TodoState(tasks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.db;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+
+import akka.Done;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 为另一个 {@link DB} 增加缓存和写合并.
+ *
+ * <p>1. 读取: 最近保存或读取的状态缓存在内存中, 最多 cacheSize 个, 按 LRU 淘汰. 正在写入的状态不会被淘汰
+ *
+ * <p>2. 写入: 每个 TodoList 同一时间只有一个写入. 写入进行中时的保存只替换待写入的状态, 写入完成后只写入最新的状态, 中间的状态不再写入
+ *
+ * <p>保存返回的结果在该状态或者更新的状态写入 delegate 之后才完成, 与直接写入 delegate 一样可以用于确认投递
+ */
+public class WriteBehindDB implements DB {
+
+    private final DB delegate;
+    private final Map<String, TodoState> cache;
+    /** 正在写入的 TodoList, 值为写入完成后需要写入的状态 */
+    private final Map<String, Pending> writing = new HashMap<>();
+
+    public WriteBehindDB(DB delegate, int cacheSize) {
+        this.delegate = delegate;
+        this.cache =
+                new LinkedHashMap<String, TodoState>(16, 0.75f, true) {
+                    private static final long serialVersionUID = 1L;
+
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, TodoState> eldest) {
+                        return size() > cacheSize && !writing.containsKey(eldest.getKey());
+                    }
+                };
+    }
+
+    @Override
+    public CompletionStage<Done> save(String id, TodoState state) {
+        synchronized (this) {
+            cache.put(id, state);
+            Pending pending = writing.get(id);
+            if (pending != null) {
+                pending.state = state;
+                CompletableFuture<Done> result = new CompletableFuture<>();
+                pending.waiting.add(result);
+                return result;
+            }
+            writing.put(id, new Pending());
+        }
+        return write(id, state);
+    }
+
+    private CompletionStage<Done> write(String id, TodoState state) {
+        return saveToDelegate(id, state)
+                .whenComplete(
+                        (done, exc) -> {
+                            Pending next;
+                            synchronized (this) {
+                                if (exc != null && cache.get(id) == state) {
+                                    // 不缓存没有写入成功的状态
+                                    cache.remove(id);
+                                }
+                                next = writing.get(id);
+                                if (next.state == null) {
+                                    writing.remove(id);
+                                    return;
+                                }
+                                writing.put(id, new Pending());
+                            }
+                            write(id, next.state)
+                                    .whenComplete(
+                                            (nextDone, nextExc) -> {
+                                                for (CompletableFuture<Done> waiting :
+                                                        next.waiting) {
+                                                    if (nextExc == null) {
+                                                        waiting.complete(nextDone);
+                                                    } else {
+                                                        waiting.completeExceptionally(nextExc);
+                                                    }
+                                                }
+                                            });
+                        });
+    }
+
+    /** delegate 同步抛出的异常(例如编码失败)转换为失败的结果, 与异步失败一样清除 writing */
+    private CompletionStage<Done> saveToDelegate(String id, TodoState state) {
+        try {
+            return delegate.save(id, state);
+        } catch (RuntimeException e) {
+            CompletableFuture<Done> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /** 不存在时为 null */
+    @Override
+    public CompletionStage<TodoState> load(String id) {
+        synchronized (this) {
+            TodoState cached = cache.get(id);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+        return delegate.load(id)
+                .thenApply(
+                        state -> {
+                            synchronized (this) {
+                                // 读取期间保存的状态更新
+                                TodoState cached = cache.get(id);
+                                if (cached != null) {
+                                    return cached;
+                                }
+                                if (state != null) {
+                                    cache.put(id, state);
+                                }
+                                return state;
+                            }
+                        });
+    }
+
+    private static final class Pending {
+
+        private TodoState state;
+        private final List<CompletableFuture<Done>> waiting = new ArrayList<>();
+    }
+}
@@ -0,0 +1,69 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.payload;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreType;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 固定大小的堆外缓冲区池, 供 {@link ImagePayload} 使用.
+ *
+ * <p>空闲的缓冲区最多保留 maxPooled 个, 池中没有空闲缓冲区时新分配, 归还时池已满则丢弃, 由 GC 回收. 线程安全
+ *
+ * <p>只存在于本地 JVM, 不参与 Jackson 序列化
+ */
+@JsonIgnoreType
+public final class DirectBufferPool {
+
+    /** 64KB 一块, 最多保留 16MB 空闲缓冲区 */
+    public static final DirectBufferPool DEFAULT = new DirectBufferPool(64 * 1024, 256);
+
+    private final int chunkSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    public DirectBufferPool(int chunkSize, int maxPooled) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive, was " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int chunkSize() {
+        return chunkSize;
+    }
+
+    /** 已经借出没有归还的缓冲区数量 */
+    public int inUse() {
+        return inUse.get();
+    }
+
+    /** 池中空闲的缓冲区数量 */
+    public int pooled() {
+        return pooled.get();
+    }
+
+    ByteBuffer acquire() {
+        inUse.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(chunkSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        inUse.decrementAndGet();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
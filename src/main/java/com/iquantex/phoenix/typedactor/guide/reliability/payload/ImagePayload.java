@@ -0,0 +1,159 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.payload;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 存放在 {@link DirectBufferPool} 堆外缓冲区中的图片, 按池的块大小分块存放.
+ *
+ * <p>消息中只传递这个句柄, 不复制图片本身, 所以只能在同一个 JVM 中传递. 使用完后调用 {@link #release()} 把缓冲区归还给池, 归还后不能再读取
+ *
+ * <p>持久化时通过 Jackson 序列化为完整的图片字节, 恢复时放在堆内, 见 {@link #onHeap(byte[])}. 对 Jackson 来说只是一个字节数组的值,
+ * 不检测任何字段: Akka 的 ObjectMapper 可以看到任意可见性的字段, 否则会经由 pool 检测到 AtomicInteger 的私有字段, JDK 16 以上没有
+ * --add-opens 时无法反序列化
+ */
+@JsonAutoDetect(
+        fieldVisibility = Visibility.NONE,
+        getterVisibility = Visibility.NONE,
+        isGetterVisibility = Visibility.NONE,
+        setterVisibility = Visibility.NONE,
+        creatorVisibility = Visibility.NONE)
+public final class ImagePayload {
+
+    @JsonIgnore private final DirectBufferPool pool;
+    @JsonIgnore private final ByteBuffer[] chunks;
+    @JsonIgnore private final int size;
+    @JsonIgnore private final AtomicBoolean released = new AtomicBoolean();
+
+    private ImagePayload(DirectBufferPool pool, ByteBuffer[] chunks, int size) {
+        this.pool = pool;
+        this.chunks = chunks;
+        this.size = size;
+    }
+
+    /** 把图片复制到池中的缓冲区 */
+    public static ImagePayload copyOf(byte[] image, DirectBufferPool pool) {
+        int chunkSize = pool.chunkSize();
+        ByteBuffer[] chunks = new ByteBuffer[(image.length + chunkSize - 1) / chunkSize];
+        for (int i = 0; i < chunks.length; i++) {
+            int offset = i * chunkSize;
+            ByteBuffer chunk = pool.acquire();
+            chunk.put(image, offset, Math.min(chunkSize, image.length - offset));
+            chunk.flip();
+            chunks[i] = chunk;
+        }
+        return new ImagePayload(pool, chunks, image.length);
+    }
+
+    /**
+     * 直接引用堆内的 image, 不使用池, {@link #release()} 没有影响.
+     *
+     * <p>用于 WorkManager 的持久化队列: 队列的状态和消费者引用同一个任务, 消费者确认后队列仍然可能在快照中序列化它, 缓冲区不能归还
+     */
+    public static ImagePayload onHeap(byte[] image) {
+        return new ImagePayload(null, new ByteBuffer[] {ByteBuffer.wrap(image)}, image.length);
+    }
+
+    /** Jackson 反序列化, 恢复的任务可能已经确认, 没有人归还, 所以放在堆内 */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static ImagePayload fromBytes(byte[] image) {
+        return onHeap(image);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isReleased() {
+        return released.get();
+    }
+
+    /** 按顺序读取所有的块, 不复制到堆内 */
+    public InputStream newInputStream() {
+        checkNotReleased();
+        return new ChunkInputStream();
+    }
+
+    @JsonValue
+    public byte[] toByteArray() {
+        checkNotReleased();
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (ByteBuffer chunk : chunks) {
+            ByteBuffer view = chunk.duplicate();
+            int length = view.remaining();
+            view.get(bytes, offset, length);
+            offset += length;
+        }
+        return bytes;
+    }
+
+    /** 把缓冲区归还给池, 重复调用或者在堆内时没有影响 */
+    public void release() {
+        if (pool != null && released.compareAndSet(false, true)) {
+            for (ByteBuffer chunk : chunks) {
+                pool.release(chunk);
+            }
+        }
+    }
+
+    private void checkNotReleased() {
+        if (released.get()) {
+            throw new IllegalStateException("ImagePayload already released");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ImagePayload(size=" + size + ", chunks=" + chunks.length + ")";
+    }
+
+    private final class ChunkInputStream extends InputStream {
+
+        private int index;
+        private ByteBuffer current = chunks.length == 0 ? null : chunks[0].duplicate();
+
+        @Override
+        public int read() {
+            if (!advance()) {
+                return -1;
+            }
+            return current.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.remaining());
+            current.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return current == null ? 0 : current.remaining();
+        }
+
+        /** 当前块读完时切换到下一块, 全部读完时返回 false */
+        private boolean advance() {
+            checkNotReleased();
+            while (current != null && !current.hasRemaining()) {
+                index++;
+                current = index < chunks.length ? chunks[index].duplicate() : null;
+            }
+            return current != null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.time.Duration;
+import java.util.Map;
+
+/** TodoService 准入控制的当前上限和计数, 见 {@link TodoServiceMessage.GetAdmissionMetrics} */
+@AllArgsConstructor
+@Getter
+@ToString
+public class AdmissionMetrics {
+
+    private final int globalLimit;
+    private final int globalInFlight;
+    /** 有未确认消息的 TodoList 的上限 */
+    private final Map<String, Integer> entityLimits;
+
+    private final Map<String, Integer> entityInFlight;
+    private final long accepted;
+    private final long rejected;
+    private final long timedOut;
+    /** 确认延迟的移动平均值 */
+    private final Duration confirmLatency;
+}
@@ -1,5 +1,8 @@
 package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
 
+import com.iquantex.phoenix.typedactor.guide.protocol.CborSerializable;
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.ImagePayload;
+
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
@@ -8,14 +11,16 @@ import java.util.UUID;
 /**
  * 转换 Job 类.
  *
+ * <p>图片存放在堆外的 {@link ImagePayload} 中, 消息中只有句柄, 消费者确认前释放. 使用持久化队列时通过 Jackson CBOR 序列化
+ *
  * @author AndyChen
  */
 @AllArgsConstructor
 @Getter
-public class ConversionJob {
+public class ConversionJob implements CborSerializable {
 
     private final UUID resultId;
     private final String fromFormat;
     private final String toFormat;
-    private final byte[] image;
+    private final ImagePayload image;
 }
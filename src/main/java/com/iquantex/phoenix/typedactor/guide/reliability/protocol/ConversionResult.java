@@ -0,0 +1,16 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.UUID;
+
+/** 转换结果, 转换失败时 image 为 null */
+@AllArgsConstructor
+@Getter
+public class ConversionResult {
+
+    private final UUID resultId;
+    private final String toFormat;
+    private final byte[] image;
+}
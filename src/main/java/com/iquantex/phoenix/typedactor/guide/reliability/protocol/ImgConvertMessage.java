@@ -13,4 +13,16 @@ public interface ImgConvertMessage extends Serializable {
     class WrapperDelivery implements ImgConvertMessage {
         private final ConsumerController.Delivery<ConversionJob> delivery;
     }
+
+    /** 转换完成, 失败时 image 为 null */
+    @AllArgsConstructor
+    @Getter
+    class ConversionCompleted implements ImgConvertMessage {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ConsumerController.Delivery<ConversionJob> delivery;
+        private final byte[] image;
+        private final Throwable failure;
+    }
 }
@@ -1,5 +1,7 @@
 package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
 
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.ImagePayload;
+
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.delivery.WorkPullingProducerController;
 import lombok.AllArgsConstructor;
@@ -11,15 +13,67 @@ import java.util.UUID;
 /** @author AndyChen */
 public interface ImgWorkMessage {
 
-    @AllArgsConstructor
+    /**
+     * 转换请求, WorkManager 收到后把 image 复制到堆外的 payload 中.
+     *
+     * <p>replyTo 不为 null 时, 任务发送给 WorkPullingProducerController 之后回复分配的 resultId, 用于 {@link
+     * GetResult} 查询结果. 暂存已满时任务被丢弃, 不会回复
+     */
     @Getter
     class Covert implements ImgWorkMessage {
 
         private final String fromFormat;
         private final String toFormat;
         private final byte[] image;
+        private final ImagePayload payload;
+        private final ActorRef<UUID> replyTo;
+
+        public Covert(String fromFormat, String toFormat, byte[] image) {
+            this(fromFormat, toFormat, image, null, null);
+        }
+
+        public Covert(String fromFormat, String toFormat, byte[] image, ActorRef<UUID> replyTo) {
+            this(fromFormat, toFormat, image, null, replyTo);
+        }
+
+        public Covert(String fromFormat, String toFormat, ImagePayload payload) {
+            this(fromFormat, toFormat, null, payload, null);
+        }
+
+        public Covert(
+                String fromFormat, String toFormat, ImagePayload payload, ActorRef<UUID> replyTo) {
+            this(fromFormat, toFormat, null, payload, replyTo);
+        }
+
+        private Covert(
+                String fromFormat,
+                String toFormat,
+                byte[] image,
+                ImagePayload payload,
+                ActorRef<UUID> replyTo) {
+            this.fromFormat = fromFormat;
+            this.toFormat = toFormat;
+            this.image = image;
+            this.payload = payload;
+            this.replyTo = replyTo;
+        }
+
+        /** 同一个转换请求, 回复给另一个 replyTo */
+        public Covert withReplyTo(ActorRef<UUID> replyTo) {
+            return new Covert(fromFormat, toFormat, image, payload, replyTo);
+        }
+    }
+
+    /** 已经分配了 resultId, 等待 WorkPullingProducerController 需求的任务 */
+    @AllArgsConstructor
+    @Getter
+    class PendingJob implements ImgWorkMessage {
+
+        private final ConversionJob job;
+        private final ActorRef<UUID> replyTo;
     }
 
+    /** 查询转换结果, 还没有转换完成, 转换失败或者不存在时回复 Optional.empty() */
     @AllArgsConstructor
     @Getter
     class GetResult implements ImgWorkMessage {
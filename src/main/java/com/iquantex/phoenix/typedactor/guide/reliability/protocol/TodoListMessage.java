@@ -5,6 +5,8 @@ import akka.actor.typed.delivery.ConsumerController;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 
+import java.util.List;
+
 public interface TodoListMessage {
 
     @AllArgsConstructor
@@ -35,6 +37,14 @@ public interface TodoListMessage {
         private final ActorRef<ConsumerController.Confirmed> confirmedTo;
     }
 
+    /** 组提交模式下, 一次保存覆盖的所有投递 */
+    @AllArgsConstructor
+    @Getter
+    class BatchSaveSuccess implements TodoListMessage {
+
+        private final List<ActorRef<ConsumerController.Confirmed>> confirmTo;
+    }
+
     @AllArgsConstructor
     @Getter
     class DBError implements TodoListMessage {
@@ -22,6 +22,8 @@ public interface TodoServiceMessage {
     class Confirmed implements TodoServiceMessage {
 
         private final ActorRef<TodoResponse> originalReplyTo;
+        private final String listId;
+        private final long sentNanos;
     }
 
     @AllArgsConstructor
@@ -29,6 +31,15 @@ public interface TodoServiceMessage {
     class TimedOut implements TodoServiceMessage {
 
         private final ActorRef<TodoResponse> originalReplyTo;
+        private final String listId;
+    }
+
+    /** 不使用 ask 时, 某个 TodoList 最早的未确认消息已经确认 */
+    @AllArgsConstructor
+    @Getter
+    class EntityConfirmed implements TodoServiceMessage {
+
+        private final String listId;
     }
 
     @AllArgsConstructor
@@ -37,4 +48,12 @@ public interface TodoServiceMessage {
 
         private final ShardingProducerController.RequestNext<TodoListMessage> next;
     }
+
+    /** 查询准入控制的当前上限 */
+    @AllArgsConstructor
+    @Getter
+    class GetAdmissionMetrics implements TodoServiceMessage {
+
+        private final ActorRef<AdmissionMetrics> replyTo;
+    }
 }
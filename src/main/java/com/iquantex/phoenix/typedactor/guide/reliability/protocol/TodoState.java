@@ -1,30 +1,87 @@
 package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
 
-import lombok.Getter;
+import com.iquantex.phoenix.typedactor.guide.collection.PersistentHashMap;
+import com.iquantex.phoenix.typedactor.guide.collection.PersistentTreeMap;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-/** @author AndyChen */
-@Getter
+/**
+ * TodoList 的状态, 不可变, 修改返回新的状态.
+ *
+ * <p>1. tasks: 按添加顺序编号的任务, 编号只增不减, 删除任务不需要移动后面的任务
+ *
+ * <p>2. index: 任务到编号的索引, 同一个任务可以添加多次, {@link #remove(String)} 删除最早添加的一个
+ *
+ * <p>{@link #add(String)} 和 {@link #remove(String)} 为 O(log n), 与旧的状态共享未修改的节点. {@link #getTasks()}
+ * 第一次调用时生成列表
+ *
+ * @author AndyChen
+ */
 public class TodoState {
 
-    private final List<String> tasks;
+    private static final TodoState EMPTY =
+            new TodoState(PersistentTreeMap.empty(), PersistentHashMap.empty(), 0);
+
+    private final PersistentTreeMap<Long, String> tasks;
+    private final PersistentHashMap<String, PersistentTreeMap<Long, Boolean>> index;
+    /** 下一个任务的编号 */
+    private final long nextSeq;
+
+    private List<String> view;
 
     public TodoState(List<String> tasks) {
-        this.tasks = Collections.unmodifiableList(tasks);
+        TodoState state = EMPTY;
+        for (String task : tasks) {
+            state = state.add(task);
+        }
+        this.tasks = state.tasks;
+        this.index = state.index;
+        this.nextSeq = state.nextSeq;
+    }
+
+    private TodoState(
+            PersistentTreeMap<Long, String> tasks,
+            PersistentHashMap<String, PersistentTreeMap<Long, Boolean>> index,
+            long nextSeq) {
+        this.tasks = tasks;
+        this.index = index;
+        this.nextSeq = nextSeq;
     }
 
     public TodoState add(String task) {
-        ArrayList<String> copy = new ArrayList<>(tasks);
-        copy.add(task);
-        return new TodoState(copy);
+        PersistentTreeMap<Long, Boolean> seqs = index.get(task);
+        if (seqs == null) {
+            seqs = PersistentTreeMap.empty();
+        }
+        return new TodoState(
+                tasks.plus(nextSeq, task), index.plus(task, seqs.plus(nextSeq, true)), nextSeq + 1);
     }
 
+    /** 删除最早添加的一个, 任务不存在时返回当前状态 */
     public TodoState remove(String task) {
-        ArrayList<String> copy = new ArrayList<>(tasks);
-        copy.remove(task);
-        return new TodoState(copy);
+        PersistentTreeMap<Long, Boolean> seqs = index.get(task);
+        if (seqs == null) {
+            return this;
+        }
+        Long seq = seqs.keySet().iterator().next();
+        seqs = seqs.minus(seq);
+        return new TodoState(
+                tasks.minus(seq),
+                seqs.isEmpty() ? index.minus(task) : index.plus(task, seqs),
+                nextSeq);
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    /** 按添加顺序排列的任务, 不可修改 */
+    public List<String> getTasks() {
+        if (view == null) {
+            view = Collections.unmodifiableList(new ArrayList<>(tasks.values()));
+        }
+        return view;
     }
 }
@@ -0,0 +1,181 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.AdmissionMetrics;
+
+import com.typesafe.config.Config;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link TodoService} 的准入控制, 限制每个 TodoList 和全部 TodoList 未确认的消息数量, 上限按 AIMD 调整.
+ *
+ * <p>1. 未确认的消息数量: 已经发送给 ShardingProducerController 但还没有确认的消息, 与 ShardingProducerController
+ * 中没有需求而缓存的消息数量取较大值
+ *
+ * <p>2. 确认延迟不超过 targetLatency 且上限已经用了一半以上时, 上限加 1. 确认延迟超过 targetLatency 或者超时, 上限乘以 backoffRatio.
+ * 上限在 [min-limit, max-limit] 之间
+ *
+ * <p>3. 每个 TodoList 的上限单独调整, 没有未确认的消息且上限不低于初始值时不再记录
+ *
+ * <p>配置见 todo.admission, 不是线程安全的, 只在 {@link TodoService} 中使用
+ */
+public final class AdmissionController {
+
+    public static final String CONFIG_PATH = "todo.admission";
+
+    private final LimitSettings entitySettings;
+    private final Duration targetLatency;
+    private final double backoffRatio;
+
+    private final AimdLimit global;
+    private final Map<String, AimdLimit> entities = new HashMap<>();
+
+    private long accepted;
+    private long rejected;
+    private long timedOut;
+    /** 确认延迟的指数移动平均, 纳秒 */
+    private double latencyNanos;
+
+    public AdmissionController(
+            LimitSettings entitySettings,
+            LimitSettings globalSettings,
+            Duration targetLatency,
+            double backoffRatio) {
+        this.entitySettings = entitySettings;
+        this.targetLatency = targetLatency;
+        this.backoffRatio = backoffRatio;
+        this.global = new AimdLimit(globalSettings);
+    }
+
+    /** 没有配置 todo.admission 时, 每个 TodoList 的上限固定为 100, 与之前的行为一致 */
+    public static AdmissionController fromConfig(Config config) {
+        if (!config.hasPath(CONFIG_PATH)) {
+            return new AdmissionController(
+                    new LimitSettings(100, 100, 100),
+                    new LimitSettings(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE),
+                    Duration.ofSeconds(5),
+                    1.0);
+        }
+        Config admission = config.getConfig(CONFIG_PATH);
+        return new AdmissionController(
+                LimitSettings.fromConfig(admission.getConfig("entity")),
+                LimitSettings.fromConfig(admission.getConfig("global")),
+                admission.getDuration("target-latency"),
+                admission.getDouble("backoff-ratio"));
+    }
+
+    /** 未超过上限时记录一条未确认的消息并返回 true, buffered 为 ShardingProducerController 中缓存的数量 */
+    public boolean tryAcquire(String entityId, int buffered) {
+        AimdLimit entity = entities.get(entityId);
+        int entityInFlight = entity == null ? 0 : entity.inFlight;
+        int entityLimit = entity == null ? entitySettings.initialLimit : entity.limit();
+        if (Math.max(entityInFlight, buffered) >= entityLimit
+                || global.inFlight >= global.limit()) {
+            rejected++;
+            return false;
+        }
+        if (entity == null) {
+            entity = new AimdLimit(entitySettings);
+            entities.put(entityId, entity);
+        }
+        entity.inFlight++;
+        global.inFlight++;
+        accepted++;
+        return true;
+    }
+
+    /** 消息已经确认, latency 为发送到确认的时间 */
+    public void onConfirmed(String entityId, long latencyNanos) {
+        this.latencyNanos =
+                this.latencyNanos == 0
+                        ? latencyNanos
+                        : this.latencyNanos * 0.9 + latencyNanos * 0.1;
+        release(entityId, latencyNanos > targetLatency.toNanos());
+    }
+
+    /** 消息没有在超时时间内确认 */
+    public void onTimedOut(String entityId) {
+        timedOut++;
+        release(entityId, true);
+    }
+
+    private void release(String entityId, boolean drop) {
+        global.release(drop, backoffRatio);
+        AimdLimit entity = entities.get(entityId);
+        if (entity == null) {
+            return;
+        }
+        entity.release(drop, backoffRatio);
+        if (entity.inFlight == 0 && entity.limit >= entitySettings.initialLimit) {
+            entities.remove(entityId);
+        }
+    }
+
+    public AdmissionMetrics metrics() {
+        Map<String, Integer> entityLimits = new HashMap<>();
+        Map<String, Integer> entityInFlight = new HashMap<>();
+        entities.forEach(
+                (id, limit) -> {
+                    entityLimits.put(id, limit.limit());
+                    entityInFlight.put(id, limit.inFlight);
+                });
+        return new AdmissionMetrics(
+                global.limit(),
+                global.inFlight,
+                entityLimits,
+                entityInFlight,
+                accepted,
+                rejected,
+                timedOut,
+                Duration.ofNanos((long) latencyNanos));
+    }
+
+    /** 上限的初始值, 最小值, 最大值 */
+    public static final class LimitSettings {
+
+        private final int initialLimit;
+        private final int minLimit;
+        private final int maxLimit;
+
+        public LimitSettings(int initialLimit, int minLimit, int maxLimit) {
+            this.initialLimit = initialLimit;
+            this.minLimit = minLimit;
+            this.maxLimit = maxLimit;
+        }
+
+        static LimitSettings fromConfig(Config config) {
+            return new LimitSettings(
+                    config.getInt("initial-limit"),
+                    config.getInt("min-limit"),
+                    config.getInt("max-limit"));
+        }
+    }
+
+    private static final class AimdLimit {
+
+        private final LimitSettings settings;
+        private double limit;
+        private int inFlight;
+
+        AimdLimit(LimitSettings settings) {
+            this.settings = settings;
+            this.limit = settings.initialLimit;
+        }
+
+        int limit() {
+            return (int) limit;
+        }
+
+        /** 释放一条未确认的消息, 同时调整上限 */
+        void release(boolean drop, double backoffRatio) {
+            if (drop) {
+                limit = Math.max(settings.minLimit, limit * backoffRatio);
+            } else if (inFlight * 2 >= limit) {
+                limit = Math.min(settings.maxLimit, limit + 1);
+            }
+            inFlight = Math.max(0, inFlight - 1);
+        }
+    }
+}
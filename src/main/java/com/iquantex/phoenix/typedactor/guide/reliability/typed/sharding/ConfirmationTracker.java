@@ -0,0 +1,156 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoResponse;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.EntityConfirmed;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.ActorContext;
+import akka.actor.typed.javadsl.Behaviors;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@link TodoService} 不使用 ask 时, 在 actor 内部关联 MessageWithConfirmation 的确认.
+ *
+ * <p>1. ShardingProducerController 对同一个 TodoList 的确认按发送顺序回复, 所以每个有未确认消息的 TodoList 只需要一个转发确认的子
+ * actor, 收到 Done 时确认该 TodoList 队列中最早的消息. 队列为空后子 actor 保留一个超时时间, 期间同一个 TodoList 的新消息复用它, 并发较低 (每个
+ * TodoList 只有一条未确认的消息) 时不会每条消息创建和停止一个 actor. 空闲超过超时时间后才停止
+ *
+ * <p>2. 超时时间固定, 所有未确认的消息按发送时间排在一个队列中, 由一个周期定时器统一检查, 不需要每条消息一个定时器. 超时的消息仍然留在 TodoList 的队列中,
+ * 之后到达的确认只出队, 不再回复
+ *
+ * <p>不是线程安全的, 只在 {@link TodoService} 中使用
+ */
+final class ConfirmationTracker {
+
+    private final ActorContext<TodoServiceMessage> context;
+    private final AdmissionController admission;
+    private final long timeoutNanos;
+
+    private final Map<String, EntityQueue> entities = new HashMap<>();
+    /** 按发送时间排序, 即按超时时间排序 */
+    private final ArrayDeque<Pending> deadlines = new ArrayDeque<>();
+    /** 按变为空闲的时间排序, 期间重新使用过的队列在检查时跳过 */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+
+    ConfirmationTracker(
+            ActorContext<TodoServiceMessage> context,
+            AdmissionController admission,
+            Duration timeout) {
+        this.context = context;
+        this.admission = admission;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    /** 记录一条未确认的消息, 返回作为 MessageWithConfirmation.replyTo 的 actor */
+    ActorRef<Done> track(String listId, ActorRef<TodoResponse> replyTo) {
+        EntityQueue queue = entities.get(listId);
+        if (queue == null) {
+            ActorRef<TodoServiceMessage> self = context.getSelf();
+            EntityConfirmed confirmed = new EntityConfirmed(listId);
+            ActorRef<Done> forwarder =
+                    context.spawnAnonymous(
+                            Behaviors.receive(Done.class)
+                                    .onAnyMessage(
+                                            done -> {
+                                                self.tell(confirmed);
+                                                return Behaviors.same();
+                                            })
+                                    .build());
+            queue = new EntityQueue(listId, forwarder);
+            entities.put(listId, queue);
+        }
+        Pending pending = new Pending(listId, replyTo, System.nanoTime());
+        queue.pending.add(pending);
+        deadlines.add(pending);
+        return queue.forwarder;
+    }
+
+    /** 该 TodoList 最早的未确认消息已经确认 */
+    void onConfirmed(String listId) {
+        EntityQueue queue = entities.get(listId);
+        if (queue == null) {
+            return;
+        }
+        Pending pending = queue.pending.poll();
+        if (pending != null && !pending.completed) {
+            pending.completed = true;
+            admission.onConfirmed(listId, System.nanoTime() - pending.sentNanos);
+            pending.replyTo.tell(TodoResponse.ACCEPTED);
+        }
+        if (queue.pending.isEmpty()) {
+            queue.idleSinceNanos = System.nanoTime();
+            idle.add(new Idle(queue, queue.idleSinceNanos));
+        }
+    }
+
+    /** 回复所有超时的消息 */
+    void onTick() {
+        long now = System.nanoTime();
+        Pending head;
+        while ((head = deadlines.peek()) != null
+                && (head.completed || now - head.sentNanos >= timeoutNanos)) {
+            deadlines.poll();
+            if (!head.completed) {
+                head.completed = true;
+                admission.onTimedOut(head.listId);
+                head.replyTo.tell(TodoResponse.MAYBE_ACCEPTED);
+            }
+        }
+        Idle oldest;
+        while ((oldest = idle.peek()) != null && now - oldest.sinceNanos >= timeoutNanos) {
+            idle.poll();
+            EntityQueue queue = oldest.queue;
+            // 空闲期间又有新消息, 或者之后再次空闲 (idle 中还有一个更晚的记录)
+            if (queue.pending.isEmpty() && queue.idleSinceNanos == oldest.sinceNanos) {
+                entities.remove(queue.listId);
+                context.stop(queue.forwarder);
+            }
+        }
+    }
+
+    private static final class EntityQueue {
+
+        private final String listId;
+        private final ActorRef<Done> forwarder;
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        /** 最近一次队列变为空的时间 */
+        private long idleSinceNanos;
+
+        EntityQueue(String listId, ActorRef<Done> forwarder) {
+            this.listId = listId;
+            this.forwarder = forwarder;
+        }
+    }
+
+    private static final class Idle {
+
+        private final EntityQueue queue;
+        private final long sinceNanos;
+
+        Idle(EntityQueue queue, long sinceNanos) {
+            this.queue = queue;
+            this.sinceNanos = sinceNanos;
+        }
+    }
+
+    private static final class Pending {
+
+        private final String listId;
+        private final ActorRef<TodoResponse> replyTo;
+        private final long sentNanos;
+        /** 已经确认或者已经超时 */
+        private boolean completed;
+
+        Pending(String listId, ActorRef<TodoResponse> replyTo, long sentNanos) {
+            this.listId = listId;
+            this.replyTo = replyTo;
+            this.sentNanos = sentNanos;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding;
 import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.AddTask;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.BatchSaveSuccess;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.CommandDelivery;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.CompleteTask;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.DBError;
@@ -18,27 +19,64 @@ import akka.actor.typed.javadsl.AbstractBehavior;
 import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
+import akka.actor.typed.javadsl.TimerScheduler;
 
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 
-/** @author AndyChen */
+/**
+ * 分片的 TodoList 消费者, 每条投递在保存到数据库之后确认, 保证至少一次.
+ *
+ * <p>组提交模式: 同一时间只有一个保存在进行, 保存进行中收到的投递只修改内存中的状态, 保存完成后合并为一次保存, 保存成功后再一起确认. 每次保存都写入最新的 {@link
+ * TodoState}, 没有确认的投递在重启后由生产者重新发送, 仍然是至少一次.
+ *
+ * <p>每个 ConsumerController 在上一条投递确认之前不会投递下一条, 所以一批最多包含每个生产者的一条投递, 不需要额外限制批次大小. 确认之后各个生产者的下一条投递陆续到达,
+ * 没有保存进行时最多等待 commitDelay, 收到与上一批同样多的投递后立即保存
+ *
+ * @author AndyChen
+ */
 public class TodoListActor extends AbstractBehavior<TodoListMessage> {
 
+    private static final Object FLUSH_KEY = "flush";
+
     private final String id;
     private final DB db;
     private TodoState state;
     private final ActorRef<Start<TodoListMessage>> consumerController;
+    /** 组提交模式的等待时间, null 表示逐条保存 */
+    private final Duration commitDelay;
+
+    private final TimerScheduler<TodoListMessage> timers;
+    /** 组提交模式下, 已经修改了状态, 等待下一次保存的投递 */
+    private List<ActorRef<ConsumerController.Confirmed>> pending = new ArrayList<>();
+    /** 组提交模式下, 是否有保存正在进行 */
+    private boolean saving;
+    /** 预计一批的投递数量, 即活跃的生产者数量 */
+    private int expectedBatchSize = 1;
 
     public TodoListActor(
             ActorContext<TodoListMessage> ctx,
             String id,
             DB db,
             ActorRef<Start<TodoListMessage>> consumerController) {
+        this(ctx, null, id, db, consumerController, null);
+    }
+
+    private TodoListActor(
+            ActorContext<TodoListMessage> ctx,
+            TimerScheduler<TodoListMessage> timers,
+            String id,
+            DB db,
+            ActorRef<Start<TodoListMessage>> consumerController,
+            Duration commitDelay) {
         super(ctx);
         this.id = id;
         this.db = db;
         this.state = new TodoState(new ArrayList<>());
         this.consumerController = consumerController;
+        this.timers = timers;
+        this.commitDelay = commitDelay;
     }
 
     public static Behavior<TodoListMessage> create(
@@ -47,26 +85,53 @@ public class TodoListActor extends AbstractBehavior<TodoListMessage> {
             ActorRef<ConsumerController.Start<TodoListMessage>> consumerController) {
         return Behaviors.setup(
                 ctx -> {
-                    ctx.pipeToSelf(
-                            db.load(id), // 加载数据库
-                            (state, ex) -> {
-                                ctx.getLog().info("Actor ID={}", id);
-                                if (ex == null) {
-                                    return new InitialState(state);
-                                } else {
-                                    return new DBError(new RuntimeException(ex));
-                                }
-                            });
+                    load(ctx, id, db);
                     return new TodoListActor(ctx, id, db, consumerController);
                 });
     }
 
+    /**
+     * 组提交模式, commitDelay 为 0 时只合并保存进行中收到的投递.
+     *
+     * <p>一批最多包含每个生产者的一条投递, 只有多个生产者 (例如多个节点上的 {@link TodoService}) 同时写同一个 TodoList 时才会合并.
+     * 只有一个生产者时批次大小总是 1, commitDelay 只会增加延迟, 所以默认的 {@link #create(String, DB, ActorRef)} 逐条保存
+     */
+    public static Behavior<TodoListMessage> create(
+            String id,
+            DB db,
+            ActorRef<ConsumerController.Start<TodoListMessage>> consumerController,
+            Duration commitDelay) {
+        return Behaviors.setup(
+                ctx ->
+                        Behaviors.withTimers(
+                                timers -> {
+                                    load(ctx, id, db);
+                                    return new TodoListActor(
+                                            ctx, timers, id, db, consumerController, commitDelay);
+                                }));
+    }
+
+    private static void load(ActorContext<TodoListMessage> ctx, String id, DB db) {
+        ctx.pipeToSelf(
+                db.load(id), // 加载数据库
+                (state, ex) -> {
+                    ctx.getLog().info("Actor ID={}", id);
+                    if (ex == null) {
+                        return new InitialState(state);
+                    } else {
+                        return new DBError(new RuntimeException(ex));
+                    }
+                });
+    }
+
     @Override
     public Receive<TodoListMessage> createReceive() {
         return newReceiveBuilder()
                 .onMessage(InitialState.class, this::onInitialState)
                 .onMessage(CommandDelivery.class, this::onDelivery)
                 .onMessage(SaveSuccess.class, this::onSaveSuccess)
+                .onMessage(BatchSaveSuccess.class, this::onBatchSaveSuccess)
+                .onMessageEquals(Flush.INSTANCE, this::onFlush)
                 .onMessage(DBError.class, this::onDBError)
                 .build();
     }
@@ -77,7 +142,11 @@ public class TodoListActor extends AbstractBehavior<TodoListMessage> {
                         .messageAdapter(
                                 ConsumerController.deliveryClass(),
                                 d -> new CommandDelivery(d.message(), d.confirmTo()));
-        getContext().getLog().info("TodoList 初始化,{}.{}", initial, deliveryAdapter.path());
+        // 数据库中没有时为 null, 保持空列表
+        if (initial.getState() != null) {
+            state = initial.getState();
+        }
+        getContext().getLog().info("TodoList 初始化,{}.{}", state, deliveryAdapter.path());
         consumerController.tell(new ConsumerController.Start<>(deliveryAdapter));
         return Behaviors.same();
     }
@@ -101,6 +170,18 @@ public class TodoListActor extends AbstractBehavior<TodoListMessage> {
     }
 
     private void save(TodoState newState, ActorRef<ConsumerController.Confirmed> confirmTo) {
+        if (commitDelay != null) {
+            pending.add(confirmTo);
+            if (saving) {
+                return;
+            }
+            if (pending.size() >= expectedBatchSize || commitDelay.isZero()) {
+                saveBatch();
+            } else if (!timers.isTimerActive(FLUSH_KEY)) {
+                timers.startSingleTimer(FLUSH_KEY, Flush.INSTANCE, commitDelay);
+            }
+            return;
+        }
         getContext()
                 .pipeToSelf(
                         db.save(id, newState),
@@ -118,7 +199,52 @@ public class TodoListActor extends AbstractBehavior<TodoListMessage> {
         return this;
     }
 
+    /** 保存当前状态, 覆盖所有等待保存的投递 */
+    private void saveBatch() {
+        timers.cancel(FLUSH_KEY);
+        List<ActorRef<ConsumerController.Confirmed>> batch = pending;
+        pending = new ArrayList<>();
+        saving = true;
+        getContext()
+                .pipeToSelf(
+                        db.save(id, state),
+                        (done, exc) -> {
+                            if (exc == null) {
+                                return new BatchSaveSuccess(batch);
+                            } else {
+                                return new DBError(new Exception(exc));
+                            }
+                        });
+    }
+
+    private Behavior<TodoListMessage> onBatchSaveSuccess(BatchSaveSuccess success) {
+        getContext().getLog().debug("TodoList 保存一次, 确认 {} 条投递", success.getConfirmTo().size());
+        success.getConfirmTo().forEach(confirmTo -> confirmTo.tell(ConsumerController.confirmed()));
+        saving = false;
+        // 刚确认的生产者很快会投递下一条, 与保存期间到达的投递合并为一批
+        expectedBatchSize = success.getConfirmTo().size() + pending.size();
+        if (commitDelay.isZero() && !pending.isEmpty()) {
+            saveBatch();
+        } else if (!pending.isEmpty()) {
+            timers.startSingleTimer(FLUSH_KEY, Flush.INSTANCE, commitDelay);
+        }
+        return this;
+    }
+
+    /** 等待时间到期, 没有收到更多的投递 */
+    private Behavior<TodoListMessage> onFlush() {
+        if (!saving && !pending.isEmpty()) {
+            saveBatch();
+        }
+        return this;
+    }
+
     private Behavior<TodoListMessage> onDBError(DBError error) throws Exception {
         throw error.getCause();
     }
+
+    /** 组提交等待时间到期 */
+    private enum Flush implements TodoListMessage {
+        INSTANCE
+    }
 }
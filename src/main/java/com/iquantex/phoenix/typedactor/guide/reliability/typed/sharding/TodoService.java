@@ -6,6 +6,8 @@ import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessag
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoResponse;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.Confirmed;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.EntityConfirmed;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.GetAdmissionMetrics;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.TimedOut;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.UpdateTodo;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.WrappedRequestNext;
@@ -23,29 +25,88 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
 
-/** @author AndyChen */
+/**
+ * TodoList 的生产者, 通过 ShardingProducerController 把更新可靠地发送给分片的 {@link TodoListActor}.
+ *
+ * <p>未确认的消息数量超过 {@link AdmissionController} 的上限时直接拒绝
+ *
+ * <p>默认每条消息通过 ask 等待确认, 每次 ask 都会创建一个临时 actor 和一个定时器. 指定 confirmTimeout 时改为由 {@link
+ * ConfirmationTracker} 在 actor 内部关联确认, 超时由一个周期定时器统一检查
+ *
+ * @author AndyChen
+ */
 @Slf4j
 public class TodoService extends AbstractBehavior<TodoServiceMessage> {
 
     private ShardingProducerController.RequestNext<TodoListMessage> requestNext;
+    private final AdmissionController admission;
+    /** 不使用 ask 时关联确认, null 表示使用 ask */
+    private final ConfirmationTracker tracker;
 
     public TodoService(ActorContext<TodoServiceMessage> context) {
+        this(context, AdmissionController.fromConfig(context.getSystem().settings().config()));
+    }
+
+    public TodoService(ActorContext<TodoServiceMessage> context, AdmissionController admission) {
+        this(context, admission, null);
+    }
+
+    private TodoService(
+            ActorContext<TodoServiceMessage> context,
+            AdmissionController admission,
+            ConfirmationTracker tracker) {
         super(context);
+        this.admission = admission;
+        this.tracker = tracker;
     }
 
+    /** 准入控制读取 todo.admission 配置 */
     public static Behavior<TodoServiceMessage> create(
             ActorRef<Command<TodoListMessage>> producerController) {
         return Behaviors.setup(
-                ctx -> {
-                    ActorRef<ShardingProducerController.RequestNext<TodoListMessage>>
-                            requestNextAdapter =
-                                    ctx.messageAdapter(
-                                            ShardingProducerController.requestNextClass(),
-                                            WrappedRequestNext::new);
-                    producerController.tell(
-                            new ShardingProducerController.Start<>(requestNextAdapter));
-                    return new TodoService(ctx);
-                });
+                ctx ->
+                        start(
+                                ctx,
+                                producerController,
+                                AdmissionController.fromConfig(ctx.getSystem().settings().config()),
+                                null));
+    }
+
+    public static Behavior<TodoServiceMessage> create(
+            ActorRef<Command<TodoListMessage>> producerController, AdmissionController admission) {
+        return Behaviors.setup(ctx -> start(ctx, producerController, admission, null));
+    }
+
+    /** 不使用 ask, 在 actor 内部关联确认, confirmTimeout 内没有确认时回复 MAYBE_ACCEPTED */
+    public static Behavior<TodoServiceMessage> create(
+            ActorRef<Command<TodoListMessage>> producerController,
+            AdmissionController admission,
+            Duration confirmTimeout) {
+        return Behaviors.setup(
+                ctx ->
+                        Behaviors.withTimers(
+                                timers -> {
+                                    timers.startTimerAtFixedRate(
+                                            Tick.INSTANCE, confirmTimeout.dividedBy(10));
+                                    return start(
+                                            ctx,
+                                            producerController,
+                                            admission,
+                                            new ConfirmationTracker(
+                                                    ctx, admission, confirmTimeout));
+                                }));
+    }
+
+    private static TodoService start(
+            ActorContext<TodoServiceMessage> ctx,
+            ActorRef<Command<TodoListMessage>> producerController,
+            AdmissionController admission,
+            ConfirmationTracker tracker) {
+        ActorRef<ShardingProducerController.RequestNext<TodoListMessage>> requestNextAdapter =
+                ctx.messageAdapter(
+                        ShardingProducerController.requestNextClass(), WrappedRequestNext::new);
+        producerController.tell(new ShardingProducerController.Start<>(requestNextAdapter));
+        return new TodoService(ctx, admission, tracker);
     }
 
     @Override
@@ -63,13 +124,16 @@ public class TodoService extends AbstractBehavior<TodoServiceMessage> {
                 .onMessage(UpdateTodo.class, this::onUpdateTodo)
                 .onMessage(Confirmed.class, this::onConfirmed)
                 .onMessage(TimedOut.class, this::onTimedOut)
+                .onMessage(GetAdmissionMetrics.class, this::onGetAdmissionMetrics)
+                .onMessage(EntityConfirmed.class, this::onEntityConfirmed)
+                .onMessageEquals(Tick.INSTANCE, this::onTick)
                 .build();
     }
 
     private Behavior<TodoServiceMessage> onUpdateTodo(UpdateTodo command) {
         Integer buffered =
                 requestNext.getBufferedForEntitiesWithoutDemand().get(command.getListId());
-        if (buffered != null && buffered >= 100) {
+        if (!admission.tryAcquire(command.getListId(), buffered == null ? 0 : buffered)) {
             command.getReplyTo().tell(TodoResponse.REJECTED);
         } else {
             TodoListMessage requestMsg;
@@ -81,6 +145,17 @@ public class TodoService extends AbstractBehavior<TodoServiceMessage> {
             getContext()
                     .getLog()
                     .info("Service 推送消息给工作拉取消费者={}，消息={}", command.getListId(), requestMsg);
+            if (tracker != null) {
+                requestNext
+                        .askNextTo()
+                        .tell(
+                                new ShardingProducerController.MessageWithConfirmation<>(
+                                        command.getListId(),
+                                        requestMsg,
+                                        tracker.track(command.getListId(), command.getReplyTo())));
+                return this;
+            }
+            long sentNanos = System.nanoTime();
             getContext()
                     .ask(
                             Done.class,
@@ -91,9 +166,10 @@ public class TodoService extends AbstractBehavior<TodoServiceMessage> {
                                             command.getListId(), requestMsg, askReplyTo),
                             (done, exc) -> {
                                 if (exc == null) {
-                                    return new Confirmed(command.getReplyTo());
+                                    return new Confirmed(
+                                            command.getReplyTo(), command.getListId(), sentNanos);
                                 } else {
-                                    return new TimedOut(command.getReplyTo());
+                                    return new TimedOut(command.getReplyTo(), command.getListId());
                                 }
                             });
         }
@@ -101,12 +177,34 @@ public class TodoService extends AbstractBehavior<TodoServiceMessage> {
     }
 
     private Behavior<TodoServiceMessage> onConfirmed(Confirmed confirmed) {
+        admission.onConfirmed(confirmed.getListId(), System.nanoTime() - confirmed.getSentNanos());
         confirmed.getOriginalReplyTo().tell(TodoResponse.ACCEPTED);
         return this;
     }
 
     private Behavior<TodoServiceMessage> onTimedOut(TimedOut timedOut) {
+        admission.onTimedOut(timedOut.getListId());
         timedOut.getOriginalReplyTo().tell(TodoResponse.MAYBE_ACCEPTED);
         return this;
     }
+
+    private Behavior<TodoServiceMessage> onGetAdmissionMetrics(GetAdmissionMetrics get) {
+        get.getReplyTo().tell(admission.metrics());
+        return this;
+    }
+
+    private Behavior<TodoServiceMessage> onEntityConfirmed(EntityConfirmed confirmed) {
+        tracker.onConfirmed(confirmed.getListId());
+        return this;
+    }
+
+    private Behavior<TodoServiceMessage> onTick() {
+        tracker.onTick();
+        return this;
+    }
+
+    /** 检查确认超时的周期定时器 */
+    private enum Tick implements TodoServiceMessage {
+        INSTANCE
+    }
 }
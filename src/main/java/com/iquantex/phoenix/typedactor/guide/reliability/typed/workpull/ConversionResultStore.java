@@ -0,0 +1,256 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+
+/**
+ * 按 {@link com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionJob#getResultId()}
+ * 保存转换结果.
+ *
+ * <p>1. 内存: 最近写入或读取的结果, 总大小不超过 maxMemoryBytes, 按 LRU 淘汰
+ *
+ * <p>2. 磁盘: 淘汰的结果在 executor 上先写入临时文件, 再原子地重命名为 resultId, 写入完成前仍然可以从内存读取. 进程在写入过程中退出只会留下临时文件,
+ * 不会留下不完整的结果, {@link #open} 时删除这些临时文件
+ *
+ * <p>3. 磁盘上的结果总大小不超过 maxDiskBytes, 超过时删除最早写入的文件, 被删除的结果读取为 Optional.empty(). 已经读取完的结果可以通过 {@link
+ * #delete(UUID)} 提前删除
+ *
+ * <p>读取内存中的结果立即完成, 读取磁盘在 executor 上进行, 不会阻塞调用者. 线程安全, 由 {@link ImageConverterActor} 写入, {@link
+ * WorkManager} 读取
+ */
+@Slf4j
+public final class ConversionResultStore {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final long maxMemoryBytes;
+    private final long maxDiskBytes;
+    private final Executor executor;
+
+    private final LinkedHashMap<UUID, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    /** 已经淘汰, 正在写入磁盘的结果 */
+    private final Map<UUID, byte[]> spilling = new HashMap<>();
+    /** 磁盘上的结果及其大小, 按写入顺序 */
+    private final LinkedHashMap<UUID, Long> disk = new LinkedHashMap<>();
+
+    private long diskBytes;
+
+    private ConversionResultStore(
+            Path directory, long maxMemoryBytes, long maxDiskBytes, Executor executor) {
+        this.directory = directory;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.maxDiskBytes = maxDiskBytes;
+        this.executor = executor;
+    }
+
+    /**
+     * directory 不存在时创建, 磁盘读写在 executor 上进行. directory 中已有的结果按修改时间计入 maxDiskBytes, 上次进程退出时留下的临时文件被删除
+     */
+    public static ConversionResultStore open(
+            Path directory, long maxMemoryBytes, long maxDiskBytes, Executor executor)
+            throws IOException {
+        Files.createDirectories(directory);
+        ConversionResultStore store =
+                new ConversionResultStore(directory, maxMemoryBytes, maxDiskBytes, executor);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparing(ConversionResultStore::lastModified));
+        for (Path file : files) {
+            UUID resultId;
+            try {
+                resultId = UUID.fromString(file.getFileName().toString());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            store.disk.put(resultId, Files.size(file));
+            store.diskBytes += Files.size(file);
+        }
+        store.trimDisk().forEach(store::deleteFile);
+        return store;
+    }
+
+    public void put(UUID resultId, byte[] image) {
+        Map<UUID, byte[]> evicted = new HashMap<>();
+        synchronized (this) {
+            byte[] previous = memory.put(resultId, image);
+            memoryBytes += image.length - (previous == null ? 0 : previous.length);
+            Iterator<Map.Entry<UUID, byte[]>> eldest = memory.entrySet().iterator();
+            while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+                Map.Entry<UUID, byte[]> entry = eldest.next();
+                eldest.remove();
+                memoryBytes -= entry.getValue().length;
+                spilling.put(entry.getKey(), entry.getValue());
+                evicted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        evicted.forEach(this::spill);
+    }
+
+    /** 不存在时为 Optional.empty() */
+    public CompletionStage<Optional<byte[]>> get(UUID resultId) {
+        synchronized (this) {
+            byte[] image = memory.get(resultId);
+            if (image == null) {
+                image = spilling.get(resultId);
+            }
+            if (image != null) {
+                return CompletableFuture.completedFuture(Optional.of(image));
+            }
+        }
+        return CompletableFuture.supplyAsync(
+                () -> {
+                    try {
+                        return Optional.of(Files.readAllBytes(file(resultId)));
+                    } catch (NoSuchFileException e) {
+                        return Optional.empty();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                executor);
+    }
+
+    /** 删除内存和磁盘上的结果, 之后读取为 Optional.empty(). 磁盘上的文件在 executor 上删除, 删除后完成 */
+    public CompletionStage<Void> delete(UUID resultId) {
+        synchronized (this) {
+            byte[] image = memory.remove(resultId);
+            if (image != null) {
+                memoryBytes -= image.length;
+            }
+            // 正在写入磁盘的结果在写入完成后删除
+            spilling.remove(resultId);
+            Long size = disk.remove(resultId);
+            if (size != null) {
+                diskBytes -= size;
+            }
+        }
+        return CompletableFuture.runAsync(() -> deleteFile(resultId), executor);
+    }
+
+    /** 内存中结果的总大小 */
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    /** 磁盘上结果的总大小 */
+    public synchronized long diskBytes() {
+        return diskBytes;
+    }
+
+    private void spill(UUID resultId, byte[] image) {
+        CompletableFuture.runAsync(
+                () -> {
+                    Path temp = null;
+                    boolean written = false;
+                    try {
+                        temp = Files.createTempFile(directory, resultId.toString(), TEMP_SUFFIX);
+                        Files.write(temp, image);
+                        Files.move(
+                                temp,
+                                file(resultId),
+                                StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                        written = true;
+                    } catch (IOException e) {
+                        log.warn("转换结果 [{}] 写入磁盘失败", resultId, e);
+                        deleteQuietly(temp);
+                    }
+                    List<UUID> expired;
+                    synchronized (this) {
+                        if (!spilling.remove(resultId, image)) {
+                            // 写入过程中被删除时删除文件, 再次写入时由之后的写入覆盖
+                            expired =
+                                    written
+                                                    && !spilling.containsKey(resultId)
+                                                    && !disk.containsKey(resultId)
+                                            ? Collections.singletonList(resultId)
+                                            : Collections.emptyList();
+                        } else if (written) {
+                            Long previous = disk.remove(resultId);
+                            disk.put(resultId, (long) image.length);
+                            diskBytes += image.length - (previous == null ? 0 : previous);
+                            expired = trimDisk();
+                        } else {
+                            expired = Collections.emptyList();
+                        }
+                    }
+                    expired.forEach(this::deleteFile);
+                },
+                executor);
+    }
+
+    /** 从磁盘的索引中移除超过 maxDiskBytes 的最早的结果, 返回需要删除的文件 */
+    private synchronized List<UUID> trimDisk() {
+        List<UUID> expired = new ArrayList<>();
+        Iterator<Map.Entry<UUID, Long>> eldest = disk.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<UUID, Long> entry = eldest.next();
+            eldest.remove();
+            diskBytes -= entry.getValue();
+            expired.add(entry.getKey());
+        }
+        return expired;
+    }
+
+    private void deleteFile(UUID resultId) {
+        try {
+            Files.deleteIfExists(file(resultId));
+        } catch (IOException e) {
+            log.warn("转换结果 [{}] 删除失败", resultId, e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("临时文件 [{}] 删除失败", file, e);
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path file(UUID resultId) {
+        return directory.resolve(resultId.toString());
+    }
+}
@@ -0,0 +1,63 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * 通过 ImageIO 转换图片格式, 例如 png, jpeg, bmp, gif.
+ *
+ * <p>jpeg 和 bmp 不支持透明通道, 转换前先以白色为背景去掉透明通道
+ */
+public final class ImageConversion {
+
+    private ImageConversion() {}
+
+    /** 读取或者写入失败时抛出 IOException */
+    public static byte[] convert(byte[] image, String fromFormat, String toFormat)
+            throws IOException {
+        return convert(new ByteArrayInputStream(image), image.length, fromFormat, toFormat);
+    }
+
+    /** 从 image 读取图片, size 为图片的字节数, 用于估计输出的大小 */
+    public static byte[] convert(InputStream image, int size, String fromFormat, String toFormat)
+            throws IOException {
+        BufferedImage source = ImageIO.read(image);
+        if (source == null) {
+            throw new IOException("Unsupported image, expected format [" + fromFormat + "]");
+        }
+        String format = toFormat.toLowerCase(Locale.ROOT);
+        if (source.getColorModel().hasAlpha() && !supportsAlpha(format)) {
+            source = removeAlpha(source);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+        if (!ImageIO.write(source, format, out)) {
+            throw new IOException("Unsupported target format [" + toFormat + "]");
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean supportsAlpha(String format) {
+        return !format.equals("jpg") && !format.equals("jpeg") && !format.equals("bmp");
+    }
+
+    private static BufferedImage removeAlpha(BufferedImage source) {
+        BufferedImage rgb =
+                new BufferedImage(
+                        source.getWidth(), source.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(source, 0, 0, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+}
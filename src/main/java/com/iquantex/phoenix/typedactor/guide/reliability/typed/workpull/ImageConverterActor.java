@@ -1,11 +1,14 @@
 package com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull;
 
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionJob;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionResult;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgConvertMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgConvertMessage.ConversionCompleted;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgConvertMessage.WrapperDelivery;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.DispatcherSelector;
 import akka.actor.typed.delivery.ConsumerController;
 import akka.actor.typed.delivery.ConsumerController.Delivery;
 import akka.actor.typed.delivery.ConsumerController.Start;
@@ -16,68 +19,162 @@ import akka.actor.typed.javadsl.Receive;
 import akka.actor.typed.receptionist.ServiceKey;
 import lombok.extern.slf4j.Slf4j;
 
-import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
-/** @author AndyChen */
+/**
+ * 图片转换的消费者, 在 image-converter-dispatcher 上通过 {@link ImageConversion} 转换图片, 完成后确认.
+ *
+ * <p>每个 ConsumerController 在上一条投递确认之前不会投递下一条, 所以一个 actor 启动 parallelism 个 ConsumerController,
+ * 最多同时进行 parallelism 个转换. 没有配置 image-converter-dispatcher 时使用 Akka 的阻塞线程池
+ *
+ * <p>转换失败同样确认, 避免无法转换的图片被重复投递. 确认前释放图片的堆外缓冲区
+ *
+ * <p>WorkPullingProducerController 收到确认之前, 消费者停止时会把任务重新发送给其他消费者, 所以已经完成的任务可能再次到达. 缓冲区已经释放说明这是重复的投递,
+ * 直接确认, 不再转换, 也不发送结果
+ *
+ * @author AndyChen
+ */
 @Slf4j
 public class ImageConverterActor extends AbstractBehavior<ImgConvertMessage> {
 
-    private long lastWorkTimestamp = 0L;
+    public static final String DISPATCHER = "image-converter-dispatcher";
+
     public static ServiceKey<ConsumerController.Command<ConversionJob>> serviceKey =
             ServiceKey.create(ConsumerController.serviceKeyClass(), "ImageConverterActor");
 
+    private final Executor executor;
+    /** 保存转换结果, 可以为 null */
+    private final ConversionResultStore store;
+    /** 转换结果的接收者, 可以为 null */
+    private final ActorRef<ConversionResult> resultTo;
+
     public ImageConverterActor(ActorContext<ImgConvertMessage> context) {
+        this(context, null, null);
+    }
+
+    public ImageConverterActor(
+            ActorContext<ImgConvertMessage> context,
+            ConversionResultStore store,
+            ActorRef<ConversionResult> resultTo) {
         super(context);
+        DispatcherSelector selector =
+                context.getSystem().settings().config().hasPath(DISPATCHER)
+                        ? DispatcherSelector.fromConfig(DISPATCHER)
+                        : DispatcherSelector.blocking();
+        this.executor = context.getSystem().dispatchers().lookup(selector);
+        this.store = store;
+        this.resultTo = resultTo;
     }
 
     public static Behavior<ImgConvertMessage> create() {
+        return create(1, null, null);
+    }
+
+    /** 最多同时进行 parallelism 个转换, 结果发送给 resultTo, resultTo 可以为 null */
+    public static Behavior<ImgConvertMessage> create(
+            int parallelism, ActorRef<ConversionResult> resultTo) {
+        return create(parallelism, null, resultTo);
+    }
+
+    /** 转换成功的结果写入 store, 之后才确认, store 和 resultTo 都可以为 null */
+    public static Behavior<ImgConvertMessage> create(
+            int parallelism, ConversionResultStore store, ActorRef<ConversionResult> resultTo) {
         return Behaviors.setup(
                 ctx -> {
                     ActorRef<Delivery<ConversionJob>> deliveryAdapter =
                             ctx.messageAdapter(
                                     ConsumerController.deliveryClass(), WrapperDelivery::new);
-                    ActorRef<ConsumerController.Command<ConversionJob>> consumerController =
-                            ctx.spawn(ConsumerController.create(serviceKey), "ControllerName");
-                    consumerController.tell(new Start<>(deliveryAdapter));
-                    return new ImageConverterActor(ctx);
+                    for (int i = 0; i < parallelism; i++) {
+                        ActorRef<ConsumerController.Command<ConversionJob>> consumerController =
+                                ctx.spawn(
+                                        ConsumerController.create(serviceKey),
+                                        "ControllerName-" + i);
+                        consumerController.tell(new Start<>(deliveryAdapter));
+                    }
+                    return new ImageConverterActor(ctx, store, resultTo);
                 });
     }
 
     @Override
     public Receive<ImgConvertMessage> createReceive() {
-        return newReceiveBuilder().onMessage(WrapperDelivery.class, this::handleConversion).build();
+        return newReceiveBuilder()
+                .onMessage(WrapperDelivery.class, this::handleConversion)
+                .onMessage(ConversionCompleted.class, this::handleCompleted)
+                .build();
     }
 
-    private Behavior<ImgConvertMessage> handleConversion(WrapperDelivery wrapper)
-            throws InterruptedException {
-        ConversionJob job = wrapper.getDelivery().message();
-        byte[] image = job.getImage();
-        String fromFormat = job.getFromFormat();
-        String toFormat = job.getToFormat();
-        long sleep = new Random().nextInt(1000) + 1L;
-        long currentTimestamp = System.currentTimeMillis();
-        long delayTime = lastWorkTimestamp == 0L ? currentTimestamp : lastWorkTimestamp;
-        log.info(
-                "模拟消费者[{}]工作,模拟随机耗时[{}ms],距离上一次工作时间[{}ms] ,{},{},{}",
-                getContext().getSelf().path(),
-                sleep,
-                currentTimestamp - delayTime,
-                fromFormat,
-                toFormat,
-                image);
-        lastWorkTimestamp = delayTime;
-        CompletableFuture.runAsync(
-                () -> {
-                    try {
-                        Thread.sleep(sleep);
-                        log.info("{} 模拟工作完成, 接收下一次任务", getContext().getSelf().path());
-                        wrapper.getDelivery().confirmTo().tell(ConsumerController.confirmed());
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                });
+    private Behavior<ImgConvertMessage> handleConversion(WrapperDelivery wrapper) {
+        Delivery<ConversionJob> delivery = wrapper.getDelivery();
+        ConversionJob job = delivery.message();
+        if (job.getImage().isReleased()) {
+            confirmDuplicate(delivery);
+            return Behaviors.same();
+        }
+        CompletableFuture<byte[]> conversion =
+                CompletableFuture.supplyAsync(
+                        () -> {
+                            try {
+                                return ImageConversion.convert(
+                                        job.getImage().newInputStream(),
+                                        job.getImage().size(),
+                                        job.getFromFormat(),
+                                        job.getToFormat());
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        },
+                        executor);
+        getContext()
+                .pipeToSelf(
+                        conversion,
+                        (image, exc) ->
+                                new ConversionCompleted(
+                                        delivery,
+                                        image,
+                                        exc instanceof CompletionException ? exc.getCause() : exc));
+        return Behaviors.same();
+    }
 
+    private Behavior<ImgConvertMessage> handleCompleted(ConversionCompleted completed) {
+        ConversionJob job = completed.getDelivery().message();
+        if (completed.getFailure() != null && job.getImage().isReleased()) {
+            // 转换期间同一个任务的另一次投递已经完成, 缓冲区被释放
+            confirmDuplicate(completed.getDelivery());
+            return Behaviors.same();
+        }
+        if (completed.getFailure() != null) {
+            log.warn(
+                    "转换失败 [{}], {} -> {}: {}",
+                    job.getResultId(),
+                    job.getFromFormat(),
+                    job.getToFormat(),
+                    completed.getFailure().getMessage());
+        } else {
+            if (store != null) {
+                store.put(job.getResultId(), completed.getImage());
+            }
+            log.debug(
+                    "转换完成 [{}], {} -> {}, {} 字节",
+                    job.getResultId(),
+                    job.getFromFormat(),
+                    job.getToFormat(),
+                    completed.getImage().length);
+        }
+        // 确认之后不会再投递, 释放堆外缓冲区
+        job.getImage().release();
+        if (resultTo != null) {
+            resultTo.tell(
+                    new ConversionResult(
+                            job.getResultId(), job.getToFormat(), completed.getImage()));
+        }
+        completed.getDelivery().confirmTo().tell(ConsumerController.confirmed());
         return Behaviors.same();
     }
+
+    private void confirmDuplicate(Delivery<ConversionJob> delivery) {
+        log.debug("重复投递的任务 [{}] 已经处理完成, 直接确认", delivery.message().getResultId());
+        delivery.confirmTo().tell(ConsumerController.confirmed());
+    }
 }
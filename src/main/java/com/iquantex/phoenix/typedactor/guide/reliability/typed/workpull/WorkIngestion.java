@@ -0,0 +1,110 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
+
+import akka.Done;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.ActorSystem;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.japi.Pair;
+import akka.stream.OverflowStrategy;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link WorkManager} 的反压入口, 替代直接 tell {@link Covert}.
+ *
+ * <p>1. 请求先进入 {@link OverflowStrategy#backpressure()} 的 Source.queue, 队列满时 {@link #offer(Covert)}
+ * 返回的 CompletionStage 直到有空位才完成, 生产者等待它完成后再提交下一个, 因此会放慢而不是丢失请求
+ *
+ * <p>2. 流中通过 ask 把请求发给 WorkManager, WorkManager 在任务发送给 WorkPullingProducerController 之后才回复
+ * resultId, 所以 mapAsync 的 parallelism 就是 WorkManager 中最多暂存的任务数, RequestNext 的需求直接反压到队列. parallelism
+ * 不超过 {@link WorkManager#STASH_CAPACITY}, 暂存不会满
+ *
+ * <p>3. ask 超时说明消费者长时间没有需求, 任务仍然在 WorkManager 中等待发送. 如果超时后继续接收新的请求, 暂存的任务会超过 parallelism,
+ * 反复超时最终会超过暂存上限并丢弃任务. 所以超时时整个流失败: 之后的 {@link #offer(Covert)} 和 {@link #complete()} 都以失败完成,
+ * 生产者可以据此停止提交或者重新创建 WorkIngestion. askTimeout 应该远大于单个任务的处理时间
+ */
+@Slf4j
+public final class WorkIngestion {
+
+    private final SourceQueueWithComplete<Covert> queue;
+    private final CompletionStage<Done> done;
+
+    /**
+     * @param bufferSize 队列中等待发送给 WorkManager 的请求数
+     * @param maxConcurrentOffers 同时等待的 offer 数, 超过时 offer 失败
+     * @param parallelism 同时等待 WorkManager 发送的请求数
+     * @param askTimeout 等待 WorkManager 发送的时间
+     */
+    public WorkIngestion(
+            ActorSystem<?> system,
+            ActorRef<ImgWorkMessage> workManager,
+            int bufferSize,
+            int maxConcurrentOffers,
+            int parallelism,
+            Duration askTimeout) {
+        if (parallelism > WorkManager.STASH_CAPACITY) {
+            throw new IllegalArgumentException(
+                    "parallelism must not exceed " + WorkManager.STASH_CAPACITY);
+        }
+        Pair<SourceQueueWithComplete<Covert>, CompletionStage<Done>> pair =
+                Source.<Covert>queue(
+                                bufferSize, OverflowStrategy.backpressure(), maxConcurrentOffers)
+                        .mapAsync(
+                                parallelism,
+                                covert -> dispatch(system, workManager, covert, askTimeout))
+                        .toMat(Sink.ignore(), Keep.both())
+                        .run(system);
+        this.queue = pair.first();
+        this.done = pair.second();
+    }
+
+    /**
+     * 请求进入队列后完成, 队列已满时等待. covert 的 replyTo 不为 null 时, 任务发送后回复 resultId
+     *
+     * <p>同时等待的 offer 超过 maxConcurrentOffers 时以 IllegalStateException 失败, 调用 {@link #complete()}
+     * 之后返回 {@code QueueOfferResult.QueueClosed}
+     */
+    public CompletionStage<QueueOfferResult> offer(Covert covert) {
+        return queue.offer(covert);
+    }
+
+    /** 不再接收请求, 队列中的请求仍然会发送, 全部发送后完成. 等待发送超时时以失败完成 */
+    public CompletionStage<Done> complete() {
+        queue.complete();
+        return done;
+    }
+
+    /** WorkManager 发送任务后完成, 超时时失败, 流随之失败, 不会有更多的任务进入暂存 */
+    private static CompletionStage<Done> dispatch(
+            ActorSystem<?> system,
+            ActorRef<ImgWorkMessage> workManager,
+            Covert covert,
+            Duration askTimeout) {
+        return AskPattern.<ImgWorkMessage, UUID>ask(
+                        workManager, covert::withReplyTo, askTimeout, system.scheduler())
+                .thenApply(
+                        resultId -> {
+                            if (covert.getReplyTo() != null) {
+                                covert.getReplyTo().tell(resultId);
+                            }
+                            return Done.getInstance();
+                        })
+                .whenComplete(
+                        (done, exc) -> {
+                            if (exc != null) {
+                                log.warn("等待 WorkManager 发送任务超时, 停止接收请求", exc);
+                            }
+                        });
+    }
+}
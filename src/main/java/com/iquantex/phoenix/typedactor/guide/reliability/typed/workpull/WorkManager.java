@@ -1,12 +1,17 @@
 package com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull;
 
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.DirectBufferPool;
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.ImagePayload;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionJob;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.GetResult;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.PendingJob;
 import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.WrapperRequestNext;
 
 import akka.actor.typed.ActorRef;
 import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.DurableProducerQueue;
 import akka.actor.typed.delivery.WorkPullingProducerController;
 import akka.actor.typed.delivery.WorkPullingProducerController.RequestNext;
 import akka.actor.typed.delivery.WorkPullingProducerController.Start;
@@ -15,26 +20,93 @@ import akka.actor.typed.javadsl.ActorContext;
 import akka.actor.typed.javadsl.Behaviors;
 import akka.actor.typed.javadsl.Receive;
 import akka.actor.typed.javadsl.StashBuffer;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.delivery.EventSourcedProducerQueue;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.Optional;
 import java.util.UUID;
 
-/** @author AndyChen */
+/**
+ * 图片转换的生产者, 收到的图片先复制到 {@link DirectBufferPool} 的堆外缓冲区, 暂存和发送的都只是 {@link ImagePayload} 句柄.
+ *
+ * <p>没有需求时最多暂存 {@link #STASH_CAPACITY} 个任务, 超过时丢弃. 需要反压生产者时通过 {@link WorkIngestion} 提交
+ *
+ * @author AndyChen
+ */
 @Slf4j
 public class WorkManager extends AbstractBehavior<ImgWorkMessage> {
 
+    /** 没有需求时最多暂存的任务数 */
+    public static final int STASH_CAPACITY = 1000;
+
     private final ActorContext<ImgWorkMessage> ctx;
     private final StashBuffer<ImgWorkMessage> stashBuffer;
+    private final DirectBufferPool pool;
+    /** 转换结果, 为 null 时 GetResult 总是回复 Optional.empty() */
+    private final ConversionResultStore store;
+    /** 持久化队列的状态引用已经发送的任务, 图片放在堆内, 见 {@link ImagePayload#onHeap(byte[])} */
+    private final boolean durable;
 
     public WorkManager(
             ActorContext<ImgWorkMessage> context, StashBuffer<ImgWorkMessage> stashBuffer) {
+        this(context, stashBuffer, DirectBufferPool.DEFAULT, null);
+    }
+
+    public WorkManager(
+            ActorContext<ImgWorkMessage> context,
+            StashBuffer<ImgWorkMessage> stashBuffer,
+            DirectBufferPool pool,
+            ConversionResultStore store) {
+        this(context, stashBuffer, pool, store, false);
+    }
+
+    public WorkManager(
+            ActorContext<ImgWorkMessage> context,
+            StashBuffer<ImgWorkMessage> stashBuffer,
+            DirectBufferPool pool,
+            ConversionResultStore store,
+            boolean durable) {
         super(context);
         this.ctx = context;
         this.stashBuffer = stashBuffer;
+        this.pool = pool;
+        this.store = store;
+        this.durable = durable;
     }
 
     public static Behavior<ImgWorkMessage> create() {
+        return create(DirectBufferPool.DEFAULT, null);
+    }
+
+    public static Behavior<ImgWorkMessage> create(DirectBufferPool pool) {
+        return create(pool, null);
+    }
+
+    /** 从 store 读取 {@link ImageConverterActor} 写入的转换结果 */
+    public static Behavior<ImgWorkMessage> create(
+            DirectBufferPool pool, ConversionResultStore store) {
+        return create(pool, store, "workManager", false);
+    }
+
+    /**
+     * durable 为 true 时, 已经发送还没有确认的任务通过 EventSourcedProducerQueue 保存在 jdbc-journal 中, 重启后重新发送.
+     * producerId 同时作为持久化队列的 persistenceId, 需要唯一.
+     *
+     * <p>reference-delivery.conf 默认的 jdbc-journal 是内存中的 H2, 只能在同一个 JVM 中重启 WorkManager 后恢复,
+     * 进程退出后任务仍然丢失. 需要在进程崩溃后恢复时, 通过环境变量 DELIVERY_DB_URL 指向文件或者服务器上的数据库
+     */
+    public static Behavior<ImgWorkMessage> create(
+            DirectBufferPool pool,
+            ConversionResultStore store,
+            String producerId,
+            boolean durable) {
+        Optional<Behavior<DurableProducerQueue.Command<ConversionJob>>> durableQueue =
+                durable
+                        ? Optional.of(
+                                EventSourcedProducerQueue.create(
+                                        PersistenceId.ofUniqueId(producerId)))
+                        : Optional.empty();
         return Behaviors.setup(
                 ctx -> {
                     // 消息转换
@@ -48,20 +120,23 @@ public class WorkManager extends AbstractBehavior<ImgWorkMessage> {
                                     ctx.spawn(
                                             WorkPullingProducerController.create(
                                                     ConversionJob.class,
-                                                    "workManager",
+                                                    producerId,
                                                     ImageConverterActor.serviceKey,
-                                                    Optional.empty()),
+                                                    durableQueue),
                                             "WorkPullControllerName");
                     producerController.tell(new Start<>(messageAdapter));
 
-                    return Behaviors.withStash(1000, stash -> new WorkManager(ctx, stash));
+                    return Behaviors.withStash(
+                            STASH_CAPACITY,
+                            stash -> new WorkManager(ctx, stash, pool, store, durable));
                 });
     }
 
     @Override
     public Receive<ImgWorkMessage> createReceive() {
         return newReceiveBuilder()
-                .onMessage(ImgWorkMessage.Covert.class, this::handleConvert)
+                .onMessage(Covert.class, this::handleConvert)
+                .onMessage(PendingJob.class, this::handlePending)
                 .onMessage(GetResult.class, this::handleGet)
                 .onMessage(WrapperRequestNext.class, this::handleRequestNext)
                 .build();
@@ -71,39 +146,72 @@ public class WorkManager extends AbstractBehavior<ImgWorkMessage> {
         return stashBuffer.unstashAll(active(msg.getNext()));
     }
 
+    /** 结果从 store 异步读取后直接回复, 不阻塞 WorkManager */
     private Behavior<ImgWorkMessage> handleGet(GetResult msg) {
+        if (store == null) {
+            msg.getReplyTo().tell(Optional.empty());
+            return Behaviors.same();
+        }
+        store.get(msg.getResultId())
+                .whenComplete(
+                        (image, exc) -> {
+                            if (exc != null) {
+                                log.warn("读取转换结果 [{}] 失败", msg.getResultId(), exc);
+                                msg.getReplyTo().tell(Optional.empty());
+                            } else {
+                                msg.getReplyTo().tell(image);
+                            }
+                        });
         return Behaviors.same();
     }
 
     /** 暂存转换任务 */
-    private Behavior<ImgWorkMessage> handleConvert(ImgWorkMessage.Covert msg) {
+    private Behavior<ImgWorkMessage> handleConvert(Covert msg) {
         if (stashBuffer.isFull()) {
             ctx.getLog().warn("Too many Convert requests.");
+            if (msg.getPayload() != null) {
+                msg.getPayload().release();
+            }
             return Behaviors.same();
         } else {
-            stashBuffer.stash(msg);
+            stashBuffer.stash(new PendingJob(toJob(msg), msg.getReplyTo()));
             return Behaviors.same();
         }
     }
 
+    /** 取出暂存的任务后没有需求, 重新暂存 */
+    private Behavior<ImgWorkMessage> handlePending(PendingJob msg) {
+        stashBuffer.stash(msg);
+        return Behaviors.same();
+    }
+
+    /** 分配 resultId, 还没有复制到堆外时复制. 持久化时复制到堆内 */
+    private ConversionJob toJob(Covert msg) {
+        ImagePayload payload;
+        if (durable) {
+            byte[] image;
+            if (msg.getPayload() != null) {
+                image = msg.getPayload().toByteArray();
+                msg.getPayload().release();
+            } else {
+                image = msg.getImage().clone();
+            }
+            payload = ImagePayload.onHeap(image);
+        } else {
+            payload =
+                    msg.getPayload() != null
+                            ? msg.getPayload()
+                            : ImagePayload.copyOf(msg.getImage(), pool);
+        }
+        return new ConversionJob(
+                UUID.randomUUID(), msg.getFromFormat(), msg.getToFormat(), payload);
+    }
+
     private Behavior<ImgWorkMessage> active(
             WorkPullingProducerController.RequestNext<ConversionJob> next) {
         return Behaviors.receive(ImgWorkMessage.class)
-                .onMessage(
-                        ImgWorkMessage.Covert.class,
-                        job -> {
-                            UUID uuid = UUID.randomUUID();
-                            log.info("模拟发布工作任务");
-                            next.sendNextTo()
-                                    .tell(
-                                            new ConversionJob(
-                                                    uuid,
-                                                    job.getFromFormat(),
-                                                    job.getToFormat(),
-                                                    job.getImage()));
-                            // 转换成原有的行为
-                            return createReceive();
-                        })
+                .onMessage(Covert.class, msg -> send(next, toJob(msg), msg.getReplyTo()))
+                .onMessage(PendingJob.class, msg -> send(next, msg.getJob(), msg.getReplyTo()))
                 .onMessage(GetResult.class, this::handleGet)
                 .onMessage(
                         WrapperRequestNext.class,
@@ -113,4 +221,18 @@ public class WorkManager extends AbstractBehavior<ImgWorkMessage> {
                         })
                 .build();
     }
+
+    /** 发送之后才回复 resultId, 调用方可以把回复作为需求, 见 {@link WorkIngestion} */
+    private Behavior<ImgWorkMessage> send(
+            WorkPullingProducerController.RequestNext<ConversionJob> next,
+            ConversionJob job,
+            ActorRef<UUID> replyTo) {
+        log.debug("发布工作任务 [{}]", job.getResultId());
+        next.sendNextTo().tell(job);
+        if (replyTo != null) {
+            replyTo.tell(job.getResultId());
+        }
+        // 转换成原有的行为
+        return createReceive();
+    }
 }
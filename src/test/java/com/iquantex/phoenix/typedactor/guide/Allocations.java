@@ -0,0 +1,33 @@
+package com.iquantex.phoenix.typedactor.guide;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 测试中统计内存分配的工具方法.
+ *
+ * <p>项目中没有引入 JMH, 通过 {@link com.sun.management.ThreadMXBean} 读取线程的累计分配字节数
+ */
+public final class Allocations {
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private Allocations() {}
+
+    /** 执行 runnable 期间当前线程分配的字节数, 适用于只在调用线程上同步执行的代码 */
+    public static long ofCurrentThread(Runnable runnable) {
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(threadId);
+        runnable.run();
+        return THREADS.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /** 所有存活线程累计分配的字节数之和, 两次调用的差值包括期间 JVM 中所有线程的分配 */
+    public static long ofAllThreads() {
+        long total = 0;
+        for (long bytes : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            total += Math.max(0, bytes);
+        }
+        return total;
+    }
+}
@@ -0,0 +1,169 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Query;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialUpdateValue;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.UpdateValue;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModel.Snapshot;
+import com.iquantex.phoenix.typedactor.guide.actor.TrialUpdatePipeline.GetStats;
+import com.iquantex.phoenix.typedactor.guide.actor.TrialUpdatePipeline.Stats;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.typed.PersistenceId;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link MarketDataActor} 的持久化, {@link MarketDataBatcher} 的攒批持久化和溯源, 以及 {@link
+ * TrialUpdatePipeline} 在大量并发试算下的表现, 以及 {@link MarketDataReadModel} 读模型
+ */
+@Slf4j
+public class MarketDataActorTest {
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit =
+                ActorTestKit.create(
+                        "MarketDataActorTest", ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 5 个更新在窗口内被合并为 2 批持久化, 每个调用方依然收到各自的结果, 重启后能从批量事件中正确溯源 */
+    @Test
+    public void batchUpdate_andRecovery_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("market-" + UUID.randomUUID());
+        ActorRef<Message> actor = testKit.spawn(MarketDataActor.create(persistenceId));
+        ActorRef<Message> batcher =
+                testKit.spawn(MarketDataBatcher.create(actor, 3, Duration.ofMillis(50)));
+
+        TestProbe<State> probe = testKit.createTestProbe();
+        for (long i = 1; i <= 5; i++) {
+            batcher.tell(new UpdateValue(i, probe.getRef()));
+        }
+        long expected = 0;
+        for (long i = 1; i <= 5; i++) {
+            expected += i;
+            assertEquals(expected, probe.receiveMessage(Duration.ofSeconds(3)).getValue());
+        }
+
+        // 重启 Actor, 验证批量事件的溯源
+        testKit.stop(actor);
+        ActorRef<Message> recovered = testKit.spawn(MarketDataActor.create(persistenceId));
+        recovered.tell(new Query(probe.getRef()));
+        assertEquals(expected, probe.receiveMessage(Duration.ofSeconds(3)).getValue());
+    }
+
+    /** 1 万个并发试算经过管道, 同时在途的请求不超过 256, 所有请求都能得到回复且没有超时 */
+    @Test
+    public void concurrentTrialUpdate_load_case() {
+        int requests = 10_000;
+        ActorRef<Message> actor =
+                testKit.spawn(
+                        MarketDataActor.create(
+                                PersistenceId.ofUniqueId("market-" + UUID.randomUUID())));
+        ActorRef<Message> pipeline =
+                testKit.spawn(
+                        TrialUpdatePipeline.create(actor, 256, requests, Duration.ofSeconds(10)));
+
+        TestProbe<State> probe = testKit.createTestProbe();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            pipeline.tell(new TrialUpdateValue(1L, probe.getRef()));
+        }
+        probe.receiveSeveralMessages(requests, Duration.ofSeconds(60));
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info(
+                "{} 个试算耗时 {}ms, 吞吐 {}/s",
+                requests,
+                elapsedMillis,
+                requests * 1000L / elapsedMillis);
+
+        TestProbe<Stats> statsProbe = testKit.createTestProbe();
+        pipeline.tell(new GetStats(statsProbe.getRef()));
+        Stats stats = statsProbe.receiveMessage();
+        assertEquals(requests, stats.getCompleted());
+        assertEquals(0, stats.getTimedOut());
+        assertEquals(0, stats.getRejected());
+    }
+
+    /** 第一个试算就被拒绝时回复 Live 状态, 排在试算之后的更新不会超过它 */
+    @Test
+    public void trialRejectedAndOrdering_case() {
+        ActorRef<Message> actor =
+                testKit.spawn(
+                        MarketDataActor.create(
+                                PersistenceId.ofUniqueId("market-" + UUID.randomUUID())));
+        TestProbe<State> probe = testKit.createTestProbe();
+
+        // 不允许排队, 第二个试算被拒绝, 此时还没有最近一次的试算状态
+        ActorRef<Message> rejecting =
+                testKit.spawn(TrialUpdatePipeline.create(actor, 1, 0, Duration.ofSeconds(10)));
+        rejecting.tell(new TrialUpdateValue(1L, probe.getRef()));
+        rejecting.tell(new TrialUpdateValue(2L, probe.getRef()));
+        State first = probe.receiveMessage();
+        State second = probe.receiveMessage();
+        assertTrue(first instanceof TrialState || second instanceof TrialState);
+        assertTrue(first instanceof LiveState || second instanceof LiveState);
+
+        // 第二个试算在队列中等待时收到的更新, 在它之后才转发
+        ActorRef<Message> ordered =
+                testKit.spawn(TrialUpdatePipeline.create(actor, 1, 10, Duration.ofSeconds(10)));
+        ordered.tell(new TrialUpdateValue(1L, probe.getRef()));
+        ordered.tell(new TrialUpdateValue(2L, probe.getRef()));
+        ordered.tell(new UpdateValue(100L, probe.getRef()));
+        assertEquals(1L, probe.receiveMessage().getValue());
+        State trial = probe.receiveMessage();
+        assertTrue(trial instanceof TrialState);
+        assertEquals(2L, trial.getValue());
+        // Trial 状态下的更新放弃试算的值, 回复 Live 状态
+        assertTrue(probe.receiveMessage() instanceof LiveState);
+    }
+
+    /** 每次持久化后读模型的版本递增, 同一个版本内的 JSON 只序列化一次 */
+    @Test
+    public void readModel_case() {
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        ActorRef<Message> actor =
+                testKit.spawn(
+                        MarketDataActor.create(
+                                PersistenceId.ofUniqueId("market-" + UUID.randomUUID()),
+                                readModel));
+        TestProbe<State> probe = testKit.createTestProbe();
+        actor.tell(new UpdateValue(5L, probe.getRef()));
+        probe.receiveMessage(Duration.ofSeconds(3));
+        Snapshot first = readModel.current().get();
+        assertEquals(5L, first.getLiveState().getValue());
+        assertSame(first.getJson(), first.getJson());
+
+        // 试算不改变 Live 值, 但版本号递增
+        actor.tell(new TrialUpdateValue(3L, probe.getRef()));
+        probe.receiveMessage(Duration.ofSeconds(3));
+        Snapshot second = readModel.current().get();
+        assertTrue(second.getVersion() > first.getVersion());
+        assertEquals(8L, second.getState().getValue());
+        assertEquals(5L, second.getLiveState().getValue());
+    }
+}
@@ -0,0 +1,139 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Query;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataBulkUpdater.BulkResult;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataBulkUpdater.ItemResult;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.typed.PersistenceId;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 该测试用例演示了 {@link MarketDataBulkUpdater} 把大量的更新合并为少量的持久化事件, 并返回每个值的结果 */
+@Slf4j
+public class MarketDataBulkUpdaterTest {
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit =
+                ActorTestKit.create(
+                        "MarketDataBulkUpdaterTest",
+                        ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 1 万行的文本流按 1000 个一批持久化为 10 个事件, 无法解析的行返回错误且不影响其他行 */
+    @Test
+    public void lines_case() throws Exception {
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        ActorRef<Message> actor = spawn(readModel);
+        MarketDataBulkUpdater updater =
+                new MarketDataBulkUpdater(testKit.system(), 1000, 4, 64, Duration.ofSeconds(3));
+
+        int lines = 10_000;
+        List<ByteString> chunks = new ArrayList<>();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            body.append(i == 42 ? "abc" : "1").append('\n');
+            // 按任意长度切分, 模拟网络上的分块
+            if (body.length() > 97) {
+                chunks.add(ByteString.fromString(body.toString()));
+                body.setLength(0);
+            }
+        }
+        chunks.add(ByteString.fromString(body.toString()));
+
+        long start = System.nanoTime();
+        BulkResult result =
+                updater.updateLines(actor, Source.from(chunks))
+                        .toCompletableFuture()
+                        .get(30, TimeUnit.SECONDS);
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info("{} 个更新耗时 {}ms, 吞吐 {}/s", lines, elapsedMillis, lines * 1000L / elapsedMillis);
+
+        assertEquals(lines - 1, result.getUpdated());
+        assertEquals(1, result.getFailed());
+        List<ItemResult> items = result.getResults();
+        assertEquals(lines, items.size());
+        assertNotNull(items.get(42).getError());
+        assertEquals(42L, items.get(41).getValue());
+        assertEquals(42L, items.get(43).getValue() - 1);
+        assertEquals(lines - 1, (long) items.get(lines - 1).getValue());
+        for (int i = 0; i < lines; i++) {
+            assertEquals(i, items.get(i).getIndex());
+        }
+        // 每批一个事件
+        assertEquals(10L, readModel.current().get().getVersion());
+        assertEquals(lines - 1, query(actor));
+    }
+
+    @Test
+    public void jsonArray_case() throws Exception {
+        ActorRef<Message> actor = spawn(null);
+        MarketDataBulkUpdater updater =
+                new MarketDataBulkUpdater(testKit.system(), 2, 1, 64, Duration.ofSeconds(3));
+
+        BulkResult result =
+                updater.updateArray(
+                                actor,
+                                Source.single(ByteString.fromString("[1, \"2\", 3, \"x\", 4]")))
+                        .toCompletableFuture()
+                        .get(3, TimeUnit.SECONDS);
+        assertEquals(4, result.getUpdated());
+        assertEquals(1, result.getFailed());
+        assertEquals(6L, result.getResults().get(2).getValue());
+        assertEquals(10L, result.getResults().get(4).getValue());
+        assertEquals(10L, query(actor));
+
+        CompletionException e =
+                assertThrows(
+                        CompletionException.class,
+                        () ->
+                                updater.updateArray(
+                                                actor, Source.single(ByteString.fromString("{")))
+                                        .toCompletableFuture()
+                                        .join());
+        assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+
+    private static ActorRef<Message> spawn(MarketDataReadModel readModel) {
+        return testKit.spawn(
+                MarketDataActor.create(
+                        PersistenceId.ofUniqueId("market-" + UUID.randomUUID()), readModel));
+    }
+
+    private static long query(ActorRef<Message> actor) {
+        TestProbe<State> probe = testKit.createTestProbe();
+        actor.tell(new Query(probe.getRef()));
+        return probe.receiveMessage(Duration.ofSeconds(3)).getValue();
+    }
+}
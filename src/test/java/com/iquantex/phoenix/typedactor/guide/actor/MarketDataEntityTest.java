@@ -0,0 +1,140 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Message;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Query;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.UpdateValue;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.cluster.sharding.typed.javadsl.EntityRef;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.typed.PersistenceId;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link MarketDataEntity} 按品种分片, 集群只有一个节点, 端口随机.
+ *
+ * <p>每个品种是独立的实体, 有各自的状态和读模型, 多个品种可以同时在多个核心上处理
+ */
+@Slf4j
+public class MarketDataEntityTest {
+
+    private static ActorTestKit testKit;
+    private static MarketDataReadModels readModels;
+    private static MarketDataEntity entity;
+
+    @BeforeAll
+    public static void setup() {
+        Config config =
+                ConfigFactory.parseString(
+                                "akka.remote.artery.canonical.port = 0\n"
+                                        + "akka.cluster.seed-nodes = []")
+                        .withFallback(ConfigFactory.load("reference-market.conf"));
+        testKit = ActorTestKit.create("MarketDataEntityTest", config);
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+        Cluster cluster = Cluster.get(testKit.system());
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+
+        readModels = new MarketDataReadModels(null);
+        entity = MarketDataEntity.init(testKit.system(), readModels);
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 不同的品种互不影响, 读模型按品种划分 */
+    @Test
+    public void instruments_case() {
+        String first = "instrument-" + UUID.randomUUID();
+        String second = "instrument-" + UUID.randomUUID();
+        TestProbe<State> probe = testKit.createTestProbe();
+
+        entity.refFor(first).tell(new UpdateValue(5L, probe.getRef()));
+        assertEquals(5L, probe.receiveMessage(Duration.ofSeconds(10)).getValue());
+        entity.refFor(second).tell(new UpdateValue(7L, probe.getRef()));
+        assertEquals(7L, probe.receiveMessage(Duration.ofSeconds(10)).getValue());
+        entity.refFor(first).tell(new UpdateValue(1L, probe.getRef()));
+        assertEquals(6L, probe.receiveMessage(Duration.ofSeconds(10)).getValue());
+
+        entity.refFor(second).tell(new Query(probe.getRef()));
+        assertEquals(7L, probe.receiveMessage(Duration.ofSeconds(3)).getValue());
+        assertEquals(6L, readModels.get(first).current().get().getLiveState().getValue());
+        assertEquals(7L, readModels.get(second).current().get().getLiveState().getValue());
+    }
+
+    /** 默认品种沿用分片之前的 PersistenceId */
+    @Test
+    public void persistenceId_case() {
+        assertEquals(
+                PersistenceId.ofUniqueId("marketData"),
+                MarketDataEntity.persistenceId(MarketDataEntity.DEFAULT_INSTRUMENT));
+        assertEquals(
+                PersistenceId.of("MarketData", "AAPL"), MarketDataEntity.persistenceId("AAPL"));
+    }
+
+    /** 实体停止后清空读模型 */
+    @Test
+    public void stop_clearReadModel_case() {
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        ActorRef<Message> actor =
+                testKit.spawn(
+                        MarketDataEntity.create(
+                                "instrument-" + UUID.randomUUID(),
+                                readModel,
+                                testKit.system().settings().config().getConfig("market-data")));
+        TestProbe<State> probe = testKit.createTestProbe();
+        actor.tell(new UpdateValue(3L, probe.getRef()));
+        probe.receiveMessage(Duration.ofSeconds(3));
+        assertTrue(readModel.current().isPresent());
+
+        testKit.stop(actor);
+        assertFalse(readModel.current().isPresent());
+    }
+
+    /** 同样数量的更新分散到多个品种上, 由多个实体并行处理 */
+    @Test
+    public void multiInstrument_throughput_case() {
+        int updates = 2_000;
+        long single = run(1, updates);
+        long multi = run(8, updates);
+        log.info("{} 个更新, 1 个品种耗时 {}ms, 8 个品种耗时 {}ms", updates, single, multi);
+    }
+
+    private static long run(int instruments, int updates) {
+        List<EntityRef<Message>> refs = new ArrayList<>();
+        TestProbe<State> probe = testKit.createTestProbe();
+        // 先激活实体, 不计入耗时
+        for (int i = 0; i < instruments; i++) {
+            EntityRef<Message> ref = entity.refFor("instrument-" + UUID.randomUUID());
+            ref.tell(new Query(probe.getRef()));
+            probe.receiveMessage(Duration.ofSeconds(10));
+            refs.add(ref);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            refs.get(i % instruments).tell(new UpdateValue(1L, probe.getRef()));
+        }
+        probe.receiveSeveralMessages(updates, Duration.ofSeconds(60));
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
@@ -0,0 +1,157 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.Allocations;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.Event;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.State;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialUpdateEvent;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.UpdateEvent;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link MarketDataState} 的 Live/Trial 语义, 并对比了修改前后重放事件的内存分配.
+ *
+ * <p>重放事件不经过 Actor, 在测试线程上同步执行, 所以只统计测试线程的分配. 修改前每个事件创建一个状态对象, 修改后不创建, 差异直接体现在每个事件的平均字节数上
+ */
+@Slf4j
+public class MarketDataStateTest {
+
+    private static final int UPDATES = 1_000_000;
+
+    /** 用于保存不可变状态, 防止被 JIT 逃逸分析优化掉 */
+    private static State sink;
+
+    @Test
+    public void liveAndTrial_case() {
+        MarketDataState state = new MarketDataState("market", 0L);
+        state.update(10L);
+        state.trialUpdate(15L);
+        assertTrue(state.isTrial());
+        State snapshot = state.snapshot();
+        assertTrue(snapshot instanceof TrialState);
+        assertEquals(15L, snapshot.getValue());
+        assertEquals(10L, ((TrialState) snapshot).getLiveState().getValue());
+        // Trial 状态下的正式更新会还原为 Live
+        state.update(20L);
+        assertFalse(state.isTrial());
+        assertEquals(10L, state.snapshot().getValue());
+        // 快照不受后续修改的影响
+        state.update(30L);
+        assertEquals(15L, snapshot.getValue());
+        assertEquals(30L, state.liveSnapshot().getValue());
+    }
+
+    /**
+     * 重放同一批事件, 对比修改前的事件处理 ({@link PreChangeHandler}) 与 {@link MarketDataState} 的内存分配. 事件预先创建,
+     * 两边只统计事件处理本身
+     */
+    @Test
+    public void allocationPerEvent_benchmark() {
+        Event[] events = events(UPDATES);
+        // 预热
+        preChangeReplay(events);
+        inPlaceReplay(events);
+
+        long preChange = Allocations.ofCurrentThread(() -> preChangeReplay(events));
+        long inPlace = Allocations.ofCurrentThread(() -> inPlaceReplay(events));
+        log.info(
+                "每个事件分配字节数: 修改前={}, 原地修改={}",
+                (double) preChange / UPDATES,
+                (double) inPlace / UPDATES);
+        assertTrue(inPlace < preChange);
+    }
+
+    /** 每 10 个事件中有一个试算, 其余为正式更新 */
+    private static Event[] events(int count) {
+        Event[] events = new Event[count];
+        for (int i = 0; i < count; i++) {
+            events[i] =
+                    i % 10 == 9
+                            ? new TrialUpdateEvent("market", (long) i)
+                            : new UpdateEvent("market", (long) i);
+        }
+        return events;
+    }
+
+    private static void preChangeReplay(Event[] events) {
+        PreChangeHandler handler = new PreChangeHandler();
+        PreChangeHandler.State state = handler.emptyState("market");
+        for (Event event : events) {
+            state = handler.apply(state, event);
+        }
+        sink = new LiveState(state.getId(), state.getValue());
+    }
+
+    /** 与 {@link MarketDataActor#eventHandler()} 相同的处理 */
+    private static void inPlaceReplay(Event[] events) {
+        MarketDataState state = new MarketDataState("market", 0L);
+        for (Event event : events) {
+            if (event instanceof UpdateEvent) {
+                state.update(((UpdateEvent) event).getValue());
+            } else {
+                state.trialUpdate(((TrialUpdateEvent) event).getValue());
+            }
+        }
+        sink = state.liveSnapshot();
+    }
+
+    /** 修改前 {@link MarketDataActor} 的状态和事件处理: 非静态内部类, 装箱的 Long, 每个事件创建新的状态对象 */
+    private static final class PreChangeHandler {
+
+        State emptyState(String id) {
+            return new LiveState(id, 0L);
+        }
+
+        State apply(State state, Event event) {
+            if (event instanceof UpdateEvent) {
+                return applyUpdate(state, (UpdateEvent) event);
+            }
+            TrialUpdateEvent trial = (TrialUpdateEvent) event;
+            State live = state instanceof TrialState ? ((TrialState) state).liveState : state;
+            return new TrialState(trial.getId(), trial.getValue(), live);
+        }
+
+        /** Live 状态直接更新, Trial 状态则还原为原来的 Live 状态 */
+        private State applyUpdate(State state, UpdateEvent updateEvent) {
+            if (state instanceof TrialState) {
+                State live = ((TrialState) state).liveState;
+                return new LiveState(live.getId(), live.getValue());
+            }
+            return new LiveState(updateEvent.getId(), updateEvent.getValue());
+        }
+
+        @AllArgsConstructor
+        @Getter
+        abstract class State {
+
+            private String id;
+            private Long value;
+        }
+
+        final class LiveState extends State {
+
+            LiveState(String id, Long value) {
+                super(id, value);
+            }
+        }
+
+        final class TrialState extends State {
+
+            private final State liveState;
+
+            TrialState(String id, Long value, State state) {
+                super(id, value);
+                this.liveState = state;
+            }
+        }
+    }
+}
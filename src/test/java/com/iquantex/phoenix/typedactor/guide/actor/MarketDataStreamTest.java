@@ -0,0 +1,233 @@
+package com.iquantex.phoenix.typedactor.guide.actor;
+
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.TrialState;
+
+import akka.NotUsed;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.http.javadsl.model.sse.ServerSentEvent;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 该测试用例演示了 {@link MarketDataStream} 把状态变化推送给大量订阅者, 慢的订阅者不影响其他订阅者 */
+@Slf4j
+public class MarketDataStreamTest {
+
+    private static final int SUBSCRIBERS = 2_000;
+    private static final int UPDATES = 1_000;
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit = ActorTestKit.create("MarketDataStreamTest");
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void thousandsOfSubscribers_case() throws Exception {
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        readModel.publish(0L, new LiveState("marketData", 0L));
+        MarketDataStream stream =
+                new MarketDataStream(testKit.system(), readModel, 256, Duration.ofSeconds(10));
+
+        // 每个订阅者第一次收到 Hub 推送的事件后计数, 确认全部订阅成功后再开始推送
+        CountDownLatch subscribed = new CountDownLatch(SUBSCRIBERS + 1);
+        List<CompletableFuture<List<ServerSentEvent>>> results = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            results.add(
+                    subscribe(stream, subscribed)
+                            .takeWhile(e -> MarketDataStream.version(e) < UPDATES, true)
+                            .runWith(Sink.seq(), testKit.system())
+                            .toCompletableFuture());
+        }
+        // 一个每秒只消费一个事件的订阅者
+        CompletableFuture<List<ServerSentEvent>> slow =
+                subscribe(stream, subscribed)
+                        .throttle(1, Duration.ofSeconds(1))
+                        .takeWhile(e -> MarketDataStream.version(e) < UPDATES, true)
+                        .runWith(Sink.seq(), testKit.system())
+                        .toCompletableFuture();
+
+        // 订阅是异步注册到 Hub 的, 不断推送新的版本, 直到全部订阅者都收到 Hub 推送的事件
+        long version = 0;
+        do {
+            version++;
+            readModel.publish(version, new LiveState("marketData", version));
+        } while (!subscribed.await(50, TimeUnit.MILLISECONDS) && version < 200);
+        assertEquals(0, subscribed.getCount());
+
+        long start = System.nanoTime();
+        for (version++; version <= UPDATES; version++) {
+            readModel.publish(
+                    version,
+                    version % 2 == 0
+                            ? new LiveState("marketData", version)
+                            : new TrialState(
+                                    "marketData", version, new LiveState("marketData", 0L)));
+        }
+        long delivered = 0;
+        for (CompletableFuture<List<ServerSentEvent>> result : results) {
+            List<ServerSentEvent> events = result.get(30, TimeUnit.SECONDS);
+            delivered += events.size();
+            // 中间的版本可能被合并, 但是版本号严格递增, 并且一定能收到最后一个版本
+            long last = -1;
+            for (ServerSentEvent event : events) {
+                assertTrue(MarketDataStream.version(event) > last);
+                last = MarketDataStream.version(event);
+            }
+            assertEquals(UPDATES, last);
+            assertEquals(MarketDataStream.LIVE, events.get(events.size() - 1).getEventType().get());
+        }
+        long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        log.info(
+                "{} 个订阅者, {} 次状态变化, 共推送 {} 个事件, 耗时 {}ms",
+                SUBSCRIBERS,
+                UPDATES,
+                delivered,
+                elapsedMillis);
+        // 慢的订阅者没有拖慢其他订阅者, 此时还没有消费完
+        assertFalse(slow.isDone());
+    }
+
+    /** 过滤掉心跳, 第一次收到 Hub 推送的事件时计数 */
+    private static Source<ServerSentEvent, NotUsed> subscribe(
+            MarketDataStream stream, CountDownLatch subscribed) {
+        AtomicBoolean counted = new AtomicBoolean();
+        return stream.subscribe()
+                .filter(e -> e.getId().isPresent())
+                .map(
+                        e -> {
+                            if (MarketDataStream.version(e) > 0
+                                    && counted.compareAndSet(false, true)) {
+                                subscribed.countDown();
+                            }
+                            return e;
+                        });
+    }
+
+    @Test
+    public void initialSnapshot_case() throws Exception {
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        readModel.publish(7L, new LiveState("marketData", 42L));
+        MarketDataStream stream =
+                new MarketDataStream(testKit.system(), readModel, 16, Duration.ofSeconds(10));
+
+        ServerSentEvent event =
+                stream.subscribe()
+                        .runWith(Sink.head(), testKit.system())
+                        .toCompletableFuture()
+                        .get(3, TimeUnit.SECONDS);
+        assertEquals("7", event.getId().get());
+        assertEquals(MarketDataStream.LIVE, event.getEventType().get());
+        assertEquals("{\"id\":\"marketData\",\"value\":42}", event.getData());
+    }
+
+    @Test
+    public void entityOnOtherNode_case() throws Exception {
+        // 实体不在当前节点上时, 当前节点的读模型没有快照, 推送流只有心跳
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        MarketDataStream stream =
+                new MarketDataStream(testKit.system(), readModel, 16, Duration.ofMillis(100));
+        List<ServerSentEvent> events =
+                stream.subscribe()
+                        .takeWithin(Duration.ofMillis(500))
+                        .runWith(Sink.seq(), testKit.system())
+                        .toCompletableFuture()
+                        .get(3, TimeUnit.SECONDS);
+        assertFalse(events.isEmpty());
+        for (ServerSentEvent event : events) {
+            assertFalse(event.getId().isPresent());
+        }
+
+        // 实体迁移到当前节点后开始推送
+        CompletableFuture<ServerSentEvent> first =
+                stream.subscribe()
+                        .filter(e -> e.getId().isPresent())
+                        .runWith(Sink.head(), testKit.system())
+                        .toCompletableFuture();
+        // 订阅是异步注册到 Hub 的, 不断推送新的版本直到收到
+        long version = 0;
+        do {
+            version++;
+            readModel.publish(version, new LiveState("marketData", version));
+        } while (!awaitDone(first) && version < 100);
+        assertTrue(first.get(3, TimeUnit.SECONDS).getId().isPresent());
+    }
+
+    @Test
+    public void clearedReadModel_case() throws Exception {
+        // 实体停止时清空读模型, 流中还没有处理的通知读不到快照
+        MarketDataReadModel readModel = new MarketDataReadModel();
+        MarketDataStream stream =
+                new MarketDataStream(testKit.system(), readModel, 16, Duration.ofSeconds(10));
+        // 先确认流已经运行
+        CompletableFuture<ServerSentEvent> first =
+                stream.subscribe()
+                        .filter(e -> e.getId().isPresent())
+                        .runWith(Sink.head(), testKit.system())
+                        .toCompletableFuture();
+        long version = 0;
+        do {
+            version++;
+            readModel.publish(version, new LiveState("marketData", version));
+        } while (!awaitDone(first) && version < 100);
+
+        for (int i = 0; i < 1_000; i++) {
+            version++;
+            readModel.publish(version, new LiveState("marketData", version));
+            readModel.clear();
+        }
+        // 等待流处理完清空之后的通知
+        Thread.sleep(500);
+        assertFalse(stream.watchCompletion().toCompletableFuture().isDone());
+
+        // 实体重新启动后继续推送
+        long restarted = version;
+        // 跳过 Hub 中清空之前已经推送的版本
+        CompletableFuture<ServerSentEvent> next =
+                stream.subscribe()
+                        .filter(
+                                e ->
+                                        e.getId().isPresent()
+                                                && MarketDataStream.version(e) > restarted)
+                        .runWith(Sink.head(), testKit.system())
+                        .toCompletableFuture();
+        do {
+            version++;
+            readModel.publish(version, new LiveState("marketData", version));
+        } while (!awaitDone(next) && version < restarted + 100);
+        next.get(3, TimeUnit.SECONDS);
+        assertFalse(stream.watchCompletion().toCompletableFuture().isDone());
+    }
+
+    private static boolean awaitDone(CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(50, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.iquantex.phoenix.typedactor.guide.cluster;
+
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding.ShardCommand;
+import akka.cluster.sharding.typed.javadsl.EntityContext;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+/** 该测试用例演示了 {@link ActiveEntityLimiter#track} 不会在每条命令上通知 limiter, 每个 touchInterval 最多通知一次 */
+public class ActiveEntityLimiterTest {
+
+    private static final String STOP = "stop";
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit = ActorTestKit.create("ActiveEntityLimiterTest");
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void sampledTouch_case() {
+        TestProbe<ActiveEntityLimiter.Command> limiter = testKit.createTestProbe();
+        TestProbe<String> received = testKit.createTestProbe();
+        ActorRef<String> entity = testKit.spawn(track(limiter, received, Duration.ofMillis(500)));
+
+        for (int i = 0; i < 100; i++) {
+            entity.tell("command-" + i);
+        }
+        received.receiveSeveralMessages(100);
+        // 第一条消息通知一次, 同一个 touchInterval 内的其他消息不会通知
+        limiter.receiveMessage();
+        limiter.expectNoMessage(Duration.ofMillis(200));
+
+        // 超过 touchInterval 后的下一条消息再次通知, stopMessage 不算访问
+        limiter.expectNoMessage(Duration.ofMillis(400));
+        entity.tell(STOP);
+        received.receiveMessage();
+        limiter.expectNoMessage(Duration.ofMillis(100));
+        entity.tell("command");
+        received.receiveMessage();
+        limiter.receiveMessage();
+    }
+
+    private static Behavior<String> track(
+            TestProbe<ActiveEntityLimiter.Command> limiter,
+            TestProbe<String> received,
+            Duration touchInterval) {
+        TestProbe<ShardCommand> shard = testKit.createTestProbe();
+        EntityContext<String> entityContext =
+                new EntityContext<>(
+                        EntityTypeKey.create(String.class, "Entity"), "1", shard.getRef());
+        return ActiveEntityLimiter.track(
+                limiter.getRef(),
+                entityContext,
+                String.class,
+                STOP,
+                touchInterval,
+                Behaviors.receiveMessage(
+                        msg -> {
+                            received.getRef().tell(msg);
+                            return Behaviors.same();
+                        }));
+    }
+}
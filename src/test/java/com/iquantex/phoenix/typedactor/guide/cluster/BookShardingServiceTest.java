@@ -0,0 +1,180 @@
+package com.iquantex.phoenix.typedactor.guide.cluster;
+
+import com.iquantex.phoenix.typedactor.guide.cluster.ActiveEntityLimiter.GetStats;
+import com.iquantex.phoenix.typedactor.guide.cluster.ActiveEntityLimiter.Stats;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.cluster.MemberStatus;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link BookShardingService}, 对比实体冷启动 (溯源) 与已经活跃时的请求延迟, 以及活跃实体数量的上限.
+ *
+ * <p>书店数量默认 2000, 可以通过 -Dbook.sharding.stores=100000 运行完整的测试
+ */
+@Slf4j
+public class BookShardingServiceTest {
+
+    private static final int STORES = Integer.getInteger("book.sharding.stores", 2_000);
+    /** 同时等待回复的请求数量 */
+    private static final int PARALLELISM = 100;
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    /** 第一个节点写入每个书店, 关闭后由第二个节点读取: 第一次读取需要溯源, 第二次读取实体已经活跃 */
+    @Test
+    public void coldVsWarm_case() {
+        String prefix = "store-" + UUID.randomUUID() + "-";
+        BookShardingSettings settings = new BookShardingSettings(100, Duration.ZERO, 0, false);
+
+        ActorTestKit writer = createTestKit("BookShardingWriter");
+        BookShardingService service = BookShardingService.init(writer.system(), settings);
+        long[] write =
+                run(
+                        i ->
+                                service.entityRefFor(prefix + i)
+                                        .<StatusReply>ask(
+                                                replyTo ->
+                                                        new AddBook(
+                                                                replyTo,
+                                                                "1",
+                                                                "Java In Action",
+                                                                "Markting",
+                                                                (long) i),
+                                                TIMEOUT));
+        writer.shutdownTestKit();
+
+        ActorTestKit reader = createTestKit("BookShardingReader");
+        BookShardingService readService = BookShardingService.init(reader.system(), settings);
+        Function<Integer, CompletionStage<StatusReply>> get =
+                i ->
+                        readService
+                                .entityRefFor(prefix + i)
+                                .<StatusReply>ask(replyTo -> new GetBook(replyTo, "1"), TIMEOUT)
+                                .thenApply(
+                                        reply -> {
+                                            assertEquals(
+                                                    (long) i, ((Book) reply.getValue()).getPrice());
+                                            return reply;
+                                        });
+        long[] cold = run(get);
+        long[] warm = run(get);
+        reader.shutdownTestKit();
+
+        log.info("{} 个书店, 首次写入: {}", STORES, summary(write));
+        log.info("{} 个书店, 冷启动读取: {}", STORES, summary(cold));
+        log.info("{} 个书店, 活跃实体读取: {}", STORES, summary(warm));
+        assertTrue(percentile(warm, 50) < percentile(cold, 50));
+    }
+
+    /** 超过活跃实体上限后钝化最久没有收到消息的实体, 被钝化的实体在下一条消息到达时重新溯源 */
+    @Test
+    public void maxActiveEntities_case() {
+        int limit = 10;
+        String prefix = "store-" + UUID.randomUUID() + "-";
+        ActorTestKit testKit = createTestKit("BookShardingLimit");
+        BookShardingService service =
+                BookShardingService.init(
+                        testKit.system(),
+                        new BookShardingSettings(10, Duration.ZERO, limit, false));
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        for (int i = 0; i < 5 * limit; i++) {
+            service.entityRefFor(prefix + i)
+                    .tell(new AddBook(probe.getRef(), "1", "Java In Action", "Markting", (long) i));
+            probe.receiveMessage(TIMEOUT);
+        }
+
+        TestProbe<Stats> stats = testKit.createTestProbe();
+        stats.awaitAssert(
+                TIMEOUT,
+                () -> {
+                    service.getLimiter().tell(new GetStats(stats.getRef()));
+                    Stats value = stats.receiveMessage();
+                    assertTrue(value.getActiveEntities() <= limit);
+                    assertEquals(4 * limit, value.getPassivatedEntities());
+                    return null;
+                });
+
+        service.entityRefFor(prefix + 0).tell(new GetBook(probe.getRef(), "1"));
+        assertEquals(0L, ((Book) probe.receiveMessage(TIMEOUT).getValue()).getPrice());
+        testKit.shutdownTestKit();
+    }
+
+    /** 单节点集群, 使用随机端口, 不与其他集群测试冲突 */
+    private static ActorTestKit createTestKit(String name) {
+        Config config =
+                ConfigFactory.parseString(
+                                "akka.remote.artery.canonical.port = 0\n"
+                                        + "akka.cluster.seed-nodes = []\n"
+                                        + "akka.loglevel = INFO")
+                        .withFallback(ConfigFactory.load("reference-cluster.conf"));
+        ActorTestKit testKit = ActorTestKit.create(name, config);
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+        Cluster cluster = Cluster.get(testKit.system());
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+        testKit.createTestProbe()
+                .awaitAssert(
+                        TIMEOUT,
+                        () -> {
+                            assertEquals(MemberStatus.up(), cluster.selfMember().status());
+                            return null;
+                        });
+        return testKit;
+    }
+
+    /** 每个书店发送一个请求, 最多 PARALLELISM 个请求同时等待回复, 返回每个请求的延迟 (微秒) */
+    private static long[] run(Function<Integer, CompletionStage<StatusReply>> request) {
+        long[] latencies = new long[STORES];
+        for (int from = 0; from < STORES; from += PARALLELISM) {
+            List<CompletableFuture<StatusReply>> window = new ArrayList<>();
+            for (int i = from; i < Math.min(from + PARALLELISM, STORES); i++) {
+                int index = i;
+                long start = System.nanoTime();
+                window.add(
+                        request.apply(i)
+                                .thenApply(
+                                        reply -> {
+                                            latencies[index] = (System.nanoTime() - start) / 1_000;
+                                            return reply;
+                                        })
+                                .toCompletableFuture());
+            }
+            window.forEach(future -> assertTrue(future.join().isSuccess()));
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static String summary(long[] sorted) {
+        return String.format(
+                "p50 %dus, p99 %dus, max %dus",
+                percentile(sorted, 50), percentile(sorted, 99), sorted[sorted.length - 1]);
+    }
+}
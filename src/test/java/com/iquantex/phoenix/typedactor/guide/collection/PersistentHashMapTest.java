@@ -0,0 +1,118 @@
+package com.iquantex.phoenix.typedactor.guide.collection;
+
+import lombok.AllArgsConstructor;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 该测试用例演示了 {@link PersistentHashMap} 的行为与 {@link HashMap} 一致, 并且修改后旧的版本不变 */
+public class PersistentHashMapTest {
+
+    /** 随机添加和移除, 每一步都与 HashMap 对比 */
+    @Test
+    public void random_case() {
+        Random random = new Random(42);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected, map);
+        assertEquals(map, expected);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    /** 哈希值相同的键保存在冲突节点中, 移除后收缩 */
+    @Test
+    public void collision_case() {
+        PersistentHashMap<Key, String> map = PersistentHashMap.empty();
+        for (int i = 0; i < 10; i++) {
+            map = map.plus(new Key(i, i % 2), "v" + i);
+        }
+        assertEquals(10, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("v" + i, map.get(new Key(i, i % 2)));
+        }
+        assertNull(map.get(new Key(10, 0)));
+
+        for (int i = 0; i < 10; i += 2) {
+            map = map.minus(new Key(i, 0));
+        }
+        assertEquals(5, map.size());
+        assertEquals(5, map.entrySet().stream().count());
+        for (int i = 1; i < 10; i += 2) {
+            assertEquals("v" + i, map.get(new Key(i, 1)));
+        }
+    }
+
+    /** 修改返回新的版本, 旧的版本不变; 没有变化时返回自身 */
+    @Test
+    public void persistent_case() {
+        PersistentHashMap<String, Integer> v1 = PersistentHashMap.<String, Integer>empty();
+        for (int i = 0; i < 1_000; i++) {
+            v1 = v1.plus("key-" + i, i);
+        }
+        PersistentHashMap<String, Integer> v2 = v1.plus("key-0", -1).minus("key-1");
+
+        assertEquals(0, v1.get("key-0"));
+        assertTrue(v1.containsKey("key-1"));
+        assertEquals(1_000, v1.size());
+        assertEquals(-1, v2.get("key-0"));
+        assertFalse(v2.containsKey("key-1"));
+        assertEquals(999, v2.size());
+
+        assertSame(v1, v1.plus("key-2", 2));
+        assertSame(v1, v1.minus("missing"));
+        assertSame(v1, PersistentHashMap.from(v1));
+        assertEquals(999, v1.minus("key-0").minus("key-0").size());
+    }
+
+    /** 作为 Map 只读 */
+    @Test
+    public void readOnly_case() {
+        PersistentHashMap<String, Integer> map =
+                PersistentHashMap.<String, Integer>empty().plus("a", 1);
+        assertThrows(UnsupportedOperationException.class, () -> map.put("b", 2));
+        assertThrows(UnsupportedOperationException.class, () -> map.remove("a"));
+        assertThrows(UnsupportedOperationException.class, map::clear);
+        assertThrows(
+                UnsupportedOperationException.class,
+                () -> map.entrySet().iterator().next().setValue(3));
+    }
+
+    /** 指定哈希值的键 */
+    @AllArgsConstructor
+    private static final class Key {
+
+        private final int id;
+        private final int hash;
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.iquantex.phoenix.typedactor.guide.collection;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/** 该测试用例演示了 {@link PersistentTreeMap} 的行为与 {@link TreeMap} 一致, 并且修改后旧的版本不变 */
+public class PersistentTreeMapTest {
+
+    /** 随机添加和移除, 每一步都与 TreeMap 对比, 遍历顺序一致 */
+    @Test
+    public void random_case() {
+        Random random = new Random(42);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        PersistentTreeMap<Integer, Integer> map = PersistentTreeMap.empty();
+        for (int i = 0; i < 50_000; i++) {
+            int key = random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(map.entrySet()));
+    }
+
+    /** 从指定的键开始遍历 */
+    @Test
+    public void iterator_case() {
+        PersistentTreeMap<Integer, String> map = PersistentTreeMap.empty();
+        for (int i = 0; i < 100; i += 2) {
+            map = map.plus(i, "v" + i);
+        }
+        assertEquals(keys(map.iterator(10, true), 3), listOf(10, 12, 14));
+        assertEquals(keys(map.iterator(10, false), 3), listOf(12, 14, 16));
+        assertEquals(keys(map.iterator(11, true), 3), listOf(12, 14, 16));
+        assertEquals(keys(map.iterator(97, true), 3), listOf(98));
+        assertEquals(keys(map.iterator(-1, false), 1), listOf(0));
+    }
+
+    /** 修改返回新的版本, 旧的版本不变 */
+    @Test
+    public void persistent_case() {
+        PersistentTreeMap<String, Integer> v1 = PersistentTreeMap.empty();
+        for (int i = 0; i < 1_000; i++) {
+            v1 = v1.plus("key-" + i, i);
+        }
+        PersistentTreeMap<String, Integer> v2 = v1.minus("key-1").plus("key-2", -2);
+
+        assertEquals(1_000, v1.size());
+        assertEquals(1, v1.get("key-1"));
+        assertEquals(2, v1.get("key-2"));
+        assertEquals(999, v2.size());
+        assertEquals(-2, v2.get("key-2"));
+        assertSame(v1, v1.plus("key-3", 3));
+        assertSame(v1, v1.minus("missing"));
+    }
+
+    private static List<Integer> keys(Iterator<Map.Entry<Integer, String>> iterator, int limit) {
+        List<Integer> keys = new ArrayList<>();
+        while (iterator.hasNext() && keys.size() < limit) {
+            keys.add(iterator.next().getKey());
+        }
+        return keys;
+    }
+
+    private static List<Integer> listOf(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        for (Integer value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
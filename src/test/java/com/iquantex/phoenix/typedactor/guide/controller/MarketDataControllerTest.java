@@ -0,0 +1,112 @@
+package com.iquantex.phoenix.typedactor.guide.controller;
+
+import com.iquantex.phoenix.typedactor.guide.Allocations;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataActor.LiveState;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModel;
+import com.iquantex.phoenix.typedactor.guide.actor.MarketDataReadModels;
+
+import akka.http.javadsl.model.ContentTypes;
+import akka.http.javadsl.model.HttpEntity;
+import akka.http.javadsl.model.HttpResponse;
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.iquantex.phoenix.typedactor.guide.actor.MarketDataEntity.DEFAULT_INSTRUMENT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link MarketDataController} 从读模型返回预编码的响应, 并对比了每次请求都序列化成 String 的方式.
+ *
+ * <p>基准只调用 {@link MarketDataController#getJsonState(String)}, 不经过 akka-http 的路由和连接, 读模型已经发布, 返回的
+ * CompletionStage 已经完成, 所以序列化和构造响应都发生在测试线程上. 原方式每次请求都生成 JSON 字符串和新的实体, 预编码方式在版本不变时只返回缓存的响应
+ */
+@Slf4j
+public class MarketDataControllerTest {
+
+    private static final int REQUESTS = 200_000;
+
+    /** 保存响应, 防止被 JIT 逃逸分析优化掉 */
+    private static HttpResponse sink;
+
+    @Test
+    public void preEncodedResponse_case() throws Exception {
+        MarketDataReadModels readModels = new MarketDataReadModels(null);
+        MarketDataReadModel readModel = readModels.get(DEFAULT_INSTRUMENT);
+        readModel.publish(1L, new LiveState("marketData", 42L));
+        MarketDataController controller = new MarketDataController(null, null, readModels, null);
+
+        HttpResponse response =
+                controller.getJsonState(DEFAULT_INSTRUMENT).toCompletableFuture().get();
+        HttpEntity.Strict entity = (HttpEntity.Strict) response.entity();
+        assertEquals(ContentTypes.APPLICATION_JSON, entity.getContentType());
+        assertEquals(
+                "{\"id\":\"marketData\",\"value\":42}",
+                entity.getData().decodeString(StandardCharsets.UTF_8));
+        // 同一版本复用同一个响应
+        assertSame(
+                response, controller.getJsonState(DEFAULT_INSTRUMENT).toCompletableFuture().get());
+
+        // 新版本到来后重新编码
+        readModel.publish(2L, new LiveState("marketData", 43L));
+        HttpResponse next = controller.getJsonState(DEFAULT_INSTRUMENT).toCompletableFuture().get();
+        assertEquals(
+                "{\"id\":\"marketData\",\"value\":43}",
+                ((HttpEntity.Strict) next.entity()).getData().decodeString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void responsePerRequest_benchmark() {
+        MarketDataReadModels readModels = new MarketDataReadModels(null);
+        MarketDataReadModel readModel = readModels.get(DEFAULT_INSTRUMENT);
+        readModel.publish(1L, new LiveState("marketData", 42L));
+        MarketDataController controller = new MarketDataController(null, null, readModels, null);
+        Runnable before =
+                () -> {
+                    for (int i = 0; i < REQUESTS; i++) {
+                        String json = JSON.toJSONString(readModel.current().get().getLiveState());
+                        sink = HttpResponse.create().withEntity(json);
+                    }
+                };
+        Runnable after =
+                () -> {
+                    for (int i = 0; i < REQUESTS; i++) {
+                        sink =
+                                controller
+                                        .getJsonState(DEFAULT_INSTRUMENT)
+                                        .toCompletableFuture()
+                                        .join();
+                    }
+                };
+        // 预热
+        before.run();
+        after.run();
+
+        long[] beforeResult = measure(before);
+        long[] afterResult = measure(after);
+        log.info(
+                "每次请求: 原方式 {} 字节, {} req/s; 预编码 {} 字节, {} req/s",
+                beforeResult[0] / REQUESTS,
+                REQUESTS * 1_000_000_000L / Math.max(1, beforeResult[1]),
+                afterResult[0] / REQUESTS,
+                REQUESTS * 1_000_000_000L / Math.max(1, afterResult[1]));
+        assertTrue(afterResult[0] < beforeResult[0]);
+    }
+
+    /** 返回 [分配字节数, 耗时纳秒] */
+    private static long[] measure(Runnable runnable) {
+        long[] elapsed = new long[1];
+        long bytes =
+                Allocations.ofCurrentThread(
+                        () -> {
+                            long start = System.nanoTime();
+                            runnable.run();
+                            elapsed[0] = System.nanoTime() - start;
+                        });
+        return new long[] {bytes, elapsed[0]};
+    }
+}
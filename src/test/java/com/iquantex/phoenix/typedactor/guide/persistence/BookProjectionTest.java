@@ -0,0 +1,151 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.ClearAll;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.RemoveBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.UpdateBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.typed.PersistenceId;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link BookProjection} 把多个 {@link BookBehavior} 的事件投影到 {@link BookReadModel}, 查询读模型不经过
+ * Actor. 停止投影后重新启动, 从保存的偏移量之后继续
+ */
+@Slf4j
+public class BookProjectionTest {
+
+    private static final int ACTORS = 8;
+    private static final Duration TIMEOUT = Duration.ofSeconds(15);
+
+    private static ActorTestKit testKit;
+    private static BookReadModel readModel;
+
+    @BeforeAll
+    public static void setup() throws SQLException {
+        testKit =
+                ActorTestKit.create(
+                        "BookProjectionTest", ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+        readModel = BookReadModel.fromConfig(testKit.system().settings().config(), 4);
+        readModel.createTablesIfNotExists();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        readModel.close();
+        testKit.shutdownTestKit();
+    }
+
+    /** 添加, 更新, 移除, 清空 都会投影到读模型, 按作者查询跨所有的 PersistenceId */
+    @Test
+    public void projection_case() {
+        String author = "author-" + UUID.randomUUID();
+        BookProjection projection = BookProjection.start(testKit.system(), readModel);
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        List<PersistenceId> ids = new ArrayList<>();
+        List<ActorRef<BookCommand>> actors = new ArrayList<>();
+        for (int i = 0; i < ACTORS; i++) {
+            PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+            ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId));
+            ids.add(persistenceId);
+            actors.add(actor);
+            actor.tell(new AddBook(probe.getRef(), "1", "Java In Action " + i, author, 99L));
+            actor.tell(new AddBook(probe.getRef(), "2", "Akka In Action " + i, author, 109L));
+            probe.receiveSeveralMessages(2, TIMEOUT);
+        }
+        actors.get(0).tell(new UpdateBook(probe.getRef(), "1", "Java In Action 0", author, 89L));
+        actors.get(1).tell(new RemoveBook(probe.getRef(), "2"));
+        actors.get(2).tell(new ClearAll(probe.getRef()));
+        // 作者更新为 null 时清空读模型中的作者
+        actors.get(3).tell(new UpdateBook(probe.getRef(), "1", "Java In Action 3", null, 99L));
+
+        probe.awaitAssert(
+                TIMEOUT,
+                () -> {
+                    assertEquals(2 * ACTORS - 4, findByAuthor(author).size());
+                    assertEquals(89L, get(ids.get(0), "1").get().getPrice());
+                    assertEquals("Java In Action 0", get(ids.get(0), "1").get().getTitle());
+                    assertFalse(get(ids.get(1), "2").isPresent());
+                    assertFalse(get(ids.get(2), "1").isPresent());
+                    assertNull(get(ids.get(3), "1").get().getAuthor());
+                    assertEquals(99L, get(ids.get(3), "1").get().getPrice());
+                    return null;
+                });
+        projection.stop().toCompletableFuture().join();
+    }
+
+    /** 停止期间写入的事件在重新启动后投影, 偏移量只会前进 */
+    @Test
+    public void resume_case() throws SQLException {
+        String author = "author-" + UUID.randomUUID();
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        String tag = BookTags.tag(persistenceId, 4);
+        ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId));
+
+        BookProjection projection = BookProjection.start(testKit.system(), readModel);
+        actor.tell(new AddBook(probe.getRef(), "1", "Java In Action", author, 99L));
+        probe.receiveMessage(TIMEOUT);
+        probe.awaitAssert(
+                TIMEOUT,
+                () -> {
+                    assertEquals(1, findByAuthor(author).size());
+                    return null;
+                });
+        projection.stop().toCompletableFuture().join();
+        long stopped = readModel.loadOffset(tag);
+
+        actor.tell(new AddBook(probe.getRef(), "2", "Akka In Action", author, 109L));
+        actor.tell(new UpdateBook(probe.getRef(), "1", "Java In Action", author, 89L));
+        actor.tell(new GetBook(probe.getRef(), "1"));
+        probe.receiveSeveralMessages(2, TIMEOUT);
+        // 停止期间不会写入读模型
+        assertEquals(1, findByAuthor(author).size());
+
+        projection = BookProjection.start(testKit.system(), readModel);
+        probe.awaitAssert(
+                TIMEOUT,
+                () -> {
+                    assertEquals(2, findByAuthor(author).size());
+                    assertEquals(89L, get(persistenceId, "1").get().getPrice());
+                    return null;
+                });
+        projection.stop().toCompletableFuture().join();
+        long resumed = readModel.loadOffset(tag);
+        log.info("投影 {} 的偏移量: 停止时 {}, 重新启动后 {}", tag, stopped, resumed);
+        assertTrue(resumed > stopped);
+    }
+
+    private static List<Book> findByAuthor(String author) throws SQLException {
+        return readModel.findByAuthor(author, BookBehavior.MAX_PAGE_SIZE);
+    }
+
+    private static Optional<Book> get(PersistenceId persistenceId, String uuid)
+            throws SQLException {
+        return readModel.get(persistenceId.id(), uuid);
+    }
+}
@@ -0,0 +1,226 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.FindBooksByAuthor;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.FindBooksByTitle;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBooksPage;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.RemoveBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.UpdateBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.typed.PersistenceId;
+import akka.stream.javadsl.Sink;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link GetBooksPage}, {@link FindBooksByAuthor} 和 {@link FindBooksByTitle} 通过 {@link
+ * BookIndex} 分页查询, 以及通过 {@link BookSource} 流式读取.
+ *
+ * <p>索引随事件更新, 重启后从快照和之后的事件重建
+ */
+public class BookQueryTest {
+
+    /** 每 3 个事件保存快照, 重启时先从快照恢复再重放之后的事件 */
+    private static final BookSnapshotPolicy SNAPSHOT =
+            new BookSnapshotPolicy(3, 2, false, false, Duration.ZERO);
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit =
+                ActorTestKit.create(
+                        "BookQueryTest", ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 按作者分页, 同一作者的书按标题排序 */
+    @Test
+    public void findByAuthor_case() {
+        ActorRef<BookCommand> actor = spawn(PersistenceId.ofUniqueId("book-" + UUID.randomUUID()));
+        add(actor, "1", "Refactoring", "Fowler");
+        add(actor, "2", "Domain Driven Design", "Evans");
+        add(actor, "3", "Analysis Patterns", "Fowler");
+        add(actor, "4", "Patterns of Enterprise Application Architecture", "Fowler");
+
+        BookPage first = query(actor, probe -> new FindBooksByAuthor(probe, "Fowler", null, 2));
+        assertEquals(
+                titles("Analysis Patterns", "Patterns of Enterprise Application Architecture"),
+                titles(first));
+        assertTrue(first.hasNext());
+
+        BookPage second =
+                query(
+                        actor,
+                        probe -> new FindBooksByAuthor(probe, "Fowler", first.getNextCursor(), 2));
+        assertEquals(titles("Refactoring"), titles(second));
+        assertFalse(second.hasNext());
+
+        assertTrue(
+                query(actor, probe -> new FindBooksByAuthor(probe, "Beck", null, 10))
+                        .getBooks()
+                        .isEmpty());
+    }
+
+    /** 标题前缀不区分大小写, 更新和删除后索引同步变化 */
+    @Test
+    public void findByTitle_case() {
+        ActorRef<BookCommand> actor = spawn(PersistenceId.ofUniqueId("book-" + UUID.randomUUID()));
+        add(actor, "1", "Java In Action", "Markting");
+        add(actor, "2", "java concurrency in practice", "Goetz");
+        add(actor, "3", "JavaScript", "Crockford");
+        add(actor, "4", "Kotlin In Action", "Jemerov");
+
+        assertEquals(
+                titles("java concurrency in practice", "Java In Action", "JavaScript"),
+                titles(query(actor, probe -> new FindBooksByTitle(probe, "JAVA", null, 10))));
+
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new UpdateBook(probe.getRef(), "3", "ECMAScript", "Crockford", 1L));
+        actor.tell(new RemoveBook(probe.getRef(), "1"));
+        assertEquals(
+                titles("java concurrency in practice"),
+                titles(query(actor, p -> new FindBooksByTitle(p, "java", null, 10))));
+        assertEquals(
+                titles("ECMAScript"),
+                titles(query(actor, p -> new FindBooksByAuthor(p, "Crockford", null, 10))));
+    }
+
+    /** 重启后索引与重启前一致 */
+    @Test
+    public void recovery_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        ActorRef<BookCommand> actor = spawn(persistenceId);
+        for (int i = 0; i < 10; i++) {
+            add(actor, String.valueOf(i), "Title " + i, i % 2 == 0 ? "even" : "odd");
+        }
+        testKit.stop(actor, Duration.ofSeconds(10));
+
+        ActorRef<BookCommand> recovered = spawn(persistenceId);
+        assertEquals(
+                titles("Title 0", "Title 2", "Title 4", "Title 6", "Title 8"),
+                titles(query(recovered, probe -> new FindBooksByAuthor(probe, "even", null, 10))));
+        assertEquals(
+                10,
+                query(recovered, probe -> new FindBooksByTitle(probe, "title", null, 10))
+                        .getBooks()
+                        .size());
+    }
+
+    /** 按 uuid 顺序翻页读取所有的书 */
+    @Test
+    public void getBooksPage_case() {
+        ActorRef<BookCommand> actor = spawn(PersistenceId.ofUniqueId("book-" + UUID.randomUUID()));
+        for (int i = 0; i < 5; i++) {
+            add(actor, "uuid-" + i, "Title " + i, "author");
+        }
+        List<String> uuids = new ArrayList<>();
+        String cursor = null;
+        do {
+            String current = cursor;
+            BookPage page = query(actor, probe -> new GetBooksPage(probe, current, 2));
+            for (Book book : page.getBooks()) {
+                uuids.add(book.getUuid());
+            }
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(titles("uuid-0", "uuid-1", "uuid-2", "uuid-3", "uuid-4"), uuids);
+    }
+
+    /** 流式读取所有的书, 每次只请求一页; 下游只取一部分时不会读取剩余的页 */
+    @Test
+    public void allBooks_case() {
+        ActorRef<BookCommand> actor = spawn(PersistenceId.ofUniqueId("book-" + UUID.randomUUID()));
+        int books = 250;
+        for (int i = 0; i < books; i++) {
+            add(actor, String.format("uuid-%04d", i), "Title " + i, "author");
+        }
+
+        List<Book> all =
+                BookSource.allBooks(actor, 100, Duration.ofSeconds(3), testKit.scheduler())
+                        .runWith(Sink.seq(), testKit.system())
+                        .toCompletableFuture()
+                        .join();
+        assertEquals(books, all.size());
+        for (int i = 0; i < books; i++) {
+            assertEquals(String.format("uuid-%04d", i), all.get(i).getUuid());
+        }
+
+        List<Book> first =
+                BookSource.allBooks(actor, 100, Duration.ofSeconds(3), testKit.scheduler())
+                        .take(10)
+                        .runWith(Sink.seq(), testKit.system())
+                        .toCompletableFuture()
+                        .join();
+        assertEquals(10, first.size());
+    }
+
+    /** 每页数量超出范围时回复错误 */
+    @Test
+    public void invalidLimit_case() {
+        ActorRef<BookCommand> actor = spawn(PersistenceId.ofUniqueId("book-" + UUID.randomUUID()));
+        TestProbe<StatusReply<BookPage>> probe = testKit.createTestProbe();
+        actor.tell(new FindBooksByTitle(probe.getRef(), "a", null, 0));
+        assertTrue(probe.receiveMessage(Duration.ofSeconds(10)).isError());
+        actor.tell(
+                new FindBooksByAuthor(probe.getRef(), "a", null, BookBehavior.MAX_PAGE_SIZE + 1));
+        assertTrue(probe.receiveMessage(Duration.ofSeconds(10)).isError());
+    }
+
+    private static ActorRef<BookCommand> spawn(PersistenceId persistenceId) {
+        return testKit.spawn(BookBehavior.create(persistenceId, SNAPSHOT));
+    }
+
+    private static void add(ActorRef<BookCommand> actor, String uuid, String title, String author) {
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new AddBook(probe.getRef(), uuid, title, author, 1L));
+        assertTrue(probe.receiveMessage(Duration.ofSeconds(10)).isSuccess());
+    }
+
+    private static BookPage query(
+            ActorRef<BookCommand> actor,
+            Function<ActorRef<StatusReply<BookPage>>, BookCommand> query) {
+        TestProbe<StatusReply<BookPage>> probe = testKit.createTestProbe();
+        actor.tell(query.apply(probe.getRef()));
+        return probe.receiveMessage(Duration.ofSeconds(10)).getValue();
+    }
+
+    private static List<String> titles(BookPage page) {
+        List<String> titles = new ArrayList<>();
+        for (Book book : page.getBooks()) {
+            titles.add(book.getTitle());
+        }
+        return titles;
+    }
+
+    private static List<String> titles(String... titles) {
+        List<String> list = new ArrayList<>();
+        for (String title : titles) {
+            list.add(title);
+        }
+        return list;
+    }
+}
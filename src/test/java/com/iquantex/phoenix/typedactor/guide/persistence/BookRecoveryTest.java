@@ -0,0 +1,149 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetAllBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.typed.PersistenceId;
+import akka.stream.javadsl.Sink;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link BookSnapshotPolicy} 对事件溯源耗时的影响.
+ *
+ * <p>不保存快照时溯源耗时随事件数量线性增长; 每 N 个事件保存快照后, 溯源只需要读取最近的快照和之后不超过 N 个事件. 事件数量可以通过 -Dbook.recovery.events
+ * 调整, 例如 1000000
+ */
+@Slf4j
+public class BookRecoveryTest {
+
+    private static final int EVENTS = Integer.getInteger("book.recovery.events", 20_000);
+    /** 书的数量, 状态大小固定, 只比较事件数量的影响 */
+    private static final int BOOKS = 1_000;
+
+    private static final BookSnapshotPolicy SNAPSHOT =
+            new BookSnapshotPolicy(1_000, 2, true, true, Duration.ZERO);
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit =
+                ActorTestKit.create(
+                        "BookRecoveryTest", ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 分别写入 EVENTS / 10 和 EVENTS 个事件, 对比有无快照时的溯源耗时 */
+    @Test
+    public void recovery_benchmark_case() {
+        for (int events : new int[] {EVENTS / 10, EVENTS}) {
+            long plain = recover(BookSnapshotPolicy.DISABLED, events);
+            long snapshot = recover(SNAPSHOT, events);
+            log.info("{} 个事件, 不保存快照溯源耗时 {}ms, 保存快照溯源耗时 {}ms", events, plain, snapshot);
+        }
+    }
+
+    /** 默认配置同时运行 BookProjection, 不能删除还没有被投影的事件 */
+    @Test
+    public void defaultPolicy_case() {
+        BookSnapshotPolicy policy =
+                BookSnapshotPolicy.fromConfig(ConfigFactory.load("reference-persistence.conf"));
+        assertTrue(policy.getEveryNEvents() > 0);
+        assertFalse(policy.isDeleteEvents());
+    }
+
+    /** 快照之前的事件被删除, 日志不会无限增长, 溯源的状态不变 */
+    @Test
+    public void deleteEvents_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        write(persistenceId, SNAPSHOT, 5_000);
+
+        JdbcReadJournal readJournal =
+                PersistenceQuery.get(Adapter.toClassic(testKit.system()))
+                        .getReadJournalFor(JdbcReadJournal.class, JdbcReadJournal.Identifier());
+        TestProbe<Object> probe = testKit.createTestProbe();
+        probe.awaitAssert(
+                Duration.ofSeconds(10),
+                () -> {
+                    long remaining =
+                            readJournal
+                                    .currentEventsByPersistenceId(
+                                            persistenceId.id(), 0, Long.MAX_VALUE)
+                                    .runWith(
+                                            Sink.fold(0L, (count, e) -> count + 1),
+                                            testKit.system())
+                                    .toCompletableFuture()
+                                    .join();
+                    // 保留 2 个快照, 只剩最早保留的快照之后的事件. JDBC 日志会保留最后一个被删除的事件用于记录序号
+                    assertTrue(remaining <= 2_001, "remaining events: " + remaining);
+                    return null;
+                });
+
+        assertEquals(
+                BOOKS, getAll(testKit.spawn(BookBehavior.create(persistenceId, SNAPSHOT))).size());
+    }
+
+    /** 写入事件后重新创建 Actor, 返回从创建到第一次查询返回的耗时 */
+    private static long recover(BookSnapshotPolicy policy, int events) {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        write(persistenceId, policy, events);
+
+        long start = System.nanoTime();
+        Map<String, Book> books = getAll(testKit.spawn(BookBehavior.create(persistenceId, policy)));
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        assertEquals(Math.min(BOOKS, events), books.size());
+        return elapsed;
+    }
+
+    private static void write(PersistenceId persistenceId, BookSnapshotPolicy policy, int events) {
+        ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId, policy));
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        // 持久化期间收到的命令会暂存, 超过 stash-capacity(默认 4096) 的命令会被丢弃, 所以分批发送
+        for (int from = 0; from < events; from += BOOKS) {
+            int to = Math.min(events, from + BOOKS);
+            for (int i = from; i < to; i++) {
+                actor.tell(
+                        new AddBook(
+                                probe.getRef(), "book-" + i % BOOKS, "title-" + i, "author", 1L));
+            }
+            probe.receiveSeveralMessages(to - from, Duration.ofSeconds(60));
+        }
+        testKit.stop(actor, Duration.ofSeconds(10));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Book> getAll(ActorRef<BookCommand> actor) {
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new GetAllBook(probe.getRef()));
+        Map<String, Book> books =
+                (Map<String, Book>) probe.receiveMessage(Duration.ofSeconds(60)).getValue();
+        testKit.stop(actor, Duration.ofSeconds(10));
+        return books;
+    }
+}
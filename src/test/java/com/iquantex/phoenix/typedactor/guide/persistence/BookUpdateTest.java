@@ -0,0 +1,219 @@
+package com.iquantex.phoenix.typedactor.guide.persistence;
+
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.AddBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.GetBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookCommand.UpdateBook;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookAdded;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookRemoved;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookEvent.BookUpdated;
+import com.iquantex.phoenix.typedactor.guide.persistence.BookState.Book;
+
+import com.typesafe.config.ConfigFactory;
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.javadsl.Adapter;
+import akka.pattern.StatusReply;
+import akka.persistence.jdbc.query.javadsl.JdbcReadJournal;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import akka.persistence.query.PersistenceQuery;
+import akka.persistence.typed.PersistenceId;
+import akka.persistence.typed.javadsl.CommandHandler;
+import akka.persistence.typed.javadsl.EventHandler;
+import akka.persistence.typed.javadsl.EventSourcedBehavior;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.stream.javadsl.Sink;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link UpdateBook} 只持久化一个 {@link BookUpdated} 增量事件.
+ *
+ * <p>与旧版本的 {@link BookRemoved} + {@link BookAdded} 对比日志字节数, 行数和写入延迟, 旧版本的事件仍然可以溯源
+ */
+@Slf4j
+public class BookUpdateTest {
+
+    private static final int UPDATES = 1_000;
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit =
+                ActorTestKit.create(
+                        "BookUpdateTest", ConfigFactory.load("reference-persistence.conf"));
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    /** 只修改价格时, 增量事件的序列化字节数小于 移除 + 完整添加 */
+    @Test
+    public void journalBytes_case() {
+        Serialization serialization = SerializationExtension.get(testKit.system());
+        String uuid = UUID.randomUUID().toString();
+        int legacy =
+                serialization.serialize(new BookRemoved(uuid)).get().length
+                        + serialization
+                                .serialize(new BookAdded(uuid, "Java In Action", "Markting", 99L))
+                                .get()
+                                .length;
+        int delta = serialization.serialize(new BookUpdated(uuid, null, null, 99L)).get().length;
+        log.info("每次更新的日志字节数: 移除 + 添加 {} bytes, 增量 {} bytes", legacy, delta);
+        assertTrue(delta < legacy);
+    }
+
+    /** 每次更新只写一行日志, 对比写入延迟 */
+    @Test
+    public void writeLatency_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId));
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new AddBook(probe.getRef(), "1", "Java In Action", "Markting", 0L));
+        probe.receiveMessage(Duration.ofSeconds(10));
+
+        long start = System.nanoTime();
+        for (long price = 1; price <= UPDATES; price++) {
+            actor.tell(new UpdateBook(probe.getRef(), "1", "Java In Action", "Markting", price));
+            // UpdateBook 没有回复, 持久化期间 GetBook 被暂存, 收到回复时更新已经完成
+            actor.tell(new GetBook(probe.getRef(), "1"));
+            assertEquals(price, ((Book) probe.receiveMessage().getValue()).getPrice());
+        }
+        long delta = (System.nanoTime() - start) / UPDATES / 1_000;
+
+        ActorRef<Write> writer =
+                testKit.spawn(
+                        new LegacyWriter(PersistenceId.ofUniqueId("book-" + UUID.randomUUID())));
+        TestProbe<Done> done = testKit.createTestProbe();
+        start = System.nanoTime();
+        for (long price = 1; price <= UPDATES; price++) {
+            writer.tell(
+                    new Write(
+                            Arrays.asList(
+                                    new BookRemoved("1"),
+                                    new BookAdded("1", "Java In Action", "Markting", price)),
+                            done.getRef()));
+            done.receiveMessage();
+        }
+        long legacy = (System.nanoTime() - start) / UPDATES / 1_000;
+        log.info("{} 次更新的平均写入延迟: 移除 + 添加 {}us, 增量 {}us", UPDATES, legacy, delta);
+
+        assertEquals(1 + UPDATES, countEvents(persistenceId));
+    }
+
+    /** 旧版本的 移除 + 添加 事件与增量事件混合的日志, 溯源结果正确 */
+    @Test
+    public void legacyReplay_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        ActorRef<Write> writer = testKit.spawn(new LegacyWriter(persistenceId));
+        TestProbe<Done> done = testKit.createTestProbe();
+        writer.tell(
+                new Write(
+                        Arrays.asList(
+                                new BookAdded("1", "Java In Action", "Markting", 109L),
+                                new BookRemoved("1"),
+                                new BookAdded("1", "Java In Action", "Marting", 99L),
+                                new BookUpdated("1", null, null, 89L)),
+                        done.getRef()));
+        done.receiveMessage(Duration.ofSeconds(10));
+        testKit.stop(writer, Duration.ofSeconds(10));
+
+        ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId));
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new GetBook(probe.getRef(), "1"));
+        Book book = (Book) probe.receiveMessage(Duration.ofSeconds(10)).getValue();
+        assertEquals("Marting", book.getAuthor());
+        assertEquals(89L, book.getPrice());
+    }
+
+    /** 把字段更新为 null 时清空该字段, 重新溯源后仍然为 null */
+    @Test
+    public void clearField_case() {
+        PersistenceId persistenceId = PersistenceId.ofUniqueId("book-" + UUID.randomUUID());
+        ActorRef<BookCommand> actor = testKit.spawn(BookBehavior.create(persistenceId));
+        TestProbe<StatusReply> probe = testKit.createTestProbe();
+        actor.tell(new AddBook(probe.getRef(), "1", "Java In Action", "Markting", 99L));
+        probe.receiveMessage(Duration.ofSeconds(10));
+        actor.tell(new UpdateBook(probe.getRef(), "1", "Java In Action", null, 99L));
+        actor.tell(new GetBook(probe.getRef(), "1"));
+        Book book = (Book) probe.receiveMessage(Duration.ofSeconds(10)).getValue();
+        assertNull(book.getAuthor());
+        assertEquals(99L, book.getPrice());
+        testKit.stop(actor, Duration.ofSeconds(10));
+
+        actor = testKit.spawn(BookBehavior.create(persistenceId));
+        actor.tell(new GetBook(probe.getRef(), "1"));
+        book = (Book) probe.receiveMessage(Duration.ofSeconds(10)).getValue();
+        assertNull(book.getAuthor());
+        assertEquals("Java In Action", book.getTitle());
+        assertEquals(99L, book.getPrice());
+    }
+
+    private static long countEvents(PersistenceId persistenceId) {
+        JdbcReadJournal readJournal =
+                PersistenceQuery.get(Adapter.toClassic(testKit.system()))
+                        .getReadJournalFor(JdbcReadJournal.class, JdbcReadJournal.Identifier());
+        return readJournal
+                .currentEventsByPersistenceId(persistenceId.id(), 0, Long.MAX_VALUE)
+                .runWith(Sink.fold(0L, (count, e) -> count + 1), testKit.system())
+                .toCompletableFuture()
+                .join();
+    }
+
+    @AllArgsConstructor
+    private static final class Write {
+
+        private final List<BookEvent> events;
+        private final ActorRef<Done> replyTo;
+    }
+
+    /** 直接写入指定的事件, 模拟旧版本的日志 */
+    private static final class LegacyWriter
+            extends EventSourcedBehavior<Write, BookEvent, Integer> {
+
+        LegacyWriter(PersistenceId persistenceId) {
+            super(persistenceId);
+        }
+
+        @Override
+        public Integer emptyState() {
+            return 0;
+        }
+
+        @Override
+        public CommandHandler<Write, BookEvent, Integer> commandHandler() {
+            return newCommandHandlerBuilder()
+                    .forAnyState()
+                    .onCommand(
+                            Write.class,
+                            write ->
+                                    Effect()
+                                            .persist(write.events)
+                                            .thenReply(write.replyTo, state -> Done.done()))
+                    .build();
+        }
+
+        @Override
+        public EventHandler<Integer, BookEvent> eventHandler() {
+            return newEventHandlerBuilder().forAnyState().onAnyEvent((state, event) -> state + 1);
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.db;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+
+import com.typesafe.config.ConfigFactory;
+import akka.Done;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例对比了 {@link DB} 的三个实现: {@link JdbcDB}, {@link MappedFileDB}, 以及 {@link JdbcDB} 之上的 {@link
+ * WriteBehindDB}.
+ *
+ * <p>每个实现都先校验读写结果, 再测量逐条保存和读取的延迟, 以及并发保存的吞吐量
+ */
+@Slf4j
+public class DBBenchmarkTest {
+
+    private static final int LISTS = 100;
+    private static final int OPERATIONS = 5_000;
+
+    private static ExecutorService executor;
+    private static JdbcDB jdbc;
+    private static Path file;
+    private static MappedFileDB mapped;
+
+    @BeforeAll
+    public static void setup() throws SQLException, IOException {
+        executor = Executors.newFixedThreadPool(8);
+        jdbc = JdbcDB.fromConfig(ConfigFactory.load("reference-delivery.conf"), 8, executor);
+        jdbc.createTableIfNotExists();
+        file = Files.createTempFile("todo-db", ".dat");
+        mapped = MappedFileDB.open(file, 1 << 20);
+    }
+
+    @AfterAll
+    public static void teardown() throws IOException {
+        jdbc.close();
+        mapped.close();
+        Files.deleteIfExists(file);
+        executor.shutdown();
+    }
+
+    @Test
+    public void benchmark_case() {
+        Map<String, DB> dbs = new LinkedHashMap<>();
+        dbs.put("JdbcDB", jdbc);
+        dbs.put("MappedFileDB", mapped);
+        dbs.put("WriteBehindDB(JdbcDB)", new WriteBehindDB(jdbc, LISTS));
+        dbs.forEach(DBBenchmarkTest::benchmark);
+    }
+
+    /** 文件扩容后重新打开, 读取到每个 TodoList 最新的状态 */
+    @Test
+    public void mappedFileRecovery_case() throws IOException {
+        Path path = Files.createTempFile("todo-db", ".dat");
+        try {
+            TodoState state = new TodoState(new ArrayList<>());
+            try (MappedFileDB db = MappedFileDB.open(path, 64)) {
+                for (int i = 0; i < 1_000; i++) {
+                    state = state.add("task-" + i);
+                    db.save("list-" + (i % 10), state).toCompletableFuture().join();
+                }
+            }
+            try (MappedFileDB db = MappedFileDB.open(path, 64)) {
+                assertEquals(state.getTasks(), load(db, "list-9").getTasks());
+                assertEquals(991, load(db, "list-0").size());
+                assertNull(load(db, "list-10"));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /** delegate 的 save 同步抛出异常时, 这次保存失败, 之后的保存不受影响 */
+    @Test
+    public void writeBehindSyncFailure_case() throws Exception {
+        AtomicInteger saves = new AtomicInteger();
+        DB failFirst =
+                new DB() {
+                    @Override
+                    public CompletionStage<Done> save(String id, TodoState state) {
+                        if (saves.incrementAndGet() == 1) {
+                            throw new IllegalStateException("同步失败");
+                        }
+                        return mapped.save(id, state);
+                    }
+
+                    @Override
+                    public CompletionStage<TodoState> load(String id) {
+                        return mapped.load(id);
+                    }
+                };
+        WriteBehindDB db = new WriteBehindDB(failFirst, 10);
+        String id = "list-" + UUID.randomUUID();
+        assertThrows(
+                CompletionException.class,
+                () ->
+                        db.save(id, new TodoState(Collections.singletonList("lost")))
+                                .toCompletableFuture()
+                                .join());
+
+        TodoState state = new TodoState(Collections.singletonList("task"));
+        db.save(id, state).toCompletableFuture().get(3, TimeUnit.SECONDS);
+        assertEquals(state.getTasks(), load(mapped, id).getTasks());
+    }
+
+    /** 单个任务超过 64KB 时, 两种实现都可以保存和读取 */
+    @Test
+    public void largeTask_case() {
+        char[] task = new char[70_000];
+        Arrays.fill(task, '任');
+        TodoState state = new TodoState(Arrays.asList(new String(task), "task"));
+        for (DB db : new DB[] {jdbc, mapped}) {
+            String id = "list-" + UUID.randomUUID();
+            db.save(id, state).toCompletableFuture().join();
+            assertEquals(state.getTasks(), load(db, id).getTasks());
+        }
+    }
+
+    /** 写入进行中的保存合并为一次写入, 所有的保存都在最新的状态写入后完成 */
+    @Test
+    public void writeBehindCoalescing_case() {
+        AtomicInteger writes = new AtomicInteger();
+        DB slow =
+                new DB() {
+                    @Override
+                    public CompletionStage<Done> save(String id, TodoState state) {
+                        writes.incrementAndGet();
+                        return CompletableFuture.supplyAsync(
+                                () -> {
+                                    sleep(20);
+                                    return mapped.save(id, state).toCompletableFuture().join();
+                                },
+                                executor);
+                    }
+
+                    @Override
+                    public CompletionStage<TodoState> load(String id) {
+                        return mapped.load(id);
+                    }
+                };
+        WriteBehindDB db = new WriteBehindDB(slow, 10);
+        String id = "list-" + UUID.randomUUID();
+        TodoState state = new TodoState(new ArrayList<>());
+        List<CompletableFuture<Done>> saves = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            state = state.add("task-" + i);
+            saves.add(db.save(id, state).toCompletableFuture());
+            assertEquals(state.getTasks(), load(db, id).getTasks());
+        }
+        saves.forEach(CompletableFuture::join);
+        log.info("WriteBehindDB: 100 次保存, 写入 {} 次", writes.get());
+        assertTrue(writes.get() < 100);
+        assertEquals(state.getTasks(), load(mapped, id).getTasks());
+    }
+
+    private static void benchmark(String name, DB db) {
+        String prefix = name + "-" + UUID.randomUUID() + "-";
+        TodoState state =
+                new TodoState(Arrays.asList("learning java", "learning python", "learning c#"));
+        assertNull(load(db, prefix + "missing"));
+
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            db.save(prefix + (i % LISTS), state.add("task-" + i)).toCompletableFuture().join();
+        }
+        long saveNanos = (System.nanoTime() - start) / OPERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            assertEquals(4, load(db, prefix + (i % LISTS)).size());
+        }
+        long loadNanos = (System.nanoTime() - start) / OPERATIONS;
+
+        start = System.nanoTime();
+        List<CompletableFuture<Done>> saves = new ArrayList<>(OPERATIONS);
+        for (int i = 0; i < OPERATIONS; i++) {
+            saves.add(db.save(prefix + (i % LISTS), state).toCompletableFuture());
+        }
+        saves.forEach(CompletableFuture::join);
+        long throughput = OPERATIONS * 1_000_000_000L / (System.nanoTime() - start);
+        assertEquals(state.getTasks(), load(db, prefix + 0).getTasks());
+
+        log.info(
+                "{}: 保存 {}us, 读取 {}us, 并发保存 {} 次/秒",
+                name,
+                saveNanos / 1_000,
+                loadNanos / 1_000,
+                throughput);
+    }
+
+    private static TodoState load(DB db, String id) {
+        return db.load(id).toCompletableFuture().join();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.payload;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 该测试用例演示了 {@link ImagePayload} 分块存放在 {@link DirectBufferPool} 中, 释放后缓冲区被复用 */
+public class ImagePayloadTest {
+
+    @Test
+    public void roundTrip_case() throws IOException {
+        DirectBufferPool pool = new DirectBufferPool(100, 10);
+        for (int size : new int[] {0, 1, 99, 100, 101, 1_000}) {
+            byte[] image = new byte[size];
+            new Random(size).nextBytes(image);
+            ImagePayload payload = ImagePayload.copyOf(image, pool);
+            assertEquals(size, payload.size());
+            assertArrayEquals(image, payload.toByteArray());
+            assertArrayEquals(image, readAll(payload.newInputStream()));
+            payload.release();
+        }
+        assertEquals(0, pool.inUse());
+    }
+
+    @Test
+    public void release_case() {
+        DirectBufferPool pool = new DirectBufferPool(100, 3);
+        ImagePayload payload = ImagePayload.copyOf(new byte[450], pool);
+        assertEquals(5, pool.inUse());
+        payload.release();
+        payload.release();
+        assertTrue(payload.isReleased());
+        assertEquals(0, pool.inUse());
+        // 超过 maxPooled 的缓冲区直接丢弃
+        assertEquals(3, pool.pooled());
+        assertThrows(IllegalStateException.class, payload::newInputStream);
+
+        ImagePayload reused = ImagePayload.copyOf(new byte[250], pool);
+        assertEquals(0, pool.pooled());
+        reused.release();
+    }
+
+    /** 与 Akka 一样检测任意可见性的字段, ImagePayload 仍然只作为字节数组序列化, 不会检测 pool 等字段 */
+    @Test
+    public void jackson_case() throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setVisibility(PropertyAccessor.FIELD, Visibility.ANY);
+        JavaType type = mapper.constructType(ImagePayload.class);
+        assertTrue(mapper.getDeserializationConfig().introspect(type).findProperties().isEmpty());
+
+        DirectBufferPool pool = new DirectBufferPool(2, 10);
+        ImagePayload payload = ImagePayload.copyOf(new byte[] {1, 2, 3}, pool);
+        ImagePayload restored =
+                mapper.readValue(mapper.writeValueAsBytes(payload), ImagePayload.class);
+        payload.release();
+        assertArrayEquals(new byte[] {1, 2, 3}, restored.toByteArray());
+    }
+
+    @Test
+    public void onHeap_case() {
+        byte[] image = {1, 2, 3};
+        ImagePayload payload = ImagePayload.onHeap(image);
+        // 持久化队列仍然可能序列化, 释放没有影响
+        payload.release();
+        assertFalse(payload.isReleased());
+        assertArrayEquals(image, payload.toByteArray());
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[37];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
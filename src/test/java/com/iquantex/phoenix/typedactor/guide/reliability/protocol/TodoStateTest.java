@@ -0,0 +1,79 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.protocol;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/** 该测试用例演示了 {@link TodoState} 的行为与按顺序保存任务的 {@link ArrayList} 一致, 并且修改后旧的状态不变 */
+@Slf4j
+public class TodoStateTest {
+
+    /** 随机添加和删除, 包括重复的任务, 每一步都与 ArrayList 对比 */
+    @Test
+    public void random_case() {
+        Random random = new Random(42);
+        List<String> expected = new ArrayList<>();
+        TodoState state = new TodoState(new ArrayList<>());
+        for (int i = 0; i < 20_000; i++) {
+            String task = "task-" + random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                expected.remove(task);
+                state = state.remove(task);
+            } else {
+                expected.add(task);
+                state = state.add(task);
+            }
+            assertEquals(expected.size(), state.size());
+        }
+        assertEquals(expected, state.getTasks());
+        assertEquals(expected, new TodoState(expected).getTasks());
+    }
+
+    /** 修改返回新的状态, 旧的状态和已经返回的列表不变 */
+    @Test
+    public void persistent_case() {
+        TodoState state = new TodoState(Arrays.asList("learning java", "learning python"));
+        List<String> tasks = state.getTasks();
+        TodoState added = state.add("learning java");
+        TodoState removed = added.remove("learning java");
+
+        assertEquals(Arrays.asList("learning java", "learning python"), state.getTasks());
+        assertEquals(
+                Arrays.asList("learning java", "learning python", "learning java"),
+                added.getTasks());
+        assertEquals(Arrays.asList("learning python", "learning java"), removed.getTasks());
+        assertSame(tasks, state.getTasks());
+        assertSame(removed, removed.remove("learning c#"));
+        assertThrows(UnsupportedOperationException.class, () -> tasks.add("learning c#"));
+    }
+
+    /** 大列表上的添加和删除不复制整个列表 */
+    @Test
+    public void largeList_case() {
+        int size = 100_000;
+        List<String> tasks = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            tasks.add("task-" + i);
+        }
+        TodoState state = new TodoState(tasks);
+        Collections.shuffle(tasks, new Random(42));
+
+        long start = System.nanoTime();
+        for (String task : tasks) {
+            state = state.remove(task).add(task);
+        }
+        long nanos = (System.nanoTime() - start) / size;
+        log.info("{} 个任务, 每次删除 + 添加 {}ns", size, nanos);
+        assertEquals(size, state.size());
+        assertEquals(tasks, state.getTasks());
+    }
+}
@@ -0,0 +1,106 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.AdmissionMetrics;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.AdmissionController;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.AdmissionController.LimitSettings;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 该测试用例演示了 {@link AdmissionController} 按 TodoList 和全局限制未确认的消息数量, 并按确认延迟调整上限 */
+public class AdmissionControllerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.SECONDS.toNanos(2);
+
+    private static AdmissionController create() {
+        return new AdmissionController(
+                new LimitSettings(4, 2, 8),
+                new LimitSettings(6, 3, 12),
+                Duration.ofSeconds(1),
+                0.5);
+    }
+
+    /** 单个 TodoList 达到上限后拒绝, 其他 TodoList 不受影响, 确认后可以继续发送 */
+    @Test
+    public void entityLimit_case() {
+        AdmissionController admission = create();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(admission.tryAcquire("monthly_goal", 0));
+        }
+        assertFalse(admission.tryAcquire("monthly_goal", 0));
+        assertTrue(admission.tryAcquire("annual_goal", 0));
+        // ShardingProducerController 中缓存的数量也计入
+        assertFalse(admission.tryAcquire("annual_goal", 4));
+
+        admission.onConfirmed("monthly_goal", FAST);
+        assertTrue(admission.tryAcquire("monthly_goal", 0));
+        AdmissionMetrics metrics = admission.metrics();
+        assertEquals(6, metrics.getAccepted());
+        assertEquals(2, metrics.getRejected());
+        assertEquals(4, metrics.getEntityInFlight().get("monthly_goal"));
+    }
+
+    /** 所有 TodoList 的未确认消息总数达到全局上限后拒绝 */
+    @Test
+    public void globalLimit_case() {
+        AdmissionController admission = create();
+        for (int i = 0; i < 6; i++) {
+            assertTrue(admission.tryAcquire("list-" + i, 0));
+        }
+        assertFalse(admission.tryAcquire("list-6", 0));
+        assertEquals(6, admission.metrics().getGlobalInFlight());
+    }
+
+    /** 延迟正常时上限逐步增加到最大值, 延迟过高或者超时时成倍减小到最小值 */
+    @Test
+    public void aimd_case() {
+        AdmissionController admission = create();
+        for (int round = 0; round < 20; round++) {
+            while (admission.tryAcquire("monthly_goal", 0)) {}
+            admission.onConfirmed("monthly_goal", FAST);
+        }
+        assertEquals(8, admission.metrics().getEntityLimits().get("monthly_goal"));
+        assertEquals(12, admission.metrics().getGlobalLimit());
+
+        admission.onConfirmed("monthly_goal", SLOW);
+        assertEquals(4, admission.metrics().getEntityLimits().get("monthly_goal"));
+        for (int i = 0; i < 3; i++) {
+            admission.onTimedOut("monthly_goal");
+        }
+        AdmissionMetrics metrics = admission.metrics();
+        assertEquals(2, metrics.getEntityLimits().get("monthly_goal"));
+        assertEquals(3, metrics.getGlobalLimit());
+        assertEquals(3, metrics.getTimedOut());
+        assertFalse(admission.tryAcquire("monthly_goal", 0));
+    }
+
+    /** 没有未确认消息且上限恢复到初始值后, 不再记录该 TodoList */
+    @Test
+    public void release_case() {
+        AdmissionController admission = create();
+        assertTrue(admission.tryAcquire("monthly_goal", 0));
+        admission.onConfirmed("monthly_goal", FAST);
+        assertTrue(admission.metrics().getEntityLimits().isEmpty());
+        assertEquals(0, admission.metrics().getGlobalInFlight());
+    }
+
+    /** reference-cluster.conf 中的配置 */
+    @Test
+    public void config_case() {
+        AdmissionController admission =
+                AdmissionController.fromConfig(ConfigFactory.load("reference-cluster.conf"));
+        assertEquals(1000, admission.metrics().getGlobalLimit());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(admission.tryAcquire("monthly_goal", 0));
+        }
+        assertFalse(admission.tryAcquire("monthly_goal", 0));
+    }
+}
@@ -0,0 +1,208 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.Allocations;
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.AdmissionMetrics;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoResponse;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.GetAdmissionMetrics;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.UpdateTodo;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.AdmissionController;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.AdmissionController.LimitSettings;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.TodoListActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.TodoService;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.ConsumerController.SequencedMessage;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.delivery.ShardingConsumerController;
+import akka.cluster.sharding.typed.delivery.ShardingProducerController;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 该测试用例对比了 {@link TodoService} 的两种确认方式: 每条消息一次 ask, 以及在 actor 内部关联确认.
+ *
+ * <p>一条消息的确认经过 TodoService, ShardingProducerController, Sharding 和 TodoList 多个 actor, 分布在不同的
+ * dispatcher 线程上, 所以统计所有线程的分配之和, 其中也包括测试线程发起的 ask 和同一 JVM 中集群后台任务的分配. 绝对值没有意义, 只用于两种确认方式之间的对比,
+ * 两种方式的所有消息都被确认
+ */
+@Slf4j
+public class ConfirmationBenchmarkTest {
+
+    private static final int LISTS = 100;
+    private static final int WINDOW = 500;
+    private static final int MESSAGES = 20_000;
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        Config config =
+                ConfigFactory.parseString(
+                                "akka.remote.artery.canonical.port = 0\n"
+                                        + "akka.cluster.seed-nodes = []\n"
+                                        + "akka.loglevel = WARNING")
+                        .withFallback(ConfigFactory.load("reference-cluster.conf"));
+        testKit = ActorTestKit.create("ConfirmationBenchmarkTest", config);
+        Cluster cluster = Cluster.get(testKit.system());
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+        testKit.createTestProbe()
+                .awaitAssert(
+                        Duration.ofSeconds(10),
+                        () -> {
+                            assertEquals(MemberStatus.up(), cluster.selfMember().status());
+                            return null;
+                        });
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void benchmark_case() throws InterruptedException {
+        ActorRef<TodoServiceMessage> ask = service("todo-ask", false);
+        ActorRef<TodoServiceMessage> tracked = service("todo-tracked", true);
+        // 预热
+        run(ask, MESSAGES, LISTS);
+        run(tracked, MESSAGES, LISTS);
+        report("ask", ask, LISTS);
+        report("tracked", tracked, LISTS);
+    }
+
+    /** 每个 TodoList 同时只有一条未确认的消息, 确认后队列为空, 转发确认的子 actor 应该被复用而不是每条消息创建一次 */
+    @Test
+    public void singleMessagePerList_case() throws InterruptedException {
+        ActorRef<TodoServiceMessage> ask = service("todo-ask-single", false);
+        ActorRef<TodoServiceMessage> tracked = service("todo-tracked-single", true);
+        // 预热
+        run(ask, MESSAGES, WINDOW);
+        run(tracked, MESSAGES, WINDOW);
+        report("ask (single)", ask, WINDOW);
+        report("tracked (single)", tracked, WINDOW);
+    }
+
+    private static void report(String name, ActorRef<TodoServiceMessage> service, int lists) {
+        long bytes = Allocations.ofAllThreads();
+        long start = System.nanoTime();
+        run(service, MESSAGES, lists);
+        long nanos = System.nanoTime() - start;
+        bytes = Allocations.ofAllThreads() - bytes;
+        log.info(
+                "{}: 每条消息分配 {} 字节, {} 条/秒",
+                name,
+                bytes / MESSAGES,
+                MESSAGES * 1_000_000_000L / nanos);
+
+        AdmissionMetrics metrics =
+                AskPattern.<TodoServiceMessage, AdmissionMetrics>ask(
+                                service,
+                                GetAdmissionMetrics::new,
+                                Duration.ofSeconds(3),
+                                testKit.scheduler())
+                        .toCompletableFuture()
+                        .join();
+        assertEquals(0, metrics.getGlobalInFlight());
+        assertEquals(0, metrics.getTimedOut());
+    }
+
+    /** 每次最多 WINDOW 条未确认的消息, 分散到 lists 个 TodoList, 不超过 ShardingProducerController 的缓冲区 */
+    private static void run(ActorRef<TodoServiceMessage> service, int messages, int lists) {
+        for (int sent = 0; sent < messages; sent += WINDOW) {
+            List<CompletableFuture<TodoResponse>> responses = new ArrayList<>(WINDOW);
+            for (int i = sent; i < sent + WINDOW; i++) {
+                String listId = "list-" + (i % lists);
+                String item = "task-" + i;
+                responses.add(
+                        AskPattern.<TodoServiceMessage, TodoResponse>ask(
+                                        service,
+                                        replyTo -> new UpdateTodo(listId, item, false, replyTo),
+                                        Duration.ofSeconds(10),
+                                        testKit.scheduler())
+                                .toCompletableFuture());
+            }
+            responses.forEach(response -> assertEquals(TodoResponse.ACCEPTED, response.join()));
+        }
+    }
+
+    private static ActorRef<TodoServiceMessage> service(String typeName, boolean tracked)
+            throws InterruptedException {
+        EntityTypeKey<SequencedMessage<TodoListMessage>> entityTypeKey =
+                EntityTypeKey.create(ShardingConsumerController.entityTypeKeyClass(), typeName);
+        DB db = new NoopDB();
+        ActorRef<ShardingEnvelope<SequencedMessage<TodoListMessage>>> region =
+                ClusterSharding.get(testKit.system())
+                        .init(
+                                Entity.of(
+                                        entityTypeKey,
+                                        entityContext ->
+                                                ShardingConsumerController.create(
+                                                        start ->
+                                                                TodoListActor.create(
+                                                                        entityContext.getEntityId(),
+                                                                        db,
+                                                                        start))));
+        ActorRef<ShardingProducerController.Command<TodoListMessage>> producerController =
+                testKit.spawn(
+                        ShardingProducerController.create(
+                                TodoListMessage.class,
+                                typeName + "-producer",
+                                region,
+                                Optional.empty()));
+        AdmissionController admission =
+                new AdmissionController(
+                        new LimitSettings(WINDOW, WINDOW, WINDOW),
+                        new LimitSettings(WINDOW, WINDOW, WINDOW),
+                        Duration.ofSeconds(10),
+                        1.0);
+        Behavior<TodoServiceMessage> behavior =
+                tracked
+                        ? TodoService.create(producerController, admission, Duration.ofSeconds(5))
+                        : TodoService.create(producerController, admission);
+        ActorRef<TodoServiceMessage> service = testKit.spawn(behavior);
+        // 等待生产者收到 RequestNext
+        Thread.sleep(1000);
+        return service;
+    }
+
+    /** 不做任何事情的数据库, 只测量确认本身的开销 */
+    private static final class NoopDB implements DB {
+
+        @Override
+        public CompletionStage<Done> save(String id, TodoState state) {
+            return CompletableFuture.completedFuture(Done.done());
+        }
+
+        @Override
+        public CompletionStage<TodoState> load(String id) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.DirectBufferPool;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.GetResult;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.ConversionResultStore;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.ImageConverterActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.WorkManager;
+
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link ConversionResultStore} 在内存中保留最近的结果, 超过大小限制时写入磁盘, 以及通过 {@link WorkManager} 查询转换结果
+ */
+public class ConversionResultStoreTest {
+
+    private static ExecutorService executor;
+    private static Path directory;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        executor = Executors.newFixedThreadPool(2);
+        directory = Files.createTempDirectory("conversion-results");
+    }
+
+    @AfterAll
+    public static void teardown() throws IOException {
+        executor.shutdown();
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void spill_case() throws IOException {
+        ConversionResultStore store =
+                ConversionResultStore.open(directory.resolve("spill"), 100, 1024, executor);
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+        UUID third = UUID.randomUUID();
+        store.put(first, bytes(60, 1));
+        store.put(second, bytes(30, 2));
+        // 读取后 first 成为最近使用的结果
+        assertArrayEquals(bytes(60, 1), get(store, first).get());
+        store.put(third, bytes(30, 3));
+        assertEquals(90, store.memoryBytes());
+
+        // second 被写入磁盘, 写入过程中和写入完成后都可以读取
+        assertArrayEquals(bytes(30, 2), get(store, second).get());
+        awaitFile(directory.resolve("spill").resolve(second.toString()));
+        assertArrayEquals(bytes(30, 2), get(store, second).get());
+        assertFalse(get(store, UUID.randomUUID()).isPresent());
+    }
+
+    /** 磁盘上超过 maxDiskBytes 时删除最早写入的结果, delete 同时删除内存和磁盘上的结果 */
+    @Test
+    public void retention_case() throws IOException {
+        Path dir = directory.resolve("retention");
+        ConversionResultStore store = ConversionResultStore.open(dir, 0, 100, executor);
+        UUID[] ids = new UUID[5];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = UUID.randomUUID();
+            store.put(ids[i], bytes(30, i));
+            awaitFile(dir.resolve(ids[i].toString()));
+        }
+        // 只保留最近的 3 个结果, 文件重命名之后才更新索引
+        awaitDiskBytes(store, 90);
+        awaitDeleted(dir.resolve(ids[0].toString()));
+        awaitDeleted(dir.resolve(ids[1].toString()));
+        assertFalse(get(store, ids[0]).isPresent());
+        assertArrayEquals(bytes(30, 4), get(store, ids[4]).get());
+
+        store.delete(ids[4]).toCompletableFuture().join();
+        assertEquals(60, store.diskBytes());
+        assertFalse(Files.exists(dir.resolve(ids[4].toString())));
+        assertFalse(get(store, ids[4]).isPresent());
+    }
+
+    /** 重新打开时删除临时文件, 已有的结果计入 maxDiskBytes */
+    @Test
+    public void reopen_case() throws IOException {
+        Path dir = directory.resolve("reopen");
+        ConversionResultStore store = ConversionResultStore.open(dir, 0, 100, executor);
+        UUID resultId = UUID.randomUUID();
+        store.put(resultId, bytes(30, 1));
+        awaitFile(dir.resolve(resultId.toString()));
+        Path temp = Files.write(dir.resolve(UUID.randomUUID() + ".tmp"), bytes(10, 2));
+
+        ConversionResultStore reopened = ConversionResultStore.open(dir, 0, 100, executor);
+        assertFalse(Files.exists(temp));
+        assertEquals(30, reopened.diskBytes());
+        assertArrayEquals(bytes(30, 1), get(reopened, resultId).get());
+    }
+
+    @Test
+    public void getResult_case() throws IOException {
+        ActorTestKit testKit =
+                ActorTestKit.create(
+                        "ConversionResultStoreTest",
+                        ConfigFactory.parseString("akka.loglevel = INFO")
+                                .withFallback(ConfigFactory.load()));
+        try {
+            ConversionResultStore store =
+                    ConversionResultStore.open(
+                            directory.resolve("actors"), 1024, 1024 * 1024, executor);
+            testKit.spawn(ImageConverterActor.create(2, store, null));
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(WorkManager.create(DirectBufferPool.DEFAULT, store));
+
+            TestProbe<UUID> accepted = testKit.createTestProbe();
+            manager.tell(new Covert("png", "bmp", png(), accepted.getRef()));
+            manager.tell(new Covert("png", "jpeg", png(), accepted.getRef()));
+            UUID bmp = accepted.receiveMessage();
+            UUID jpeg = accepted.receiveMessage();
+
+            TestProbe<Optional<byte[]>> results = testKit.createTestProbe();
+            for (UUID resultId : new UUID[] {bmp, jpeg}) {
+                results.awaitAssert(
+                        Duration.ofSeconds(10),
+                        () -> {
+                            manager.tell(new GetResult(resultId, results.getRef()));
+                            Optional<byte[]> image = results.receiveMessage();
+                            assertTrue(image.isPresent());
+                            assertEquals(64, read(image.get()).getWidth());
+                            return null;
+                        });
+            }
+            manager.tell(new GetResult(UUID.randomUUID(), results.getRef()));
+            assertFalse(results.receiveMessage().isPresent());
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static Optional<byte[]> get(ConversionResultStore store, UUID resultId) {
+        return store.get(resultId).toCompletableFuture().join();
+    }
+
+    private static byte[] bytes(int size, int value) {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void awaitFile(Path file) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!Files.exists(file) && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertTrue(Files.exists(file));
+    }
+
+    private static void awaitDeleted(Path file) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (Files.exists(file) && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertFalse(Files.exists(file));
+    }
+
+    private static void awaitDiskBytes(ConversionResultStore store, long expected) {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (store.diskBytes() != expected && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        assertEquals(expected, store.diskBytes());
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private static BufferedImage read(byte[] image) throws IOException {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+}
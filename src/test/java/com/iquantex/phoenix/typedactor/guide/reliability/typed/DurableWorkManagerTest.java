@@ -0,0 +1,177 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.DirectBufferPool;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionJob;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.ImageConverterActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.WorkManager;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.delivery.ConsumerController.Delivery;
+import akka.actor.typed.javadsl.Behaviors;
+import akka.persistence.jdbc.testkit.javadsl.SchemaUtils;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 该测试用例演示了 {@link WorkManager} 的持久化队列: 已经发送还没有确认的任务在 WorkManager 重启后重新发送. journal 是内存中的 H2,
+ * 这里只演示同一个 JVM 中 WorkManager 重启, 不是进程崩溃后恢复
+ *
+ * <p>同时对比不持久化和不同 jdbc-journal.batchSize 下的吞吐量. 一个 ConsumerController 只能对应一个生产者, 所以只有一个 WorkManager.
+ * 即使只有一个持久化 actor, batchSize 也明显影响吞吐量, 4 个消费者时 batchSize=1 约 400 个/秒, batchSize=10 约 1100 个/秒
+ */
+@Slf4j
+public class DurableWorkManagerTest {
+
+    private static final int WORKERS = 4;
+    private static final int JOBS = 2_000;
+    private static final byte[] IMAGE = new byte[1024];
+
+    @Test
+    public void restart_case() {
+        ActorTestKit testKit = testKit(400);
+        try {
+            String producerId = "durable-" + UUID.randomUUID();
+            // 只接收不确认的消费者
+            TestProbe<Delivery<ConversionJob>> unconfirmed = testKit.createTestProbe();
+            ActorRef<ConsumerController.Command<ConversionJob>> first =
+                    testKit.spawn(ConsumerController.create(ImageConverterActor.serviceKey));
+            first.tell(new ConsumerController.Start<>(unconfirmed.getRef()));
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(
+                            WorkManager.create(DirectBufferPool.DEFAULT, null, producerId, true));
+            TestProbe<UUID> accepted = testKit.createTestProbe();
+            for (int i = 0; i < 5; i++) {
+                manager.tell(new Covert("png", "jpeg", IMAGE, accepted.getRef()));
+            }
+            Set<UUID> resultIds = new HashSet<>(accepted.receiveSeveralMessages(5));
+            unconfirmed.receiveMessage();
+            // 等待所有任务保存到持久化队列, 然后在同一个 JVM 中停止 WorkManager
+            accepted.expectNoMessage(Duration.ofSeconds(1));
+            testKit.stop(manager);
+            testKit.stop(first);
+
+            TestProbe<UUID> confirmed = testKit.createTestProbe();
+            ActorRef<ConsumerController.Command<ConversionJob>> second =
+                    testKit.spawn(ConsumerController.create(ImageConverterActor.serviceKey));
+            second.tell(new ConsumerController.Start<>(testKit.spawn(confirming(confirmed))));
+            testKit.spawn(WorkManager.create(DirectBufferPool.DEFAULT, null, producerId, true));
+            assertEquals(
+                    resultIds,
+                    new HashSet<>(confirmed.receiveSeveralMessages(5, Duration.ofSeconds(10))));
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    @Test
+    public void benchmark_case() {
+        // 持久化队列每 1000 个事件保存一次快照, 快照中的任务已经被消费者确认
+        Logger logger =
+                (Logger)
+                        LoggerFactory.getLogger(
+                                "akka.persistence.typed.internal.EventSourcedBehaviorImpl");
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            run(0);
+            for (int batchSize : new int[] {1, 10, 400}) {
+                run(batchSize);
+            }
+        } finally {
+            logger.detachAppender(appender);
+        }
+        for (ILoggingEvent event : appender.list) {
+            assertFalse(
+                    event.getFormattedMessage().contains("snapshot")
+                            && event.getLevel().isGreaterOrEqual(Level.WARN),
+                    event.getFormattedMessage());
+        }
+    }
+
+    /** batchSize 为 0 时不持久化 */
+    private static void run(int batchSize) {
+        ActorTestKit testKit = testKit(batchSize == 0 ? 400 : batchSize);
+        try {
+            TestProbe<UUID> confirmed = testKit.createTestProbe();
+            for (int i = 0; i < WORKERS; i++) {
+                ActorRef<ConsumerController.Command<ConversionJob>> consumerController =
+                        testKit.spawn(ConsumerController.create(ImageConverterActor.serviceKey));
+                consumerController.tell(
+                        new ConsumerController.Start<>(testKit.spawn(confirming(confirmed))));
+            }
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(
+                            WorkManager.create(
+                                    DirectBufferPool.DEFAULT,
+                                    null,
+                                    "benchmark-" + UUID.randomUUID(),
+                                    batchSize > 0));
+            // 预热
+            manager.tell(new Covert("png", "jpeg", IMAGE));
+            confirmed.receiveMessage(Duration.ofSeconds(30));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < JOBS; i++) {
+                manager.tell(new Covert("png", "jpeg", IMAGE));
+                if (i % 500 == 499) {
+                    // 不超过 WorkManager 暂存的上限
+                    confirmed.receiveSeveralMessages(500, Duration.ofSeconds(60));
+                }
+            }
+            long perSecond = JOBS * 1_000_000_000L / (System.nanoTime() - start);
+            log.info(
+                    "{}: {} 个消费者, 共 {} 个任务, {} 个/秒",
+                    batchSize == 0 ? "不持久化" : "持久化, batchSize=" + batchSize,
+                    WORKERS,
+                    JOBS,
+                    perSecond);
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static ActorTestKit testKit(int batchSize) {
+        Config config =
+                ConfigFactory.parseString(
+                                "akka.loglevel = INFO\n" + "jdbc-journal.batchSize = " + batchSize)
+                        .withFallback(ConfigFactory.load("reference-delivery.conf"));
+        ActorTestKit testKit = ActorTestKit.create("DurableWorkManagerTest", config);
+        SchemaUtils.createIfNotExists(testKit.system()).toCompletableFuture().join();
+        return testKit;
+    }
+
+    /** 收到任务后立即确认, 只测量投递本身的开销 */
+    private static Behavior<Delivery<ConversionJob>> confirming(TestProbe<UUID> confirmed) {
+        return Behaviors.receive(ConsumerController.<ConversionJob>deliveryClass())
+                .onAnyMessage(
+                        delivery -> {
+                            delivery.message().getImage().release();
+                            confirmed.getRef().tell(delivery.message().getResultId());
+                            delivery.confirmTo().tell(ConsumerController.confirmed());
+                            return Behaviors.same();
+                        })
+                .build();
+    }
+}
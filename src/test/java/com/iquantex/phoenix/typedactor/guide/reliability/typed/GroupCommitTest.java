@@ -0,0 +1,216 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoResponse;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoServiceMessage.UpdateTodo;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.TodoListActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.TodoService;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.delivery.ConsumerController.SequencedMessage;
+import akka.actor.typed.javadsl.AskPattern;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.typed.ShardingEnvelope;
+import akka.cluster.sharding.typed.delivery.ShardingConsumerController;
+import akka.cluster.sharding.typed.delivery.ShardingProducerController;
+import akka.cluster.sharding.typed.javadsl.ClusterSharding;
+import akka.cluster.sharding.typed.javadsl.Entity;
+import akka.cluster.sharding.typed.javadsl.EntityTypeKey;
+import akka.cluster.typed.Cluster;
+import akka.cluster.typed.Join;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了 {@link TodoListActor} 的组提交模式: 多个生产者同时向一个 TodoList 发送任务, 数据库保存较慢时, 保存进行中收到的投递合并为一次保存.
+ *
+ * <p>对比逐条保存, 保存次数和总耗时都减少, 所有任务都保存并确认
+ */
+@Slf4j
+public class GroupCommitTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int MESSAGES = 25;
+    private static final long SAVE_MILLIS = 20;
+    private static final Duration COMMIT_DELAY = Duration.ofMillis(5);
+
+    private static ActorTestKit testKit;
+    private static ExecutorService dbExecutor;
+
+    @BeforeAll
+    public static void setup() {
+        Config config =
+                ConfigFactory.parseString(
+                                "akka.remote.artery.canonical.port = 0\n"
+                                        + "akka.cluster.seed-nodes = []\n"
+                                        + "akka.loglevel = INFO")
+                        .withFallback(ConfigFactory.load("reference-cluster.conf"));
+        testKit = ActorTestKit.create("GroupCommitTest", config);
+        Cluster cluster = Cluster.get(testKit.system());
+        cluster.manager().tell(Join.create(cluster.selfMember().address()));
+        testKit.createTestProbe()
+                .awaitAssert(
+                        Duration.ofSeconds(10),
+                        () -> {
+                            assertEquals(MemberStatus.up(), cluster.selfMember().status());
+                            return null;
+                        });
+        dbExecutor = Executors.newCachedThreadPool();
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+        dbExecutor.shutdown();
+    }
+
+    @Test
+    public void groupCommit_case() throws InterruptedException {
+        SlowDB single = new SlowDB();
+        long singleMillis = run("todo-single", single, null);
+        SlowDB group = new SlowDB();
+        long groupMillis = run("todo-group", group, COMMIT_DELAY);
+
+        log.info(
+                "{} 个生产者, 共 {} 条任务: 逐条保存 {} 次 {}ms, 组提交保存 {} 次 {}ms",
+                PRODUCERS,
+                PRODUCERS * MESSAGES,
+                single.saves.get(),
+                singleMillis,
+                group.saves.get(),
+                groupMillis);
+        assertEquals(PRODUCERS * MESSAGES, single.saves.get());
+        // 经过 ShardingProducerController -> 分片 -> ShardingConsumerController 的投递, 一次保存包含多条任务
+        assertTrue(group.maxBatch.get() > 1);
+        assertTrue(group.saves.get() < single.saves.get());
+        assertEquals(PRODUCERS * MESSAGES, new HashSet<>(group.tasks("list").getTasks()).size());
+    }
+
+    /** 每个生产者向同一个 TodoList 发送 MESSAGES 条任务, 返回所有任务被确认的耗时 */
+    private static long run(String typeName, DB db, Duration commitDelay)
+            throws InterruptedException {
+        EntityTypeKey<SequencedMessage<TodoListMessage>> entityTypeKey =
+                EntityTypeKey.create(ShardingConsumerController.entityTypeKeyClass(), typeName);
+        ActorRef<ShardingEnvelope<SequencedMessage<TodoListMessage>>> region =
+                ClusterSharding.get(testKit.system())
+                        .init(
+                                Entity.of(
+                                        entityTypeKey,
+                                        entityContext ->
+                                                ShardingConsumerController.create(
+                                                        start ->
+                                                                create(
+                                                                        entityContext.getEntityId(),
+                                                                        db,
+                                                                        start,
+                                                                        commitDelay))));
+        List<ActorRef<TodoServiceMessage>> producers = new ArrayList<>();
+        for (int i = 0; i < PRODUCERS; i++) {
+            ActorRef<ShardingProducerController.Command<TodoListMessage>> producerController =
+                    testKit.spawn(
+                            ShardingProducerController.create(
+                                    TodoListMessage.class,
+                                    typeName + "-producer-" + i,
+                                    region,
+                                    Optional.empty()));
+            producers.add(testKit.spawn(TodoService.create(producerController)));
+        }
+        // 等待生产者收到 RequestNext
+        Thread.sleep(1000);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<TodoResponse>> responses = new ArrayList<>();
+        for (int m = 0; m < MESSAGES; m++) {
+            for (int p = 0; p < PRODUCERS; p++) {
+                String item = "task-" + p + "-" + m;
+                responses.add(
+                        AskPattern.<TodoServiceMessage, TodoResponse>ask(
+                                        producers.get(p),
+                                        replyTo -> new UpdateTodo("list", item, false, replyTo),
+                                        Duration.ofSeconds(10),
+                                        testKit.scheduler())
+                                .toCompletableFuture());
+            }
+        }
+        responses.forEach(response -> assertEquals(TodoResponse.ACCEPTED, response.join()));
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    /** commitDelay 为 null 时逐条保存 */
+    private static Behavior<TodoListMessage> create(
+            String id,
+            DB db,
+            ActorRef<ConsumerController.Start<TodoListMessage>> start,
+            Duration commitDelay) {
+        return commitDelay == null
+                ? TodoListActor.create(id, db, start)
+                : TodoListActor.create(id, db, start, commitDelay);
+    }
+
+    /** 每次保存需要 SAVE_MILLIS 毫秒的数据库, 组提交模式下记录一次保存最多包含的新任务数 */
+    private static final class SlowDB implements DB {
+
+        private final Map<String, TodoState> database = new ConcurrentHashMap<>();
+        private final AtomicInteger saves = new AtomicInteger();
+        private final AtomicInteger maxBatch = new AtomicInteger();
+
+        @Override
+        public CompletionStage<Done> save(String id, TodoState state) {
+            return CompletableFuture.supplyAsync(
+                    () -> {
+                        try {
+                            Thread.sleep(SAVE_MILLIS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        saves.incrementAndGet();
+                        // 组提交模式同一时间只有一个保存, 每次保存写入完整的状态, 与上一次保存的差就是这一批的任务数.
+                        // 逐条保存时每个生产者的保存并发进行, 完成顺序不确定, 该值没有意义
+                        TodoState previous = database.put(id, state);
+                        int batch =
+                                state.getTasks().size()
+                                        - (previous == null ? 0 : previous.getTasks().size());
+                        maxBatch.accumulateAndGet(batch, Math::max);
+                        return Done.done();
+                    },
+                    dbExecutor);
+        }
+
+        @Override
+        public CompletionStage<TodoState> load(String id) {
+            return CompletableFuture.completedFuture(database.get(id));
+        }
+
+        TodoState tasks(String id) {
+            return database.get(id);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.DirectBufferPool;
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.ImagePayload;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionJob;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionResult;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgConvertMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgConvertMessage.WrapperDelivery;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.ImageConverterActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.WorkManager;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.delivery.ConsumerController.Delivery;
+
+import javax.imageio.ImageIO;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * 该测试用例演示了 {@link ImageConverterActor} 在 image-converter-dispatcher 上把 png 转换为 jpeg, 对比每个 actor
+ * 同时进行一个转换和多个转换的吞吐量, 按 CPU 核数计算每核每秒转换的图片数量
+ */
+@Slf4j
+public class ImageConversionBenchmarkTest {
+
+    private static final int IMAGES = 200;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private static Config config;
+    private static byte[] png;
+
+    @BeforeAll
+    public static void setup() throws IOException {
+        config =
+                ConfigFactory.parseString("akka.loglevel = INFO")
+                        .withFallback(
+                                ConfigFactory.load("reference-delivery.conf")
+                                        .withOnlyPath(ImageConverterActor.DISPATCHER))
+                        .withFallback(ConfigFactory.load());
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 256; x++) {
+            for (int y = 0; y < 256; y++) {
+                image.setRGB(x, y, 0xFF000000 | x << 16 | y << 8 | (x ^ y));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        png = out.toByteArray();
+    }
+
+    @Test
+    public void benchmark_case() {
+        run(1, 1);
+        run(2, CORES);
+    }
+
+    /** 无法读取的图片同样确认, 结果为空. 两个图片的堆外缓冲区都已经释放 */
+    @Test
+    public void unsupported_case() {
+        ActorTestKit testKit = ActorTestKit.create("ImageConversionUnsupported", config);
+        try {
+            DirectBufferPool pool = new DirectBufferPool(1024, 16);
+            TestProbe<ConversionResult> results = testKit.createTestProbe();
+            testKit.spawn(ImageConverterActor.create(1, results.getRef()));
+            ActorRef<ImgWorkMessage> producer = testKit.spawn(WorkManager.create(pool));
+            producer.tell(new Covert("png", "jpeg", "not an image".getBytes()));
+            producer.tell(new Covert("png", "jpeg", png));
+            assertNull(results.receiveMessage(Duration.ofSeconds(10)).getImage());
+            assertNotNull(results.receiveMessage(Duration.ofSeconds(10)).getImage());
+            assertEquals(0, pool.inUse());
+            assertEquals(16, pool.pooled());
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    /** 已经完成的任务被重新投递时直接确认, 不会发送失败的结果 */
+    @Test
+    public void duplicate_case() {
+        ActorTestKit testKit = ActorTestKit.create("ImageConversionDuplicate", config);
+        try {
+            DirectBufferPool pool = new DirectBufferPool(1024, 16);
+            TestProbe<ConversionResult> results = testKit.createTestProbe();
+            TestProbe<ConsumerController.Confirmed> confirmed = testKit.createTestProbe();
+            ActorRef<ImgConvertMessage> converter =
+                    testKit.spawn(ImageConverterActor.create(1, results.getRef()));
+            ConversionJob job =
+                    new ConversionJob(
+                            UUID.randomUUID(), "png", "jpeg", ImagePayload.copyOf(png, pool));
+            Delivery<ConversionJob> delivery =
+                    new Delivery<>(job, confirmed.getRef(), "producer", 1L);
+            converter.tell(new WrapperDelivery(delivery));
+            assertNotNull(results.receiveMessage(Duration.ofSeconds(10)).getImage());
+            confirmed.receiveMessage();
+
+            // WorkPullingProducerController 没有收到确认时重新发送同一个任务
+            converter.tell(new WrapperDelivery(delivery));
+            confirmed.receiveMessage(Duration.ofSeconds(10));
+            results.expectNoMessage(Duration.ofMillis(200));
+            assertEquals(0, pool.inUse());
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static void run(int workers, int parallelism) {
+        ActorTestKit testKit = ActorTestKit.create("ImageConversionBenchmark", config);
+        try {
+            TestProbe<ConversionResult> results = testKit.createTestProbe();
+            for (int i = 0; i < workers; i++) {
+                testKit.spawn(ImageConverterActor.create(parallelism, results.getRef()));
+            }
+            ActorRef<ImgWorkMessage> producer = testKit.spawn(WorkManager.create());
+            // 预热
+            producer.tell(new Covert("png", "jpeg", png));
+            results.receiveMessage(Duration.ofSeconds(10));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < IMAGES; i++) {
+                producer.tell(new Covert("png", "jpeg", png));
+            }
+            List<ConversionResult> converted =
+                    results.receiveSeveralMessages(IMAGES, Duration.ofSeconds(60));
+            long nanos = System.nanoTime() - start;
+
+            BufferedImage jpeg = read(converted.get(0).getImage());
+            assertEquals(256, jpeg.getWidth());
+            long perSecond = IMAGES * 1_000_000_000L / nanos;
+            log.info(
+                    "{} 个 actor, 每个同时 {} 个转换: {} 张/秒, {} 核, 每核 {} 张/秒",
+                    workers,
+                    parallelism,
+                    perSecond,
+                    CORES,
+                    perSecond / CORES);
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    private static BufferedImage read(byte[] image) {
+        try {
+            return ImageIO.read(new ByteArrayInputStream(image));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.mock.DB;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoListMessage.AddTask;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.TodoState;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.sharding.TodoListActor;
+
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.actor.typed.Behavior;
+import akka.actor.typed.delivery.ConsumerController;
+import akka.actor.typed.delivery.ConsumerController.Delivery;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** 该测试用例演示了 {@link TodoListActor} 启动时加载数据库中已有的任务, 之后的保存在已有的任务上追加, 不会覆盖 */
+public class TodoListActorTest {
+
+    private static ActorTestKit testKit;
+
+    @BeforeAll
+    public static void setup() {
+        testKit = ActorTestKit.create("TodoListActorTest");
+    }
+
+    @AfterAll
+    public static void teardown() {
+        testKit.shutdownTestKit();
+    }
+
+    @Test
+    public void restart_case() {
+        for (Duration commitDelay : new Duration[] {null, Duration.ZERO}) {
+            MemoryDB db = new MemoryDB();
+            db.save("list", new TodoState(Arrays.asList("a", "b")));
+            assertEquals(
+                    Arrays.asList("a", "b", "c"), addTask(db, "list", "c", commitDelay).getTasks());
+            // 数据库中没有的 TodoList 从空列表开始
+            assertEquals(
+                    Collections.singletonList("c"),
+                    addTask(db, "empty", "c", commitDelay).getTasks());
+        }
+    }
+
+    /** 启动一个 TodoListActor, 投递一个 AddTask, 确认后返回数据库中的状态 */
+    private static TodoState addTask(MemoryDB db, String id, String item, Duration commitDelay) {
+        TodoProbes probes = new TodoProbes();
+        Behavior<TodoListMessage> behavior =
+                commitDelay == null
+                        ? TodoListActor.create(id, db, probes.start.getRef())
+                        : TodoListActor.create(id, db, probes.start.getRef(), commitDelay);
+        ActorRef<TodoListMessage> actor = testKit.spawn(behavior);
+        ActorRef<Delivery<TodoListMessage>> deliverTo = probes.start.receiveMessage().deliverTo();
+        deliverTo.tell(
+                new Delivery<>(new AddTask(item), probes.confirmed.getRef(), "producer", 1L));
+        probes.confirmed.receiveMessage();
+        testKit.stop(actor);
+        return db.database.get(id);
+    }
+
+    private static final class TodoProbes {
+
+        private final TestProbe<ConsumerController.Start<TodoListMessage>> start =
+                testKit.createTestProbe();
+        private final TestProbe<ConsumerController.Confirmed> confirmed = testKit.createTestProbe();
+    }
+
+    private static final class MemoryDB implements DB {
+
+        private final Map<String, TodoState> database = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletionStage<Done> save(String id, TodoState state) {
+            database.put(id, state);
+            return CompletableFuture.completedFuture(Done.done());
+        }
+
+        @Override
+        public CompletionStage<TodoState> load(String id) {
+            return CompletableFuture.completedFuture(database.get(id));
+        }
+    }
+}
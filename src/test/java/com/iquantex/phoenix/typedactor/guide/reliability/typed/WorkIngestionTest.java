@@ -0,0 +1,196 @@
+package com.iquantex.phoenix.typedactor.guide.reliability.typed;
+
+import com.iquantex.phoenix.typedactor.guide.reliability.payload.DirectBufferPool;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ConversionResult;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage;
+import com.iquantex.phoenix.typedactor.guide.reliability.protocol.ImgWorkMessage.Covert;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.ImageConverterActor;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.WorkIngestion;
+import com.iquantex.phoenix.typedactor.guide.reliability.typed.workpull.WorkManager;
+
+import com.typesafe.config.ConfigFactory;
+import akka.Done;
+import akka.actor.testkit.typed.javadsl.ActorTestKit;
+import akka.actor.testkit.typed.javadsl.TestProbe;
+import akka.actor.typed.ActorRef;
+import akka.stream.QueueOfferResult;
+
+import javax.imageio.ImageIO;
+
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 该测试用例演示了过载时直接 tell {@link WorkManager} 超过暂存上限的任务被丢弃, 通过 {@link WorkIngestion} 提交时生产者被反压,
+ * 所有任务都完成转换, 同时输出两种方式端到端的吞吐量
+ */
+@Slf4j
+public class WorkIngestionTest {
+
+    private static final int PRODUCERS = 4;
+    private static final int JOBS = 3_000;
+
+    @Test
+    public void stashDrop_case() throws IOException {
+        ActorTestKit testKit = testKit();
+        try {
+            byte[] image = png();
+            TestProbe<ConversionResult> results = testKit.createTestProbe();
+            testKit.spawn(ImageConverterActor.create(2, results.getRef()));
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(WorkManager.create(DirectBufferPool.DEFAULT));
+
+            long start = System.nanoTime();
+            for (int i = 0; i < JOBS; i++) {
+                manager.tell(new Covert("png", "bmp", image));
+            }
+            // 接收结果直到一段时间内没有新的结果, 吞吐量按最后一个结果的时间计算
+            int converted = 0;
+            long last = start;
+            try {
+                while (true) {
+                    results.receiveMessage(Duration.ofSeconds(converted == 0 ? 30 : 3));
+                    converted++;
+                    last = System.nanoTime();
+                }
+            } catch (AssertionError e) {
+                // 没有新的结果
+            }
+            long perSecond = converted * 1_000_000_000L / (last - start);
+            log.info("直接 tell: 共 {} 个任务, 完成 {} 个, {} 个/秒", JOBS, converted, perSecond);
+            assertTrue(converted < JOBS);
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    @Test
+    public void backpressure_case() throws IOException {
+        ActorTestKit testKit = testKit();
+        ExecutorService producers = Executors.newFixedThreadPool(PRODUCERS);
+        try {
+            byte[] image = png();
+            TestProbe<ConversionResult> results = testKit.createTestProbe();
+            TestProbe<UUID> accepted = testKit.createTestProbe();
+            testKit.spawn(ImageConverterActor.create(2, results.getRef()));
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(WorkManager.create(DirectBufferPool.DEFAULT));
+            WorkIngestion ingestion =
+                    new WorkIngestion(
+                            testKit.system(), manager, 64, PRODUCERS, 16, Duration.ofSeconds(30));
+
+            long start = System.nanoTime();
+            CompletableFuture<?>[] offers = new CompletableFuture<?>[PRODUCERS];
+            for (int p = 0; p < PRODUCERS; p++) {
+                offers[p] =
+                        CompletableFuture.runAsync(
+                                () -> {
+                                    for (int i = 0; i < JOBS / PRODUCERS; i++) {
+                                        // 等待进入队列后再提交下一个
+                                        QueueOfferResult result =
+                                                ingestion
+                                                        .offer(
+                                                                new Covert(
+                                                                        "png",
+                                                                        "bmp",
+                                                                        image,
+                                                                        accepted.getRef()))
+                                                        .toCompletableFuture()
+                                                        .join();
+                                        assertEquals(QueueOfferResult.enqueued(), result);
+                                    }
+                                },
+                                producers);
+            }
+            CompletableFuture.allOf(offers).join();
+            long offered = System.nanoTime() - start;
+            ingestion.complete().toCompletableFuture().join();
+
+            Set<UUID> resultIds = new HashSet<>(accepted.receiveSeveralMessages(JOBS));
+            assertEquals(JOBS, resultIds.size());
+            Set<UUID> converted = new HashSet<>();
+            for (ConversionResult result :
+                    results.receiveSeveralMessages(JOBS, Duration.ofSeconds(120))) {
+                converted.add(result.getResultId());
+            }
+            long perSecond = JOBS * 1_000_000_000L / (System.nanoTime() - start);
+            assertEquals(resultIds, converted);
+            log.info(
+                    "WorkIngestion: {} 个生产者, 共 {} 个任务, 全部完成, 提交用时 {} ms, {} 个/秒",
+                    PRODUCERS,
+                    JOBS,
+                    offered / 1_000_000,
+                    perSecond);
+        } finally {
+            producers.shutdown();
+            testKit.shutdownTestKit();
+        }
+    }
+
+    /** 没有消费者时等待发送超时, 流失败, 之后的提交得到失败的信号, 暂存中只有 parallelism 个任务 */
+    @Test
+    public void askTimeout_case() throws IOException {
+        ActorTestKit testKit = testKit();
+        try {
+            byte[] image = png();
+            ActorRef<ImgWorkMessage> manager =
+                    testKit.spawn(WorkManager.create(DirectBufferPool.DEFAULT));
+            WorkIngestion ingestion =
+                    new WorkIngestion(testKit.system(), manager, 4, 1, 2, Duration.ofMillis(300));
+            for (int i = 0; i < 2; i++) {
+                assertEquals(
+                        QueueOfferResult.enqueued(),
+                        ingestion
+                                .offer(new Covert("png", "bmp", image))
+                                .toCompletableFuture()
+                                .join());
+            }
+            CompletableFuture<Done> done = ingestion.complete().toCompletableFuture();
+            assertThrows(CompletionException.class, done::join);
+            assertFalse(isEnqueued(ingestion.offer(new Covert("png", "bmp", image))));
+        } finally {
+            testKit.shutdownTestKit();
+        }
+    }
+
+    /** 流失败后 offer 以失败完成, 或者返回 QueueOfferResult.Failure */
+    private static boolean isEnqueued(CompletionStage<QueueOfferResult> offer) {
+        try {
+            return QueueOfferResult.enqueued().equals(offer.toCompletableFuture().join());
+        } catch (CompletionException e) {
+            return false;
+        }
+    }
+
+    private static ActorTestKit testKit() {
+        return ActorTestKit.create(
+                "WorkIngestionTest",
+                ConfigFactory.parseString("akka.loglevel = INFO")
+                        .withFallback(ConfigFactory.load("reference-delivery.conf")));
+    }
+
+    private static byte[] png() throws IOException {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+}